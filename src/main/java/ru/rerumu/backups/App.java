@@ -9,11 +9,20 @@ import ru.rerumu.backups.factories.SnapshotSenderFactory;
 import ru.rerumu.backups.factories.ZFSFileReaderFactory;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
+import ru.rerumu.backups.factories.impl.CompressorFactoryImpl;
+import ru.rerumu.backups.factories.impl.CryptorFactoryImpl;
+import ru.rerumu.backups.factories.impl.S3ClientFactoryImpl;
 import ru.rerumu.backups.factories.impl.SnapshotSenderFactoryImpl;
 import ru.rerumu.backups.factories.impl.ZFSFileReaderFactoryImpl;
 import ru.rerumu.backups.factories.impl.ZFSFileWriterFactoryImpl;
 import ru.rerumu.backups.factories.impl.ZFSProcessFactoryImpl;
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.MultipartUploadSettings;
+import ru.rerumu.backups.models.PartUploadMode;
+import ru.rerumu.backups.models.S3ClientSettings;
+import ru.rerumu.backups.models.SendFlag;
 import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.models.UploadPolicy;
 import ru.rerumu.backups.models.ZFSPool;
 import ru.rerumu.backups.repositories.FilePartRepository;
 import ru.rerumu.backups.repositories.ZFSFileSystemRepository;
@@ -28,8 +37,10 @@ import software.amazon.awssdk.regions.Region;
 
 import java.net.URI;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 @Generated
 public class App {
@@ -46,7 +57,9 @@ public class App {
             switch (mode) {
                 case "backupFull": {
                     FilePartRepository filePartRepository = new FilePartRepositoryImpl(
-                            Paths.get(configuration.getProperty("backup.directory"))
+                            Paths.get(configuration.getProperty("backup.directory")),
+                            FilePartRepositoryImpl.DEFAULT_POLL_INTERVAL_MILLIS,
+                            Integer.parseInt(configuration.getProperty("ready.window", "1"))
                     );
                     List<S3Storage> s3StorageList = new ArrayList<>();
                     s3StorageList.add(new S3Storage(
@@ -58,45 +71,158 @@ public class App {
                             new URI(configuration.getProperty("s3.endpoint_url")),
                             configuration.getProperty("s3.full.storage_class")
                     ));
-                    S3Repository s3Repository = new S3Repository(s3StorageList);
+                    String mirrors = configuration.getProperty("s3.mirrors");
+                    if (mirrors != null && !mirrors.isBlank()) {
+                        for (String mirror : mirrors.split(",")) {
+                            String prefix = "s3.mirror." + mirror.trim() + ".";
+                            s3StorageList.add(new S3Storage(
+                                    Region.of(configuration.getProperty(prefix + "region_name")),
+                                    configuration.getProperty(prefix + "s3_bucket"),
+                                    configuration.getProperty(prefix + "access_key_id"),
+                                    configuration.getProperty(prefix + "secret_access_key"),
+                                    Paths.get(configuration.getProperty(prefix + "prefix")),
+                                    new URI(configuration.getProperty(prefix + "endpoint_url")),
+                                    configuration.getProperty(prefix + "storage_class")
+                            ));
+                        }
+                    }
+                    S3ClientSettings s3ClientSettings = new S3ClientSettings(
+                            Integer.parseInt(configuration.getProperty(
+                                    "s3.max.connections",
+                                    String.valueOf(S3ClientSettings.DEFAULT_MAX_CONNECTIONS))),
+                            Duration.ofMillis(Long.parseLong(configuration.getProperty(
+                                    "s3.connection.timeout.ms",
+                                    String.valueOf(S3ClientSettings.DEFAULT_CONNECTION_TIMEOUT.toMillis())))),
+                            Duration.ofMillis(Long.parseLong(configuration.getProperty(
+                                    "s3.socket.timeout.ms",
+                                    String.valueOf(S3ClientSettings.DEFAULT_SOCKET_TIMEOUT.toMillis())))),
+                            Duration.ofMillis(Long.parseLong(configuration.getProperty(
+                                    "s3.connection.max.idle.ms",
+                                    String.valueOf(S3ClientSettings.DEFAULT_CONNECTION_MAX_IDLE_TIME.toMillis())))),
+                            Boolean.parseBoolean(configuration.getProperty("s3.tcp.keep.alive", "true")),
+                            Boolean.parseBoolean(configuration.getProperty("s3.path.style.access", "false")));
+                    MultipartUploadSettings multipartUploadSettings = new MultipartUploadSettings(
+                            // Part size 0 keeps uploading every part with a single PutObject
+                            Long.parseLong(configuration.getProperty("s3.multipart.part.size", "0")),
+                            Integer.parseInt(configuration.getProperty("s3.multipart.threads", "1")),
+                            Integer.parseInt(configuration.getProperty(
+                                    "s3.multipart.retries",
+                                    String.valueOf(MultipartUploadSettings.DEFAULT_RETRIES))));
+                    int datasetThreads = Integer.parseInt(configuration.getProperty("dataset.threads", "1"));
+                    int streamThreads = Integer.parseInt(configuration.getProperty("stream.threads", "1"));
+                    S3Repository s3Repository = new S3Repository(
+                            s3StorageList,
+                            new S3ClientFactoryImpl(s3ClientSettings),
+                            multipartUploadSettings,
+                            UploadPolicy.parse(configuration.getProperty("s3.upload.policy")),
+                            datasetThreads * streamThreads);
 
+                    Set<SendFlag> sendFlags = SendFlag.parse(configuration.getProperty("send.flags"));
                     ZFSProcessFactory zfsProcessFactory = new ZFSProcessFactoryImpl(
-                            Boolean.parseBoolean(configuration.getProperty("is.multi.incremental"))
+                            Boolean.parseBoolean(configuration.getProperty("is.multi.incremental")),
+                            sendFlags
                     );
                     ZFSSnapshotRepository zfsSnapshotRepository = new ZFSSnapshotRepositoryImpl(zfsProcessFactory);
-                    ZFSFileSystemRepository zfsFileSystemRepository = new ZFSFileSystemRepositoryImpl(zfsProcessFactory,zfsSnapshotRepository);
+                    ZFSFileSystemRepository zfsFileSystemRepository = new ZFSFileSystemRepositoryImpl(
+                            zfsProcessFactory,
+                            zfsSnapshotRepository,
+                            Boolean.parseBoolean(configuration.getProperty("zfs.bulk.inventory")));
+                    int writerThreads = Integer.parseInt(configuration.getProperty("writer.threads", "1"));
+                    int uploadQueueDepth = Integer.parseInt(configuration.getProperty("upload.queue.depth", "0"));
+                    // Concurrent datasets get their own budget each, streams of a dataset share it
+                    int maxChunks = Integer.parseInt(configuration.getProperty(
+                            "writer.max.chunks", String.valueOf(writerThreads * 2 * datasetThreads)));
+                    ChunkLimit chunkLimit = writerThreads > 1 && datasetThreads * streamThreads > 1
+                            ? new ChunkLimit(maxChunks)
+                            : null;
+                    if (chunkLimit != null) {
+                        logger.info(String.format("Chunks read ahead by all writers are limited to %d", maxChunks));
+                    }
                     ZFSFileWriterFactory zfsFileWriterFactory = new ZFSFileWriterFactoryImpl(
-                            configuration.getProperty("password"),
+                            new CryptorFactoryImpl(
+                                    configuration.getProperty("password"),
+                                    configuration.getProperty("cipher", CryptorFactoryImpl.AES_CBC)),
+                            new CompressorFactoryImpl(
+                                    configuration.getProperty("compression", CompressorFactoryImpl.GZIP),
+                                    configuration.getPropertiesByPrefix("compression.dataset.")),
                             Integer.parseInt(configuration.getProperty("chunk.size")),
-                            Long.parseLong(configuration.getProperty("file.part.size")));
+                            Long.parseLong(configuration.getProperty("file.part.size")),
+                            writerThreads,
+                            Double.parseDouble(configuration.getProperty(
+                                    "compression.max.ratio", String.valueOf(ChunkCompressor.DEFAULT_MAX_RATIO))),
+                            Integer.parseInt(configuration.getProperty(
+                                    "compression.sample.size", String.valueOf(ChunkCompressor.DEFAULT_SAMPLE_SIZE))),
+                            ChecksumType.parse(configuration.getProperty("part.checksums")),
+                            sendFlags,
+                            // Raw streams stay encrypted unless it is turned off explicitly
+                            !"false".equalsIgnoreCase(configuration.getProperty("send.raw.encrypted")),
+                            multipartUploadSettings.isEnabled() ? multipartUploadSettings.getPartSize() : 0,
+                            chunkLimit);
+                    String spoolMaxParts = configuration.getProperty("spool.max.parts");
+                    PartSpool partSpool = null;
+                    if (spoolMaxParts != null) {
+                        partSpool = new PartSpool(Integer.parseInt(spoolMaxParts));
+                    } else if (datasetThreads > 1) {
+                        // As many parts as the upload queues of the concurrent streams hold
+                        int maxParts = datasetThreads * streamThreads * Math.max(uploadQueueDepth, 1);
+                        partSpool = new PartSpool(maxParts);
+                        logger.info(String.format("Parts on disk are limited to %d", maxParts));
+                    }
                     SnapshotSenderFactory snapshotSenderFactory = new SnapshotSenderFactoryImpl(
                             Boolean.parseBoolean(configuration.getProperty("is.multi.incremental")),
                             filePartRepository,
                             s3Repository,
                             zfsProcessFactory,
                             zfsFileWriterFactory,
-                            Boolean.parseBoolean(configuration.getProperty("is.load.aws"))
+                            Boolean.parseBoolean(configuration.getProperty("is.load.aws")),
+                            uploadQueueDepth,
+                            PartUploadMode.parse(configuration.getProperty("part.upload.mode")),
+                            partSpool,
+                            Boolean.parseBoolean(configuration.getProperty("skip.unchanged")),
+                            streamThreads
                     );
+                    SnapshotSender snapshotSender = snapshotSenderFactory.getSnapshotSender();
 
                     ZFSBackupService zfsBackupService = new ZFSBackupService(
                             Boolean.parseBoolean(configuration.getProperty("is.load.aws")),
                             zfsFileSystemRepository,
-                            snapshotSenderFactory.getSnapshotSender()
+                            snapshotSender,
+                            datasetThreads,
+                            // Dry runs of every dataset delay the first send, so they are opt-in
+                            Boolean.parseBoolean(configuration.getProperty("send.estimate", "false"))
+                                    ? zfsSnapshotRepository
+                                    : null
                     );
 
                     BackupController backupController = new BackupController(zfsBackupService);
-                    backupController.backupFull(configuration.getProperty("full.snapshot"));
+                    try {
+                        backupController.backupFull(configuration.getProperty("full.snapshot"));
+                    } finally {
+                        s3Repository.close();
+                    }
+                    s3Repository.getStorageStats().forEach((s3Storage, storageStats) ->
+                            logger.info(String.format("Storage '%s': %s", s3Storage, storageStats)));
+                    zfsFileWriterFactory.getCompressionStats().forEach((dataset, compressionStats) ->
+                            logger.info(String.format("Dataset '%s': %s", dataset, compressionStats)));
+                    logger.info(String.format("Avoided %d sends of unchanged snapshots", snapshotSender.getAvoidedSends()));
                     break;
                 }
                 case "restore": {
                     FilePartRepository filePartRepository = new FilePartRepositoryImpl(
-                            Paths.get(configuration.getProperty("backup.directory"))
+                            Paths.get(configuration.getProperty("backup.directory")),
+                            FilePartRepositoryImpl.DEFAULT_POLL_INTERVAL_MILLIS,
+                            Integer.parseInt(configuration.getProperty("ready.window", "1"))
                     );
 
                     ZFSProcessFactory zfsProcessFactory = new ZFSProcessFactoryImpl(
                             Boolean.parseBoolean(configuration.getProperty("is.multi.incremental"))
                     );
-                    ZFSFileReaderFactory zfsFileReaderFactory = new ZFSFileReaderFactoryImpl(configuration.getProperty("password"));
+                    ZFSFileReaderFactory zfsFileReaderFactory = new ZFSFileReaderFactoryImpl(
+                            configuration.getProperty("password"),
+                            Integer.parseInt(configuration.getProperty("reader.threads", "1")),
+                            Integer.parseInt(configuration.getProperty("key.derivation.threads", "0")),
+                            // Unencrypted parts of raw sends are only accepted when it is turned on explicitly
+                            Boolean.parseBoolean(configuration.getProperty("receive.raw.unencrypted")));
                     SnapshotReceiver snapshotReceiver = new SnapshotReceiverImpl(
                             zfsProcessFactory,
                             new ZFSPool(configuration.getProperty("receive.pool")),
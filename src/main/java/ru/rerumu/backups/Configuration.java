@@ -4,6 +4,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 @Generated
@@ -21,4 +23,21 @@ public class Configuration {
     public String getProperty(String name) {
         return properties.getProperty(name);
     }
+
+    /**
+     * For settings added later, so older configuration files keep working.
+     */
+    public String getProperty(String name, String defaultValue) {
+        return properties.getProperty(name, defaultValue);
+    }
+
+    public Map<String, String> getPropertiesByPrefix(String prefix) {
+        Map<String, String> res = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                res.put(name.substring(prefix.length()), properties.getProperty(name));
+            }
+        }
+        return res;
+    }
 }
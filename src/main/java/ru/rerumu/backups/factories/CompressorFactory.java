@@ -0,0 +1,9 @@
+package ru.rerumu.backups.factories;
+
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.services.Compressor;
+
+public interface CompressorFactory {
+    Compressor getCompressor(String datasetName);
+    Compressor getDecompressor(int codec) throws CompressorException;
+}
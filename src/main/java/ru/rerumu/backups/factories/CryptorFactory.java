@@ -0,0 +1,7 @@
+package ru.rerumu.backups.factories;
+
+import ru.rerumu.backups.services.Cryptor;
+
+public interface CryptorFactory {
+    Cryptor getCryptor();
+}
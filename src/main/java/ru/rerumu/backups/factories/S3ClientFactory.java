@@ -0,0 +1,11 @@
+package ru.rerumu.backups.factories;
+
+import ru.rerumu.backups.models.S3Storage;
+import software.amazon.awssdk.services.s3.S3Client;
+
+public interface S3ClientFactory {
+    /**
+     * Builds a new client, the caller owns it and has to close it.
+     */
+    S3Client getS3Client(S3Storage s3Storage);
+}
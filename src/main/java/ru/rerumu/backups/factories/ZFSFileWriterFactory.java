@@ -1,7 +1,15 @@
 package ru.rerumu.backups.factories;
 
+import ru.rerumu.backups.models.CompressionStats;
 import ru.rerumu.backups.services.ZFSFileWriter;
 
+import java.util.Map;
+
 public interface ZFSFileWriterFactory {
-    ZFSFileWriter getZFSFileWriter();
+    ZFSFileWriter getZFSFileWriter(String datasetName);
+
+    /**
+     * Chunks compressed and stored raw by writers of every dataset.
+     */
+    Map<String, CompressionStats> getCompressionStats();
 }
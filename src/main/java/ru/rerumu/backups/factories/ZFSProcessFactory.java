@@ -1,5 +1,6 @@
 package ru.rerumu.backups.factories;
 
+import ru.rerumu.backups.models.SendFlag;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.models.ZFSFileSystem;
 import ru.rerumu.backups.models.ZFSPool;
@@ -9,12 +10,21 @@ import ru.rerumu.backups.zfs_api.ZFSReceive;
 import ru.rerumu.backups.zfs_api.ZFSSend;
 
 import java.io.IOException;
+import java.util.Set;
 
 public interface ZFSProcessFactory {
     ProcessWrapper getZFSListSnapshots(String fileSystemName) throws IOException;
+    ProcessWrapper getZFSListSnapshotsRecursive(String parentFileSystemName) throws IOException;
     ProcessWrapper getZFSListFilesystems(String parentFileSystem) throws IOException;
     ZFSReceive getZFSReceive(ZFSPool zfsPool) throws IOException;
     ZFSSend getZFSSendIncremental(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException;
-//    ZFSSend getZFSSendMultiIncremental(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException;
+    ZFSSend getZFSSendMultiIncremental(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException;
     ZFSSend getZFSSendFull(Snapshot snapshot) throws IOException;
+    ProcessWrapper getZFSSendEstimate(Snapshot snapshot) throws IOException;
+    ProcessWrapper getZFSSendEstimate(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException;
+
+    /**
+     * Options added to every {@code zfs send}, the streams are named after them.
+     */
+    Set<SendFlag> getSendFlags();
 }
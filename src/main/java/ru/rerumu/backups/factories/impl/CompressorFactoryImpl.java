@@ -0,0 +1,91 @@
+package ru.rerumu.backups.factories.impl;
+
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.factories.CompressorFactory;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Compressor;
+import ru.rerumu.backups.services.impl.GZIPCompressor;
+import ru.rerumu.backups.services.impl.LZ4Compressor;
+import ru.rerumu.backups.services.impl.StoredCompressor;
+import ru.rerumu.backups.services.impl.ZstdCompressor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses the compressor for a dataset from codec names: {@code gzip}, {@code lz4}, {@code zstd},
+ * {@code zstd:<level>} or {@code none}. Datasets without their own codec use the default one.
+ * Reading does not depend on this configuration, the codec is taken from every frame.
+ */
+public class CompressorFactoryImpl implements CompressorFactory {
+    public static final String GZIP = "gzip";
+    public static final String ZSTD = "zstd";
+    public static final String LZ4 = "lz4";
+    public static final String NONE = "none";
+
+    private final Compressor defaultCompressor;
+    private final Map<String, Compressor> datasetCompressors = new HashMap<>();
+
+    public CompressorFactoryImpl(){
+        this(GZIP, Map.of());
+    }
+
+    public CompressorFactoryImpl(String defaultCodec, Map<String, String> datasetCodecs){
+        this.defaultCompressor = parseCodec(defaultCodec);
+        for (Map.Entry<String, String> entry : datasetCodecs.entrySet()) {
+            datasetCompressors.put(entry.getKey(), parseCodec(entry.getValue()));
+        }
+    }
+
+    private static Compressor parseCodec(String codec) {
+        String[] parts = codec.trim().split(":", 2);
+        switch (parts[0]) {
+            case GZIP:
+                if (parts.length == 1) {
+                    return new GZIPCompressor();
+                }
+                break;
+            case LZ4:
+                if (parts.length == 1) {
+                    return new LZ4Compressor();
+                }
+                break;
+            case NONE:
+                if (parts.length == 1) {
+                    return new StoredCompressor();
+                }
+                break;
+            case ZSTD:
+                if (parts.length == 1) {
+                    return new ZstdCompressor();
+                }
+                try {
+                    return new ZstdCompressor(Integer.parseInt(parts[1]));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+        }
+        throw new IllegalArgumentException(String.format("Unknown codec '%s'", codec));
+    }
+
+    @Override
+    public Compressor getCompressor(String datasetName) {
+        return datasetCompressors.getOrDefault(datasetName, defaultCompressor);
+    }
+
+    @Override
+    public Compressor getDecompressor(int codec) throws CompressorException {
+        switch (codec) {
+            case CryptoMessage.CODEC_GZIP:
+                return new GZIPCompressor();
+            case CryptoMessage.CODEC_ZSTD:
+                return new ZstdCompressor();
+            case CryptoMessage.CODEC_LZ4:
+                return new LZ4Compressor();
+            case CryptoMessage.CODEC_STORED:
+                return new StoredCompressor();
+            default:
+                throw new CompressorException(String.format("Unknown codec id %d", codec));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ru.rerumu.backups.factories.impl;
+
+import ru.rerumu.backups.factories.CryptorFactory;
+import ru.rerumu.backups.services.Cryptor;
+import ru.rerumu.backups.services.impl.AESCryptor;
+import ru.rerumu.backups.services.impl.AESGCMCryptor;
+
+public class CryptorFactoryImpl implements CryptorFactory {
+    public static final String AES_CBC = "aes-cbc";
+    public static final String AES_GCM = "aes-gcm";
+
+    private final String password;
+    private final String cipher;
+
+    public CryptorFactoryImpl(String password, String cipher){
+        if (!AES_CBC.equals(cipher) && !AES_GCM.equals(cipher)){
+            throw new IllegalArgumentException(String.format("Unknown cipher '%s'", cipher));
+        }
+        this.password = password;
+        this.cipher = cipher;
+    }
+
+    @Override
+    public Cryptor getCryptor() {
+        if (AES_GCM.equals(cipher)){
+            return new AESGCMCryptor(password);
+        } else {
+            return new AESCryptor(password);
+        }
+    }
+}
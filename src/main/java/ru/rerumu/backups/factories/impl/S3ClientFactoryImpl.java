@@ -0,0 +1,39 @@
+package ru.rerumu.backups.factories.impl;
+
+import ru.rerumu.backups.factories.S3ClientFactory;
+import ru.rerumu.backups.models.S3ClientSettings;
+import ru.rerumu.backups.models.S3Storage;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+public class S3ClientFactoryImpl implements S3ClientFactory {
+    private final S3ClientSettings s3ClientSettings;
+
+    public S3ClientFactoryImpl() {
+        this(new S3ClientSettings());
+    }
+
+    public S3ClientFactoryImpl(S3ClientSettings s3ClientSettings) {
+        this.s3ClientSettings = s3ClientSettings;
+    }
+
+    @Override
+    public S3Client getS3Client(S3Storage s3Storage) {
+        return S3Client.builder()
+                .region(s3Storage.getRegion())
+                .endpointOverride(s3Storage.getEndpoint())
+                .credentialsProvider(StaticCredentialsProvider.create(s3Storage.getCredentials()))
+                .serviceConfiguration(S3Configuration.builder()
+                        .pathStyleAccessEnabled(s3ClientSettings.isPathStyleAccess())
+                        .build())
+                .httpClientBuilder(ApacheHttpClient.builder()
+                        .maxConnections(s3ClientSettings.getMaxConnections())
+                        .connectionTimeout(s3ClientSettings.getConnectionTimeout())
+                        .socketTimeout(s3ClientSettings.getSocketTimeout())
+                        .connectionMaxIdleTime(s3ClientSettings.getConnectionMaxIdleTime())
+                        .tcpKeepAlive(s3ClientSettings.isTcpKeepAlive()))
+                .build();
+    }
+}
@@ -3,9 +3,11 @@ package ru.rerumu.backups.factories.impl;
 import ru.rerumu.backups.factories.SnapshotSenderFactory;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
+import ru.rerumu.backups.models.PartUploadMode;
 import ru.rerumu.backups.repositories.FilePartRepository;
 import ru.rerumu.backups.repositories.RemoteBackupRepository;
 import ru.rerumu.backups.services.SnapshotSender;
+import ru.rerumu.backups.services.impl.PartSpool;
 import ru.rerumu.backups.services.impl.SnapshotSenderByDataset;
 import ru.rerumu.backups.services.impl.SnapshotSenderBySnapshot;
 
@@ -17,6 +19,11 @@ public class SnapshotSenderFactoryImpl implements SnapshotSenderFactory {
     private final ZFSProcessFactory zfsProcessFactory;
     private final ZFSFileWriterFactory zfsFileWriterFactory;
     private final boolean isLoadS3;
+    private final int uploadQueueDepth;
+    private final PartUploadMode partUploadMode;
+    private final PartSpool partSpool;
+    private final boolean isSkippingUnchanged;
+    private final int streamThreads;
 
     public SnapshotSenderFactoryImpl(
             boolean isMultiIncremental,
@@ -25,6 +32,93 @@ public class SnapshotSenderFactoryImpl implements SnapshotSenderFactory {
             ZFSProcessFactory zfsProcessFactory,
             ZFSFileWriterFactory zfsFileWriterFactory,
             boolean isLoadS3
+    ){
+        this(isMultiIncremental, filePartRepository, remoteBackupRepository, zfsProcessFactory,
+                zfsFileWriterFactory, isLoadS3, 0);
+    }
+
+    public SnapshotSenderFactoryImpl(
+            boolean isMultiIncremental,
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth
+    ){
+        this(isMultiIncremental, filePartRepository, remoteBackupRepository, zfsProcessFactory,
+                zfsFileWriterFactory, isLoadS3, uploadQueueDepth, PartUploadMode.FILES);
+    }
+
+    public SnapshotSenderFactoryImpl(
+            boolean isMultiIncremental,
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode
+    ){
+        this(isMultiIncremental, filePartRepository, remoteBackupRepository, zfsProcessFactory,
+                zfsFileWriterFactory, isLoadS3, uploadQueueDepth, partUploadMode, null);
+    }
+
+    /**
+     * All senders share {@code partSpool}, so the parts on disk are limited across datasets sent at the same time.
+     */
+    public SnapshotSenderFactoryImpl(
+            boolean isMultiIncremental,
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool
+    ){
+        this(isMultiIncremental, filePartRepository, remoteBackupRepository, zfsProcessFactory,
+                zfsFileWriterFactory, isLoadS3, uploadQueueDepth, partUploadMode, partSpool, false);
+    }
+
+    /**
+     * {@code isSkippingUnchanged} lets the sender by snapshot put snapshots with nothing written
+     * into the stream of a changed one instead of sending each of them. Both senders skip the snapshots
+     * after the base if none of them has anything written.
+     */
+    public SnapshotSenderFactoryImpl(
+            boolean isMultiIncremental,
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool,
+            boolean isSkippingUnchanged
+    ){
+        this(isMultiIncremental, filePartRepository, remoteBackupRepository, zfsProcessFactory,
+                zfsFileWriterFactory, isLoadS3, uploadQueueDepth, partUploadMode, partSpool, isSkippingUnchanged, 1);
+    }
+
+    /**
+     * {@code streamThreads} is the number of incremental streams of a dataset the sender by snapshot
+     * sends at the same time.
+     */
+    public SnapshotSenderFactoryImpl(
+            boolean isMultiIncremental,
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool,
+            boolean isSkippingUnchanged,
+            int streamThreads
     ){
         this.isMultiIncremental = isMultiIncremental;
         this.filePartRepository = filePartRepository;
@@ -32,6 +126,11 @@ public class SnapshotSenderFactoryImpl implements SnapshotSenderFactory {
         this.zfsProcessFactory = zfsProcessFactory;
         this.zfsFileWriterFactory = zfsFileWriterFactory;
         this.isLoadS3 = isLoadS3;
+        this.uploadQueueDepth = uploadQueueDepth;
+        this.partUploadMode = partUploadMode;
+        this.partSpool = partSpool;
+        this.isSkippingUnchanged = isSkippingUnchanged;
+        this.streamThreads = streamThreads;
     }
 
     @Override
@@ -42,7 +141,11 @@ public class SnapshotSenderFactoryImpl implements SnapshotSenderFactory {
                     remoteBackupRepository,
                     zfsProcessFactory,
                     zfsFileWriterFactory,
-                    isLoadS3
+                    isLoadS3,
+                    uploadQueueDepth,
+                    partUploadMode,
+                    partSpool,
+                    isSkippingUnchanged
             );
         } else {
             return new SnapshotSenderBySnapshot(
@@ -50,7 +153,12 @@ public class SnapshotSenderFactoryImpl implements SnapshotSenderFactory {
                     remoteBackupRepository,
                     zfsProcessFactory,
                     zfsFileWriterFactory,
-                    isLoadS3
+                    isLoadS3,
+                    uploadQueueDepth,
+                    partUploadMode,
+                    partSpool,
+                    isSkippingUnchanged,
+                    streamThreads
             );
         }
     }
@@ -1,21 +1,56 @@
 package ru.rerumu.backups.factories.impl;
 
+import ru.rerumu.backups.factories.CompressorFactory;
+import ru.rerumu.backups.services.Cryptor;
 import ru.rerumu.backups.services.ZFSFileReader;
 import ru.rerumu.backups.factories.ZFSFileReaderFactory;
+import ru.rerumu.backups.services.impl.AESCryptor;
+import ru.rerumu.backups.services.impl.PlainCryptor;
+import ru.rerumu.backups.services.impl.SecretKeyCache;
 import ru.rerumu.backups.services.impl.ZFSFileReaderFull;
+import ru.rerumu.backups.services.impl.ZFSFileReaderParallel;
 
 import java.io.BufferedOutputStream;
 import java.nio.file.Path;
 
 public class ZFSFileReaderFactoryImpl implements ZFSFileReaderFactory {
-    private final String password;
+    private static final int KEY_CACHE_SIZE = 256;
+
+    private final int threads;
+    // Shared by all files, so keys derived ahead of the current file are not lost
+    private final SecretKeyCache secretKeyCache;
+    private final CompressorFactory compressorFactory = new CompressorFactoryImpl();
+    private final boolean isPlainAllowed;
 
     public ZFSFileReaderFactoryImpl(String password){
-        this.password = password;
+        this(password, 1, 0);
+    }
+
+    public ZFSFileReaderFactoryImpl(String password, int threads, int keyDerivationThreads){
+        this(password, threads, keyDerivationThreads, false);
+    }
+
+    /**
+     * With {@code isPlainAllowed} unencrypted chunks, written for raw sends with encryption turned off,
+     * are accepted. Whether a chunk is encrypted is told by its frame, not by the name of the part,
+     * so otherwise every chunk has to be encrypted.
+     */
+    public ZFSFileReaderFactoryImpl(String password, int threads, int keyDerivationThreads, boolean isPlainAllowed){
+        this.threads = threads;
+        this.secretKeyCache = new SecretKeyCache(password, KEY_CACHE_SIZE, keyDerivationThreads);
+        this.isPlainAllowed = isPlainAllowed;
     }
 
     @Override
     public ZFSFileReader getZFSFileReader(BufferedOutputStream bufferedOutputStream, Path path) {
-        return new ZFSFileReaderFull(bufferedOutputStream,path,password);
+        Cryptor cryptor = new AESCryptor(secretKeyCache);
+        if (isPlainAllowed) {
+            cryptor = new PlainCryptor(cryptor);
+        }
+        if (threads > 1) {
+            return new ZFSFileReaderParallel(bufferedOutputStream, path, cryptor, compressorFactory, threads, threads * 2);
+        } else {
+            return new ZFSFileReaderFull(bufferedOutputStream, path, cryptor, compressorFactory);
+        }
     }
 }
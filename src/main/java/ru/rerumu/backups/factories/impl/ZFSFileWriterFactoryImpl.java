@@ -1,22 +1,136 @@
 package ru.rerumu.backups.factories.impl;
 
+import ru.rerumu.backups.factories.CompressorFactory;
+import ru.rerumu.backups.factories.CryptorFactory;
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.CompressionStats;
+import ru.rerumu.backups.models.SendFlag;
+import ru.rerumu.backups.services.Compressor;
 import ru.rerumu.backups.services.ZFSFileWriter;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
+import ru.rerumu.backups.services.impl.ChunkCompressor;
+import ru.rerumu.backups.services.impl.ChunkLimit;
+import ru.rerumu.backups.services.impl.PlainCryptor;
+import ru.rerumu.backups.services.impl.StoredCompressor;
 import ru.rerumu.backups.services.impl.ZFSFileWriterFull;
+import ru.rerumu.backups.services.impl.ZFSFileWriterParallel;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ZFSFileWriterFactoryImpl implements ZFSFileWriterFactory {
-    private final String password;
+    private final CryptorFactory cryptorFactory;
+    private final CompressorFactory compressorFactory;
     private final int chunkSize;
     private final long filePartSize;
+    private final int threads;
+    private final double maxCompressionRatio;
+    private final int compressionSampleSize;
+    private final Set<ChecksumType> checksumTypes;
+    private final boolean isIncompressible;
+    private final long partMD5Size;
+    private final ChunkLimit chunkLimit;
+    private final Map<String, CompressionStats> compressionStatsMap = new ConcurrentHashMap<>();
 
     public ZFSFileWriterFactoryImpl(String password, int chunkSize, long filePartSize){
-        this.password = password;
+        this(new CryptorFactoryImpl(password, CryptorFactoryImpl.AES_CBC), new CompressorFactoryImpl(),
+                chunkSize, filePartSize, 1);
+    }
+
+    public ZFSFileWriterFactoryImpl(CryptorFactory cryptorFactory, CompressorFactory compressorFactory,
+                                    int chunkSize, long filePartSize, int threads){
+        this(cryptorFactory, compressorFactory, chunkSize, filePartSize, threads,
+                ChunkCompressor.DEFAULT_MAX_RATIO, ChunkCompressor.DEFAULT_SAMPLE_SIZE, EnumSet.of(ChecksumType.MD5));
+    }
+
+    public ZFSFileWriterFactoryImpl(CryptorFactory cryptorFactory, CompressorFactory compressorFactory,
+                                    int chunkSize, long filePartSize, int threads,
+                                    double maxCompressionRatio, int compressionSampleSize,
+                                    Set<ChecksumType> checksumTypes){
+        this(cryptorFactory, compressorFactory, chunkSize, filePartSize, threads,
+                maxCompressionRatio, compressionSampleSize, checksumTypes, EnumSet.noneOf(SendFlag.class), true);
+    }
+
+    /**
+     * Streams of {@code zfs send -w} are stored without compression, their blocks are encrypted by ZFS.
+     * Streams of {@code -c} still go through the compressor, its trial check skips chunks that do not shrink.
+     * With {@code isRawEncrypted} false raw streams are written unencrypted.
+     */
+    public ZFSFileWriterFactoryImpl(CryptorFactory cryptorFactory, CompressorFactory compressorFactory,
+                                    int chunkSize, long filePartSize, int threads,
+                                    double maxCompressionRatio, int compressionSampleSize,
+                                    Set<ChecksumType> checksumTypes,
+                                    Set<SendFlag> sendFlags, boolean isRawEncrypted){
+        this(cryptorFactory, compressorFactory, chunkSize, filePartSize, threads,
+                maxCompressionRatio, compressionSampleSize, checksumTypes, sendFlags, isRawEncrypted, 0);
+    }
+
+    /**
+     * {@code partMD5Size} is the multipart part size of the uploads, the writers compute the MD5s
+     * of the sub-parts while writing. 0 if parts are not uploaded in multiple parts.
+     */
+    public ZFSFileWriterFactoryImpl(CryptorFactory cryptorFactory, CompressorFactory compressorFactory,
+                                    int chunkSize, long filePartSize, int threads,
+                                    double maxCompressionRatio, int compressionSampleSize,
+                                    Set<ChecksumType> checksumTypes,
+                                    Set<SendFlag> sendFlags, boolean isRawEncrypted,
+                                    long partMD5Size){
+        this(cryptorFactory, compressorFactory, chunkSize, filePartSize, threads,
+                maxCompressionRatio, compressionSampleSize, checksumTypes, sendFlags, isRawEncrypted, partMD5Size,
+                null);
+    }
+
+    /**
+     * {@code chunkLimit} is shared by all parallel writers of this factory, so the chunks read ahead
+     * by streams sent at the same time stay within it. Null leaves every writer its own {@code threads * 2}.
+     */
+    public ZFSFileWriterFactoryImpl(CryptorFactory cryptorFactory, CompressorFactory compressorFactory,
+                                    int chunkSize, long filePartSize, int threads,
+                                    double maxCompressionRatio, int compressionSampleSize,
+                                    Set<ChecksumType> checksumTypes,
+                                    Set<SendFlag> sendFlags, boolean isRawEncrypted,
+                                    long partMD5Size, ChunkLimit chunkLimit){
+        if (!checksumTypes.contains(ChecksumType.MD5)) {
+            throw new IllegalArgumentException("MD5 is required to verify uploads");
+        }
+        this.cryptorFactory = sendFlags.contains(SendFlag.RAW) && !isRawEncrypted
+                ? () -> new PlainCryptor(cryptorFactory.getCryptor())
+                : cryptorFactory;
+        this.compressorFactory = compressorFactory;
         this.chunkSize = chunkSize;
         this.filePartSize = filePartSize;
+        this.threads = threads;
+        this.maxCompressionRatio = maxCompressionRatio;
+        this.compressionSampleSize = compressionSampleSize;
+        this.checksumTypes = checksumTypes;
+        this.isIncompressible = SendFlag.isIncompressible(sendFlags);
+        this.partMD5Size = partMD5Size;
+        this.chunkLimit = chunkLimit;
+    }
+
+    @Override
+    public ZFSFileWriter getZFSFileWriter(String datasetName) {
+        Compressor compressor = isIncompressible ? new StoredCompressor() : compressorFactory.getCompressor(datasetName);
+        ChunkCompressor chunkCompressor = new ChunkCompressor(
+                compressor,
+                maxCompressionRatio,
+                compressionSampleSize,
+                compressionStatsMap.computeIfAbsent(datasetName, key -> new CompressionStats()));
+        if (threads > 1) {
+            // Two chunks per worker keep every thread busy while the previous result is being written
+            return new ZFSFileWriterParallel(cryptorFactory, chunkCompressor, chunkSize, filePartSize, threads, threads * 2,
+                    checksumTypes, partMD5Size, chunkLimit);
+        } else {
+            return new ZFSFileWriterFull(cryptorFactory, chunkCompressor, chunkSize, filePartSize, checksumTypes,
+                    partMD5Size);
+        }
     }
 
     @Override
-    public ZFSFileWriter getZFSFileWriter() {
-        return new ZFSFileWriterFull(password,chunkSize,filePartSize);
+    public Map<String, CompressionStats> getCompressionStats() {
+        return new TreeMap<>(compressionStatsMap);
     }
 }
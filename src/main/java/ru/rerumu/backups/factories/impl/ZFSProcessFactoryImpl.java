@@ -1,5 +1,6 @@
 package ru.rerumu.backups.factories.impl;
 
+import ru.rerumu.backups.models.SendFlag;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.models.ZFSPool;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
@@ -10,28 +11,51 @@ import ru.rerumu.backups.zfs_api.impl.ZFSSendIncremental;
 import ru.rerumu.backups.zfs_api.impl.ZFSSendMultiIncremental;
 
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class ZFSProcessFactoryImpl implements ZFSProcessFactory {
     private final boolean isMultiIncremental;
+    private final Set<SendFlag> sendFlags;
 
     public ZFSProcessFactoryImpl(boolean isMultiIncremental){
+        this(isMultiIncremental, EnumSet.noneOf(SendFlag.class));
+    }
+
+    public ZFSProcessFactoryImpl(boolean isMultiIncremental, Set<SendFlag> sendFlags){
         this.isMultiIncremental = isMultiIncremental;
+        this.sendFlags = sendFlags;
     }
 
     @Override
     public ZFSSend getZFSSendFull(Snapshot snapshot) throws IOException {
-        return new ZFSSendFull(snapshot);
+        return new ZFSSendFull(snapshot, sendFlags);
     }
 
     @Override
     public ZFSSend getZFSSendIncremental(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException {
         if (isMultiIncremental){
-            return new ZFSSendMultiIncremental(baseSnapshot, incrementalSnapshot);
+            return new ZFSSendMultiIncremental(baseSnapshot, incrementalSnapshot, sendFlags);
         } else {
-            return new ZFSSendIncremental(baseSnapshot, incrementalSnapshot);
+            return new ZFSSendIncremental(baseSnapshot, incrementalSnapshot, sendFlags);
         }
     }
 
+    @Override
+    public ZFSSend getZFSSendMultiIncremental(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException {
+        return new ZFSSendMultiIncremental(baseSnapshot, incrementalSnapshot, sendFlags);
+    }
+
+    @Override
+    public ProcessWrapper getZFSSendEstimate(Snapshot snapshot) throws IOException {
+        return new ZFSSendEstimate(snapshot, sendFlags);
+    }
+
+    @Override
+    public ProcessWrapper getZFSSendEstimate(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException {
+        return new ZFSSendEstimate(baseSnapshot, incrementalSnapshot, sendFlags);
+    }
+
     @Override
     public ZFSReceive getZFSReceive(ZFSPool zfsPool) throws IOException {
         return new ZFSReceiveImpl(zfsPool.getName());
@@ -47,5 +71,15 @@ public class ZFSProcessFactoryImpl implements ZFSProcessFactory {
         return new ZFSListSnapshots(fileSystemName);
     }
 
+    @Override
+    public ProcessWrapper getZFSListSnapshotsRecursive(String parentFileSystemName) throws IOException {
+        return new ZFSListSnapshotsRecursive(parentFileSystemName);
+    }
+
+    @Override
+    public Set<SendFlag> getSendFlags() {
+        return sendFlags;
+    }
+
 
 }
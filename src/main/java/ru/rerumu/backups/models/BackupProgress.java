@@ -0,0 +1,57 @@
+package ru.rerumu.backups.models;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimated bytes of a backup run and the part of them already sent. Updated from dataset threads.
+ * The remaining time is predicted from the throughput measured since the start.
+ */
+public class BackupProgress {
+    private final long totalBytes;
+    private final long startNanos;
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    public BackupProgress(long totalBytes) {
+        this(totalBytes, System.nanoTime());
+    }
+
+    public BackupProgress(long totalBytes, long startNanos) {
+        this.totalBytes = totalBytes;
+        this.startNanos = startNanos;
+    }
+
+    public void addSent(long bytes) {
+        sentBytes.addAndGet(bytes);
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    /**
+     * Null until something is sent, since there is no throughput to predict from.
+     */
+    public Duration getRemainingTime(long nowNanos) {
+        long sent = sentBytes.get();
+        long elapsedNanos = nowNanos - startNanos;
+        if (sent == 0 || elapsedNanos <= 0) {
+            return null;
+        }
+        long remaining = Math.max(totalBytes - sent, 0);
+        return Duration.ofNanos((long) ((double) elapsedNanos * remaining / sent));
+    }
+
+    public Duration getRemainingTime() {
+        return getRemainingTime(System.nanoTime());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d estimated bytes sent", getSentBytes(), getTotalBytes());
+    }
+}
@@ -0,0 +1,29 @@
+package ru.rerumu.backups.models;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+public enum ChecksumType {
+    MD5,
+    SHA256,
+    CRC32C;
+
+    /**
+     * Parses a comma separated list like {@code md5,sha256}. MD5 is always included,
+     * uploads are verified against it.
+     */
+    public static Set<ChecksumType> parse(String value) {
+        Set<ChecksumType> res = EnumSet.of(MD5);
+        if (value == null) {
+            return res;
+        }
+        for (String item : value.split(",")) {
+            item = item.trim();
+            if (!item.isEmpty()) {
+                res.add(ChecksumType.valueOf(item.toUpperCase(Locale.ROOT)));
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,19 @@
+package ru.rerumu.backups.models;
+
+public class CompressedChunk {
+    private final int codec;
+    private final byte[] data;
+
+    public CompressedChunk(int codec, byte[] data){
+        this.codec = codec;
+        this.data = data;
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
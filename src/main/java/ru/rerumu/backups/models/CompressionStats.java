@@ -0,0 +1,32 @@
+package ru.rerumu.backups.models;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of chunks written compressed and stored raw. Updated from writer threads.
+ */
+public class CompressionStats {
+    private final AtomicLong compressedChunks = new AtomicLong();
+    private final AtomicLong storedChunks = new AtomicLong();
+
+    public void addCompressed() {
+        compressedChunks.incrementAndGet();
+    }
+
+    public void addStored() {
+        storedChunks.incrementAndGet();
+    }
+
+    public long getCompressedChunks() {
+        return compressedChunks.get();
+    }
+
+    public long getStoredChunks() {
+        return storedChunks.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d chunks compressed, %d stored", getCompressedChunks(), getStoredChunks());
+    }
+}
@@ -4,16 +4,49 @@ import java.io.Serializable;
 
 public class CryptoMessage implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    // Key derived with PBKDF2 from the salt of every message. Messages written before versioning read as 0
+    public static final int VERSION_PBKDF2 = 0;
+    // Salt is shared by the whole part, message key is derived with HKDF from the PBKDF2 key and the IV
+    public static final int VERSION_HKDF = 1;
+    // Same keys as VERSION_HKDF, encrypted with AES-GCM instead of AES-CBC
+    public static final int VERSION_GCM = 2;
+    // Not encrypted, without salt and IV. Only read from raw sends, which are encrypted by ZFS itself
+    public static final int VERSION_PLAIN = 3;
+
+    // Compression of the encrypted data. Messages written before codecs were recorded read as 0
+    public static final int CODEC_GZIP = 0;
+    public static final int CODEC_ZSTD = 1;
+    public static final int CODEC_LZ4 = 2;
+    // Chunk did not compress well enough and is kept as is
+    public static final int CODEC_STORED = 3;
+
     private final byte[] salt;
     private final byte[] iv;
     private final byte[] message;
+    private final int version;
+    private final int codec;
 
     public CryptoMessage(byte[] salt, byte[] iv, byte[] message){
+        this(VERSION_PBKDF2, salt, iv, message);
+    }
+
+    public CryptoMessage(int version, byte[] salt, byte[] iv, byte[] message){
+        this(version, CODEC_GZIP, salt, iv, message);
+    }
+
+    public CryptoMessage(int version, int codec, byte[] salt, byte[] iv, byte[] message){
+        this.version = version;
+        this.codec = codec;
         this.salt = salt;
         this.iv = iv;
         this.message = message;
     }
 
+    public CryptoMessage withCodec(int codec){
+        return new CryptoMessage(version, codec, salt, iv, message);
+    }
+
     public byte[] getMessage() {
         return message;
     }
@@ -25,4 +58,12 @@ public class CryptoMessage implements Serializable {
     public byte[] getIv() {
         return iv;
     }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getCodec() {
+        return codec;
+    }
 }
@@ -0,0 +1,49 @@
+package ru.rerumu.backups.models;
+
+/**
+ * Files larger than {@code partSize} are sent as multipart uploads, {@code threads} sub-parts at a time.
+ * A failed sub-part is retried up to {@code retries} times without restarting the upload.
+ * {@code partSize} 0 disables multipart uploads.
+ */
+public class MultipartUploadSettings {
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    public static final int MAX_PARTS = 10_000;
+    public static final int DEFAULT_RETRIES = 3;
+
+    private final long partSize;
+    private final int threads;
+    private final int retries;
+
+    public MultipartUploadSettings() {
+        this(0, 1, DEFAULT_RETRIES);
+    }
+
+    public MultipartUploadSettings(long partSize, int threads, int retries) {
+        if (partSize != 0 && partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "Multipart part size %d is less than %d", partSize, MIN_PART_SIZE));
+        }
+        if (threads < 1 || retries < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.partSize = partSize;
+        this.threads = threads;
+        this.retries = retries;
+    }
+
+    public boolean isEnabled() {
+        return partSize > 0;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+}
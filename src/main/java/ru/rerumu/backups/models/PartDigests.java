@@ -0,0 +1,46 @@
+package ru.rerumu.backups.models;
+
+/**
+ * Checksums of a part file computed while it was written. Checksums that were not requested are null.
+ */
+public class PartDigests {
+    private final byte[] md5;
+    private final byte[] sha256;
+    private final byte[] crc32c;
+    private final byte[][] partMD5s;
+    private final long partMD5Size;
+
+    public PartDigests(byte[] md5, byte[] sha256, byte[] crc32c){
+        this(md5, sha256, crc32c, null, 0);
+    }
+
+    /**
+     * {@code partMD5s} are the MD5s of every {@code partMD5Size} bytes, the sub-parts of a multipart upload.
+     */
+    public PartDigests(byte[] md5, byte[] sha256, byte[] crc32c, byte[][] partMD5s, long partMD5Size){
+        this.md5 = md5;
+        this.sha256 = sha256;
+        this.crc32c = crc32c;
+        this.partMD5s = partMD5s;
+        this.partMD5Size = partMD5Size;
+    }
+
+    public byte[] getMD5() {
+        return md5;
+    }
+
+    public byte[] getSHA256() {
+        return sha256;
+    }
+
+    public byte[] getCRC32C() {
+        return crc32c;
+    }
+
+    /**
+     * MD5s of the sub-parts if they were computed for {@code partSize}, otherwise null.
+     */
+    public byte[][] getPartMD5s(long partSize) {
+        return partSize == partMD5Size ? partMD5s : null;
+    }
+}
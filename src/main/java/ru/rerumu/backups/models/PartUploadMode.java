@@ -0,0 +1,26 @@
+package ru.rerumu.backups.models;
+
+import java.util.Locale;
+
+/**
+ * Where parts go between the writer and S3.
+ * {@code FILES} writes every part to the backup directory and uploads the file.
+ * {@code STREAMING} uploads parts from memory while they are written, the writer waits when uploads fall behind.
+ * {@code STREAMING_WITH_SPILL} streams too, but spills to the backup directory instead of waiting.
+ */
+public enum PartUploadMode {
+    FILES,
+    STREAMING,
+    STREAMING_WITH_SPILL;
+
+    public boolean isStreaming() {
+        return this != FILES;
+    }
+
+    public static PartUploadMode parse(String value) {
+        if (value == null) {
+            return FILES;
+        }
+        return PartUploadMode.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
@@ -0,0 +1,63 @@
+package ru.rerumu.backups.models;
+
+import java.time.Duration;
+
+/**
+ * HTTP settings of the S3 clients. One client with its connection pool is kept per storage
+ * for the whole run.
+ */
+public class S3ClientSettings {
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+    public static final Duration DEFAULT_CONNECTION_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_SOCKET_TIMEOUT = Duration.ofSeconds(60);
+    public static final Duration DEFAULT_CONNECTION_MAX_IDLE_TIME = Duration.ofSeconds(60);
+
+    private final int maxConnections;
+    private final Duration connectionTimeout;
+    private final Duration socketTimeout;
+    private final Duration connectionMaxIdleTime;
+    private final boolean tcpKeepAlive;
+    private final boolean pathStyleAccess;
+
+    public S3ClientSettings() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECTION_TIMEOUT, DEFAULT_SOCKET_TIMEOUT,
+                DEFAULT_CONNECTION_MAX_IDLE_TIME, true, false);
+    }
+
+    public S3ClientSettings(int maxConnections, Duration connectionTimeout, Duration socketTimeout,
+                            Duration connectionMaxIdleTime, boolean tcpKeepAlive, boolean pathStyleAccess) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException(String.format("Wrong max connections %d", maxConnections));
+        }
+        this.maxConnections = maxConnections;
+        this.connectionTimeout = connectionTimeout;
+        this.socketTimeout = socketTimeout;
+        this.connectionMaxIdleTime = connectionMaxIdleTime;
+        this.tcpKeepAlive = tcpKeepAlive;
+        this.pathStyleAccess = pathStyleAccess;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public Duration getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public Duration getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public Duration getConnectionMaxIdleTime() {
+        return connectionMaxIdleTime;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public boolean isPathStyleAccess() {
+        return pathStyleAccess;
+    }
+}
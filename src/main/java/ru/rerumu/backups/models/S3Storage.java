@@ -47,4 +47,9 @@ public class S3Storage {
     public String getStorageClass() {
         return storageClass;
     }
+
+    @Override
+    public String toString() {
+        return endpoint + "/" + bucketName + "/" + prefix;
+    }
 }
@@ -0,0 +1,107 @@
+package ru.rerumu.backups.models;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Options of {@code zfs send} that change what the stream carries.
+ *
+ * <p>Streams sent with any of them have the options appended to their name after {@code '+'},
+ * which is not allowed in ZFS names, like {@code pool-dataset@snap+cLw}, so every part tells how it was sent.
+ */
+public enum SendFlag {
+    // Blocks compressed on disk are sent as they are
+    COMPRESSED('c'),
+    // Blocks larger than 128 KiB are not split
+    LARGE_BLOCKS('L'),
+    // Embedded data blocks are sent as they are
+    EMBEDDED('e'),
+    // Blocks of natively encrypted datasets are sent encrypted, implies compressed and embedded
+    RAW('w');
+
+    public static final char STREAM_TAG_SEPARATOR = '+';
+
+    private final char option;
+
+    SendFlag(char option) {
+        this.option = option;
+    }
+
+    public char getOption() {
+        return option;
+    }
+
+    /**
+     * Parses a comma separated list like {@code compressed,large_blocks}.
+     */
+    public static Set<SendFlag> parse(String value) {
+        Set<SendFlag> res = EnumSet.noneOf(SendFlag.class);
+        if (value == null) {
+            return res;
+        }
+        for (String item : value.split(",")) {
+            item = item.trim();
+            if (!item.isEmpty()) {
+                res.add(SendFlag.valueOf(item.toUpperCase(Locale.ROOT)));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Option letters in declaration order, empty if there are none.
+     */
+    public static String toOptions(Set<SendFlag> sendFlags) {
+        StringBuilder sb = new StringBuilder();
+        for (SendFlag sendFlag : toEnumSet(sendFlags)) {
+            sb.append(sendFlag.option);
+        }
+        return sb.toString();
+    }
+
+    public static String getStreamTag(Set<SendFlag> sendFlags) {
+        String options = toOptions(sendFlags);
+        return options.isEmpty() ? "" : STREAM_TAG_SEPARATOR + options;
+    }
+
+    /**
+     * Flags of the stream name, empty for streams without a tag.
+     */
+    public static Set<SendFlag> fromStreamName(String streamName) {
+        Set<SendFlag> res = EnumSet.noneOf(SendFlag.class);
+        int ind = streamName.lastIndexOf(STREAM_TAG_SEPARATOR);
+        if (ind == -1) {
+            return res;
+        }
+        for (char c : streamName.substring(ind + 1).toCharArray()) {
+            res.add(fromOption(c));
+        }
+        return res;
+    }
+
+    private static SendFlag fromOption(char option) {
+        for (SendFlag sendFlag : values()) {
+            if (sendFlag.option == option) {
+                return sendFlag;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown send option '%c'", option));
+    }
+
+    /**
+     * True if the stream holds blocks encrypted by ZFS, so compressing them is wasted work.
+     * Streams sent with only {@link #COMPRESSED} still carry uncompressed blocks and metadata.
+     */
+    public static boolean isIncompressible(Set<SendFlag> sendFlags) {
+        return sendFlags != null && sendFlags.contains(RAW);
+    }
+
+    private static Set<SendFlag> toEnumSet(Set<SendFlag> sendFlags) {
+        Set<SendFlag> res = EnumSet.noneOf(SendFlag.class);
+        if (sendFlags != null) {
+            res.addAll(sendFlags);
+        }
+        return res;
+    }
+}
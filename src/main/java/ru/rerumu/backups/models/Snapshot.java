@@ -9,18 +9,28 @@ public class Snapshot {
     private final String name;
     private final String dataset;
     private final String fullName;
+    private final SnapshotProperties properties;
 
     public Snapshot(String dataset, String name){
         this.dataset = dataset;
         this.name = name;
         this.fullName = dataset+ DELIMITER +name;
+        this.properties = null;
     }
 
     public Snapshot(String fullName){
+        this(fullName, (SnapshotProperties) null);
+    }
+
+    /**
+     * {@code properties} are kept when they come with the listing, they are not part of equality.
+     */
+    public Snapshot(String fullName, SnapshotProperties properties){
         this.fullName = fullName;
         int delimiterIndex = fullName.indexOf(DELIMITER);
         this.dataset = fullName.substring(0,delimiterIndex);
         this.name = fullName.substring(delimiterIndex+1);
+        this.properties = properties;
     }
 
     public String getDataset() {
@@ -35,6 +45,13 @@ public class Snapshot {
         return name;
     }
 
+    /**
+     * Null if the snapshot was listed without properties.
+     */
+    public SnapshotProperties getProperties() {
+        return properties;
+    }
+
     @Generated
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,55 @@
+package ru.rerumu.backups.models;
+
+import ru.rerumu.backups.Generated;
+
+/**
+ * Properties of a snapshot as printed by {@code zfs list -p}: sizes in bytes, creation in seconds since epoch.
+ * {@code written} is the data changed since the previous snapshot of the dataset.
+ */
+public class SnapshotProperties {
+    private final long guid;
+    private final long createTxg;
+    private final long creation;
+    private final long used;
+    private final long written;
+
+    public SnapshotProperties(long guid, long createTxg, long creation, long used, long written) {
+        this.guid = guid;
+        this.createTxg = createTxg;
+        this.creation = creation;
+        this.used = used;
+        this.written = written;
+    }
+
+    public long getGuid() {
+        return guid;
+    }
+
+    public long getCreateTxg() {
+        return createTxg;
+    }
+
+    public long getCreation() {
+        return creation;
+    }
+
+    public long getUsed() {
+        return used;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    @Generated
+    @Override
+    public String toString() {
+        return "SnapshotProperties{" +
+                "guid=" + Long.toUnsignedString(guid) +
+                ", createTxg=" + createTxg +
+                ", creation=" + creation +
+                ", used=" + used +
+                ", written=" + written +
+                '}';
+    }
+}
@@ -0,0 +1,53 @@
+package ru.rerumu.backups.models;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads, failures and upload latency of one storage. Updated from upload threads.
+ */
+public class StorageStats {
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void addUpload(long bytes, long nanos) {
+        uploads.incrementAndGet();
+        uploadedBytes.addAndGet(bytes);
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void addFailure() {
+        failures.incrementAndGet();
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    public long getAverageMillis() {
+        long count = uploads.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count);
+    }
+
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d parts uploaded (%d bytes), %d failed, average %d ms, max %d ms",
+                getUploads(), getUploadedBytes(), getFailures(), getAverageMillis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,28 @@
+package ru.rerumu.backups.models;
+
+import java.util.Locale;
+
+/**
+ * How many storages must accept a part for the upload to succeed.
+ */
+public enum UploadPolicy {
+    ALL,
+    QUORUM;
+
+    public int getRequiredSuccesses(int storages) {
+        switch (this) {
+            case QUORUM:
+                return storages / 2 + 1;
+            case ALL:
+            default:
+                return storages;
+        }
+    }
+
+    public static UploadPolicy parse(String value) {
+        if (value == null) {
+            return ALL;
+        }
+        return UploadPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -6,10 +6,12 @@ import ru.rerumu.backups.Generated;
 import ru.rerumu.backups.exceptions.IncorrectFilePartNameException;
 
 import java.nio.file.Path;
+import java.util.Set;
 
 
 public class ZFSStreamPart {
     private static final String FILE_POSTFIX = ".part";
+    private static final String INCREMENTAL_SEPARATOR = "__";
 
     private final Logger logger = LoggerFactory.getLogger(ZFSStreamPart.class);
 
@@ -67,6 +69,56 @@ public class ZFSStreamPart {
         return fullPath;
     }
 
+    /**
+     * Options the stream was sent with, taken from the tag of its name.
+     */
+    public Set<SendFlag> getSendFlags() {
+        return SendFlag.fromStreamName(streamName);
+    }
+
+    /**
+     * Snapshot an incremental stream starts from, like {@code pool-dataset@snap1} for
+     * {@code pool-dataset@snap1__pool-dataset@snap2}. Null for full streams and names without snapshots.
+     */
+    public String getStartSnapshot() {
+        String name = getSnapshotsPart();
+        int ind = findIncrementalSeparator(name);
+        return ind == -1 ? null : name.substring(0, ind);
+    }
+
+    /**
+     * Snapshot the stream ends with. Null if the name does not hold a snapshot.
+     */
+    public String getEndSnapshot() {
+        String name = getSnapshotsPart();
+        int ind = findIncrementalSeparator(name);
+        if (ind != -1) {
+            return name.substring(ind + INCREMENTAL_SEPARATOR.length());
+        }
+        return name.indexOf('@') > 0 ? name : null;
+    }
+
+    private String getSnapshotsPart() {
+        int ind = streamName.lastIndexOf(SendFlag.STREAM_TAG_SEPARATOR);
+        return ind == -1 ? streamName : streamName.substring(0, ind);
+    }
+
+    /**
+     * Snapshot names may hold the separator too, so only the one between two snapshots of the same dataset counts.
+     */
+    private static int findIncrementalSeparator(String name) {
+        int ind = name.indexOf(INCREMENTAL_SEPARATOR);
+        while (ind != -1) {
+            String start = name.substring(0, ind);
+            int datasetEnd = start.indexOf('@');
+            if (datasetEnd > 0 && name.startsWith(start.substring(0, datasetEnd + 1), ind + INCREMENTAL_SEPARATOR.length())) {
+                return ind;
+            }
+            ind = name.indexOf(INCREMENTAL_SEPARATOR, ind + 1);
+        }
+        return -1;
+    }
+
     public Path getFilename() {
         logger.trace(String.format("getFilename - '%s'", filename.toString()));
         return filename;
@@ -20,6 +20,25 @@ public interface FilePartRepository {
 //    Path getLastPart();
 //    boolean isExists(Path path);
     Path createNewFilePath(String prefix, int partNumber);
+
+    /**
+     * Blocks until a file in the backup directory is created, renamed or deleted,
+     * but not longer than the poll interval.
+     */
+    void awaitChange() throws IOException, InterruptedException;
+
+    /**
+     * Blocks until another part can be marked ready without exceeding the ready window.
+     * The slot is not reserved: it stays free only because a single sender marks parts ready,
+     * and the receiver can only free slots. So it must be followed by {@link #markReady(Path)}
+     * from the same thread before any other part is published.
+     */
+    void awaitReadySlot() throws IOException, InterruptedException;
+
+    /**
+     * Blocks until the receiver took every ready part.
+     */
+    void awaitAllReceived() throws IOException, InterruptedException;
 //    OutputStream createNewOutputStream(Path path) throws IOException;
 //    InputStream createNewInputStream(Path path) throws IOException;
 
@@ -0,0 +1,12 @@
+package ru.rerumu.backups.repositories;
+
+import java.io.OutputStream;
+
+/**
+ * Part that is uploaded while it is written. {@link #close()} finishes the upload,
+ * {@link #abort()} drops what was sent so far. Whichever is called first wins, the other one does nothing.
+ */
+public abstract class PartOutputStream extends OutputStream {
+
+    public abstract void abort();
+}
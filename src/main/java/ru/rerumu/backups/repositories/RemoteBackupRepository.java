@@ -2,17 +2,37 @@ package ru.rerumu.backups.repositories;
 
 import ru.rerumu.backups.exceptions.IncorrectHashException;
 import ru.rerumu.backups.exceptions.S3MissesFileException;
+import ru.rerumu.backups.models.PartDigests;
 import ru.rerumu.backups.models.S3Storage;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.Set;
 
 public interface RemoteBackupRepository {
 //    void addStorage(S3Storage s3Storage);
 //    void upload(String datasetName,Path path) throws IOException, InterruptedException, NoSuchAlgorithmException, IncorrectHashException;
 //    List<String> objectsListForDataset(String datasetName);
     boolean isFileExists(String datasetName, String filename);
-    void add(String datasetName, Path path) throws IOException, NoSuchAlgorithmException, IncorrectHashException, S3MissesFileException;
+
+    /**
+     * Names of all parts of the dataset, for checking many parts at once.
+     */
+    Set<String> listFiles(String datasetName);
+
+    /**
+     * Uploads the part and checks that it is stored. {@code partDigests} are the checksums computed
+     * while the part was written, if null they are computed from the file.
+     */
+    void add(String datasetName, Path path, PartDigests partDigests) throws IOException, NoSuchAlgorithmException, IncorrectHashException, S3MissesFileException;
+
+    /**
+     * Opens a part that is uploaded while it is written, without a local file.
+     * The upload is finished and checked on {@link PartOutputStream#close()}, failures are thrown from there.
+     * If {@code spillPath} is not null, data that does not fit into memory is spilled to files next to it
+     * instead of blocking the writer.
+     */
+    PartOutputStream newPartOutputStream(String datasetName, String filename, Path spillPath) throws IOException;
 }
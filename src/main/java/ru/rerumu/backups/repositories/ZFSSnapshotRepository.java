@@ -5,10 +5,24 @@ import ru.rerumu.backups.models.ZFSFileSystem;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public interface ZFSSnapshotRepository {
 
     List<Snapshot> getAllSnapshotsOrdered(String fileSystemName) throws IOException, InterruptedException, ExecutionException;
 
+    /**
+     * Snapshots of {@code parentFileSystemName} and all its descendants with their properties,
+     * listed by a single process and grouped by dataset, oldest first.
+     * Datasets without snapshots are missing from the map.
+     */
+    Map<String, List<Snapshot>> getAllSnapshotsByDataset(String parentFileSystemName) throws IOException, InterruptedException, ExecutionException;
+
+    /**
+     * Estimated size in bytes of the streams that send {@code snapshotList}:
+     * the first snapshot in full and the rest as increments from it.
+     */
+    long estimateSendSize(List<Snapshot> snapshotList) throws IOException, InterruptedException, ExecutionException;
+
 }
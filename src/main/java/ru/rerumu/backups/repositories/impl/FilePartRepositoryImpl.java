@@ -4,8 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.Configuration;
 import ru.rerumu.backups.exceptions.FinishedFlagException;
+import ru.rerumu.backups.exceptions.IncorrectFilePartNameException;
 import ru.rerumu.backups.exceptions.NoMorePartsException;
 import ru.rerumu.backups.exceptions.TooManyPartsException;
+import ru.rerumu.backups.models.ZFSStreamPart;
 import ru.rerumu.backups.repositories.FilePartRepository;
 
 import java.io.*;
@@ -13,21 +15,57 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class FilePartRepositoryImpl implements FilePartRepository {
 
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
     private static final String filePostfix = ".part";
     private static final String FINISH_MARK = "finished";
     private final Path backupDirectory;
+    private final long pollIntervalMillis;
+    private final int readyWindow;
     private final Logger logger = LoggerFactory.getLogger(FilePartRepositoryImpl.class);
+    private WatchService watchService;
+    private boolean isWatchUnavailable = false;
+    private ZFSStreamPart currentStream;
 
 
     public FilePartRepositoryImpl(Path backupDirectory) {
+        this(backupDirectory, DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * {@link #awaitChange()} waits for directory events, or sleeps {@code pollIntervalMillis}
+     * where they are not available.
+     */
+    public FilePartRepositoryImpl(Path backupDirectory, long pollIntervalMillis) {
+        this(backupDirectory, pollIntervalMillis, 1);
+    }
 
+    /**
+     * Up to {@code readyWindow} parts may wait in the directory for the receiver.
+     * Both sides must use the same window.
+     */
+    public FilePartRepositoryImpl(Path backupDirectory, long pollIntervalMillis, int readyWindow) {
+        if (readyWindow < 1) {
+            throw new IllegalArgumentException(String.format("Wrong ready window %d", readyWindow));
+        }
         this.backupDirectory = backupDirectory;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.readyWindow = readyWindow;
     }
 
     @Override
@@ -63,36 +101,183 @@ public class FilePartRepositoryImpl implements FilePartRepository {
         return res;
     }
 
-    @Override
-    public Path getNextInputPath() throws NoMorePartsException, FinishedFlagException, IOException, TooManyPartsException {
-        logger.info("Starting looking for next input path");
-        List<Path> fileParts = new ArrayList<>();
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(backupDirectory)) {
+    private List<Path> listReadyParts() throws IOException {
+        List<Path> res = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(backupDirectory, "*.ready")) {
             for (Path item : stream) {
-                logger.info(String.format("Found file '%s'", item.toString()));
-                if (item.toString().endsWith(".ready") || item.getFileName().toString().equals(FINISH_MARK)) {
-                    logger.info(String.format("Accepted file '%s'", item.toString()));
-                    fileParts.add(item);
+                res.add(item);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Ready part with the lowest part number of the stream to receive next.
+     *
+     * <p>Streams sent concurrently reach the directory mixed. Parts of the stream being received come first,
+     * then the stream that starts from the snapshot it ended with, so the chain is received in order.
+     * Parts of a stream must be made ready in order of their numbers.
+     */
+    private Path getFirstPart(List<Path> readyParts) throws IOException, TooManyPartsException {
+        Map<String, ZFSStreamPart> firstParts = new LinkedHashMap<>();
+        for (Path path : readyParts) {
+            ZFSStreamPart zfsStreamPart;
+            try {
+                zfsStreamPart = new ZFSStreamPart(path);
+            } catch (IncorrectFilePartNameException e) {
+                throw new IOException(String.format("Unexpected part name '%s'", path.toString()), e);
+            }
+            ZFSStreamPart first = firstParts.get(zfsStreamPart.getStreamName());
+            if (first == null || zfsStreamPart.getPartNumber() < first.getPartNumber()) {
+                firstParts.put(zfsStreamPart.getStreamName(), zfsStreamPart);
+            }
+        }
+        ZFSStreamPart next = firstParts.size() == 1
+                ? firstParts.values().iterator().next()
+                : chooseStream(firstParts.values());
+        currentStream = next;
+        return next.getFullPath();
+    }
+
+    /**
+     * With parts of several streams ready, the stream being received or the one continuing it.
+     * Otherwise the only stream no other ready stream leads to.
+     */
+    private ZFSStreamPart chooseStream(Collection<ZFSStreamPart> firstParts) throws TooManyPartsException {
+        if (currentStream != null) {
+            String endSnapshot = currentStream.getEndSnapshot();
+            for (ZFSStreamPart zfsStreamPart : firstParts) {
+                if (zfsStreamPart.getStreamName().equals(currentStream.getStreamName())) {
+                    return zfsStreamPart;
                 }
             }
+            for (ZFSStreamPart zfsStreamPart : firstParts) {
+                if (endSnapshot != null && endSnapshot.equals(zfsStreamPart.getStartSnapshot())) {
+                    return zfsStreamPart;
+                }
+            }
+        }
+        Set<String> endSnapshots = new HashSet<>();
+        for (ZFSStreamPart zfsStreamPart : firstParts) {
+            endSnapshots.add(zfsStreamPart.getEndSnapshot());
+        }
+        List<ZFSStreamPart> heads = new ArrayList<>();
+        for (ZFSStreamPart zfsStreamPart : firstParts) {
+            if (!endSnapshots.contains(zfsStreamPart.getStartSnapshot())) {
+                heads.add(zfsStreamPart);
+            }
+        }
+        if (heads.size() == 1 && !endSnapshots.contains(null)) {
+            return heads.get(0);
+        }
+        List<String> streamNames = new ArrayList<>();
+        for (ZFSStreamPart zfsStreamPart : firstParts) {
+            streamNames.add(zfsStreamPart.getStreamName());
+        }
+        logger.info(String.format("Can not choose between parts of streams %s", streamNames));
+        throw new TooManyPartsException();
+    }
+
+    @Override
+    public Path getNextInputPath() throws NoMorePartsException, FinishedFlagException, IOException, TooManyPartsException {
+        logger.info("Starting looking for next input path");
+        List<Path> readyParts = listReadyParts();
+        boolean isFinished = Files.exists(backupDirectory.resolve(FINISH_MARK));
+        for (Path item : readyParts) {
+            logger.info(String.format("Accepted file '%s'", item.toString()));
         }
 
-        if (fileParts.size() == 0) {
+        if (readyParts.size() == 0 && !isFinished) {
             logger.info("Did not find acceptable files");
             throw new NoMorePartsException();
-        } else if (fileParts.size() > 1) {
+        } else if (readyParts.size() > readyWindow || (isFinished && readyParts.size() > 0)) {
             logger.info("Found too many files");
             throw new TooManyPartsException();
-        } else {
+        } else if (isFinished) {
+            logger.info("Found 'finished' flag");
+            throw new FinishedFlagException();
+        }
+        Path filePart = getFirstPart(readyParts);
+        logger.info(String.format("getNextInputPath - '%s'", filePart.toString()));
+        return filePart;
+    }
+
+    /**
+     * Checks and acts without a lock, which holds while only one sender publishes parts:
+     * without S3 datasets and streams are sent one at a time, see {@code ZFSBackupService}
+     * and {@code SnapshotSenderBySnapshot}.
+     */
+    @Override
+    public void awaitReadySlot() throws IOException, InterruptedException {
+        while (listReadyParts().size() >= readyWindow) {
+            logger.debug(String.format("%d parts are ready. Waiting for changes before retry", readyWindow));
+            awaitChange();
+        }
+    }
+
+    @Override
+    public void awaitAllReceived() throws IOException, InterruptedException {
+        while (!listReadyParts().isEmpty()) {
+            logger.debug("Ready parts exist. Waiting for changes before retry");
+            awaitChange();
+        }
+    }
 
-            Path filePart = fileParts.get(0);
-            if (filePart.getFileName().toString().equals(FINISH_MARK)) {
-                logger.info("Found 'finished' flag");
-                throw new FinishedFlagException();
+    /**
+     * Watch on the backup directory, registered on first use so the events between two calls are kept.
+     * Null if the file system can not watch it.
+     */
+    private synchronized WatchService getWatchService() {
+        if (watchService == null && !isWatchUnavailable) {
+            try {
+                watchService = backupDirectory.getFileSystem().newWatchService();
+                backupDirectory.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                logger.info(String.format("Watching '%s' for new parts", backupDirectory.toString()));
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.warn(String.format(
+                        "Can not watch '%s', polling every %d ms", backupDirectory.toString(), pollIntervalMillis), e);
+                closeWatchService();
+                isWatchUnavailable = true;
             }
-            logger.info(String.format("getNextInputPath - '%s'",filePart.toString()));
-            return filePart;
+        }
+        return watchService;
+    }
 
+    private synchronized void closeWatchService() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.error("Failed to close watch service", e);
+        }
+        watchService = null;
+    }
+
+    @Override
+    public void awaitChange() throws InterruptedException {
+        WatchService currentWatchService = getWatchService();
+        if (currentWatchService == null) {
+            Thread.sleep(pollIntervalMillis);
+            return;
+        }
+        WatchKey watchKey = currentWatchService.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+        if (watchKey == null) {
+            return;
+        }
+        for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+            logger.debug(String.format("Event %s on '%s'", watchEvent.kind().name(), watchEvent.context()));
+        }
+        if (!watchKey.reset()) {
+            logger.warn(String.format("Watch on '%s' was cancelled, falling back to polling", backupDirectory));
+            closeWatchService();
+            synchronized (this) {
+                isWatchUnavailable = true;
+            }
         }
     }
 }
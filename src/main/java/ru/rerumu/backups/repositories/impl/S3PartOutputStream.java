@@ -0,0 +1,341 @@
+package ru.rerumu.backups.repositories.impl;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.exceptions.IncorrectHashException;
+import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.models.StorageStats;
+import ru.rerumu.backups.repositories.PartOutputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Part that is uploaded to every storage while it is written.
+ * Written bytes go into a buffer of the multipart part size, a full buffer is sent as the next sub-part
+ * by the multipart executor while the writer fills another one.
+ * Buffers come from {@link S3Repository#takeStreamingBuffer(boolean)}, so the writer blocks when all of them
+ * are being uploaded, unless a spill path is given: then the full buffer is written to a temporary file
+ * and uploaded from there.
+ * A part smaller than one buffer is sent with a single PutObject on {@link #close()}.
+ */
+class S3PartOutputStream extends PartOutputStream {
+    private final Logger logger = LoggerFactory.getLogger(S3PartOutputStream.class);
+
+    private final S3Repository s3Repository;
+    private final String datasetName;
+    private final String filename;
+    private final Path spillPath;
+    private final Map<S3Storage, String> keys = new LinkedHashMap<>();
+    private final Map<S3Storage, String> uploadIds = new LinkedHashMap<>();
+    private final Map<S3Storage, Map<Integer, CompletedPart>> completedParts = new LinkedHashMap<>();
+    private final Map<S3Storage, Throwable> failures = new ConcurrentHashMap<>();
+    private final List<Future<Void>> futures = new ArrayList<>();
+    private final List<byte[]> partMD5s = new ArrayList<>();
+    private final MessageDigest md;
+    private final long start = System.nanoTime();
+
+    private byte[] buffer;
+    private int position = 0;
+    private long size = 0;
+    private boolean isClosed = false;
+    private volatile boolean isAborted = false;
+
+    S3PartOutputStream(final S3Repository s3Repository,
+                       final String datasetName,
+                       final String filename,
+                       final Path spillPath) throws IOException {
+        this.s3Repository = s3Repository;
+        this.datasetName = datasetName;
+        this.filename = filename;
+        this.spillPath = spillPath;
+        try {
+            this.md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        for (S3Storage s3Storage : s3Repository.getStorages()) {
+            keys.put(s3Storage, S3Repository.getKey(s3Storage, datasetName, filename));
+            completedParts.put(s3Storage, new ConcurrentSkipListMap<>());
+        }
+        this.buffer = s3Repository.takeStreamingBuffer(true);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        if (isClosed) {
+            throw new IOException(String.format("Part '%s' is closed", filename));
+        }
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            md.update(b, off, n);
+            position += n;
+            size += n;
+            off += n;
+            len -= n;
+            if (position == buffer.length) {
+                submitBuffer(true);
+            }
+        }
+    }
+
+    private void startUpload() {
+        for (Map.Entry<S3Storage, String> entry : keys.entrySet()) {
+            String uploadId = s3Repository.createMultipartUpload(
+                    s3Repository.getS3Client(entry.getKey()), entry.getKey(), entry.getValue());
+            uploadIds.put(entry.getKey(), uploadId);
+            logger.info(String.format("Started streaming upload of '%s', id='%s'", entry.getValue(), uploadId));
+        }
+    }
+
+    /**
+     * Hands the filled part of the buffer to the multipart executor.
+     * If {@code isNextNeeded} a new buffer is taken for the writer, or the data is spilled to disk
+     * when there is none and spilling is enabled.
+     */
+    private void submitBuffer(final boolean isNextNeeded) throws IOException {
+        checkFailures();
+        if (uploadIds.isEmpty()) {
+            startUpload();
+        }
+        final int partNumber = partMD5s.size() + 1;
+        final byte[] partMD5 = md.digest();
+        partMD5s.add(partMD5);
+        final byte[] data = buffer;
+        final int length = position;
+
+        byte[] next = isNextNeeded ? s3Repository.takeStreamingBuffer(spillPath == null) : null;
+        if (isNextNeeded && next == null) {
+            final Path spillFile = Paths.get(spillPath.toString() + ".spill" + partNumber);
+            logger.debug(String.format("No free upload buffer, spilling sub-part %d to '%s'", partNumber, spillFile));
+            try (OutputStream outputStream = Files.newOutputStream(spillFile)) {
+                outputStream.write(data, 0, length);
+            }
+            submitPart(partNumber, length, partMD5, () -> RequestBody.fromFile(spillFile),
+                    () -> Files.deleteIfExists(spillFile));
+            next = data;
+        } else {
+            submitPart(partNumber, length, partMD5,
+                    () -> RequestBody.fromContentProvider(
+                            () -> new ByteArrayInputStream(data, 0, length), length, "application/octet-stream"),
+                    () -> s3Repository.releaseStreamingBuffer(data));
+        }
+        buffer = next;
+        position = 0;
+    }
+
+    private interface Cleanup {
+        void run() throws IOException;
+    }
+
+    private void submitPart(final int partNumber,
+                            final int length,
+                            final byte[] partMD5,
+                            final S3Repository.PartBody partBody,
+                            final Cleanup cleanup) {
+        futures.add(s3Repository.getMultipartExecutor().submit(() -> {
+            try {
+                if (isAborted) {
+                    return null;
+                }
+                for (Map.Entry<S3Storage, String> entry : keys.entrySet()) {
+                    S3Storage s3Storage = entry.getKey();
+                    if (failures.containsKey(s3Storage)) {
+                        continue;
+                    }
+                    try {
+                        CompletedPart completedPart = s3Repository.uploadPart(
+                                s3Repository.getS3Client(s3Storage), s3Storage, entry.getValue(),
+                                uploadIds.get(s3Storage), partNumber, length, partMD5, partBody);
+                        completedParts.get(s3Storage).put(partNumber, completedPart);
+                    } catch (Exception e) {
+                        logger.error(String.format(
+                                "Failed to upload sub-part %d of '%s' to %s", partNumber, filename, s3Storage), e);
+                        failures.putIfAbsent(s3Storage, e);
+                    }
+                }
+            } finally {
+                cleanup.run();
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Fails early once the upload policy can not be met anymore.
+     */
+    private void checkFailures() throws IOException {
+        int storages = keys.size();
+        int required = s3Repository.getUploadPolicy().getRequiredSuccesses(storages);
+        if (storages - failures.size() < required) {
+            Throwable cause = failures.values().iterator().next();
+            throw new IOException(String.format(
+                    "'%s' failed on %d of %d storages, %d required", filename, failures.size(), storages, required),
+                    cause);
+        }
+    }
+
+    private void awaitParts() throws IOException {
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Upload of '%s' was interrupted", filename));
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void putObject() throws IOException {
+        byte[] md5Bytes = md.digest();
+        String md5 = '"' + Hex.encodeHexString(md5Bytes) + '"';
+        for (Map.Entry<S3Storage, String> entry : keys.entrySet()) {
+            S3Storage s3Storage = entry.getKey();
+            try {
+                String eTag = s3Repository.putObject(
+                        s3Repository.getS3Client(s3Storage), s3Storage, entry.getValue(), buffer, position, md5Bytes);
+                if (!eTag.equals(md5)) {
+                    throw new IncorrectHashException();
+                }
+                s3Repository.verifyObject(s3Repository.getS3Client(s3Storage), s3Storage, entry.getValue(), size, md5);
+            } catch (Exception e) {
+                logger.error(String.format("Failed to upload '%s' to %s", filename, s3Storage), e);
+                failures.putIfAbsent(s3Storage, e);
+            }
+        }
+    }
+
+    private void completeUploads() throws IOException {
+        String md5;
+        try {
+            md5 = S3Repository.getMultipartETag(partMD5s.toArray(new byte[0][]));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        for (Map.Entry<S3Storage, String> entry : keys.entrySet()) {
+            S3Storage s3Storage = entry.getKey();
+            if (failures.containsKey(s3Storage)) {
+                continue;
+            }
+            String uploadId = uploadIds.remove(s3Storage);
+            try {
+                String eTag = s3Repository.completeMultipartUpload(
+                        s3Repository.getS3Client(s3Storage), s3Storage, entry.getValue(), uploadId,
+                        new ArrayList<>(completedParts.get(s3Storage).values()));
+                logger.info(String.format("ETag='%s'", eTag));
+                if (!eTag.equals(md5)) {
+                    throw new IncorrectHashException();
+                }
+                s3Repository.verifyObject(s3Repository.getS3Client(s3Storage), s3Storage, entry.getValue(), size, md5);
+            } catch (Exception e) {
+                logger.error(String.format("Failed to complete upload of '%s' to %s", filename, s3Storage), e);
+                failures.putIfAbsent(s3Storage, e);
+            }
+        }
+    }
+
+    /**
+     * Sends the rest of the part and finishes the upload on every storage.
+     * Throws if fewer storages than the upload policy requires got the part, with the first failure as the cause.
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            if (uploadIds.isEmpty()) {
+                putObject();
+            } else {
+                if (position > 0) {
+                    submitBuffer(false);
+                }
+                awaitParts();
+                completeUploads();
+            }
+            long nanos = System.nanoTime() - start;
+            for (S3Storage s3Storage : keys.keySet()) {
+                StorageStats stats = s3Repository.getStorageStats().get(s3Storage);
+                if (failures.containsKey(s3Storage)) {
+                    stats.addFailure();
+                } else {
+                    stats.addUpload(size, nanos);
+                    s3Repository.addToListing(s3Storage, datasetName, filename);
+                }
+            }
+            checkFailures();
+            if (!failures.isEmpty()) {
+                logger.warn(String.format(
+                        "'%s' uploaded to %d of %d storages", filename, keys.size() - failures.size(), keys.size()));
+            }
+            logger.info(String.format("Uploaded part '%s', %d bytes", filename, size));
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        logger.warn(String.format("Aborting upload of '%s'", filename));
+        release();
+    }
+
+    /**
+     * Returns the buffers and aborts the uploads that were not completed.
+     * Sub-parts still queued are skipped, but they are waited for, since they hold buffers and files.
+     */
+    private void release() {
+        isAborted = true;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                logger.error(String.format("Sub-part of '%s' failed", filename), e.getCause());
+            }
+        }
+        if (buffer != null) {
+            s3Repository.releaseStreamingBuffer(buffer);
+            buffer = null;
+        }
+        for (Map.Entry<S3Storage, String> entry : uploadIds.entrySet()) {
+            s3Repository.abortMultipartUpload(
+                    s3Repository.getS3Client(entry.getKey()), entry.getKey(), keys.get(entry.getKey()),
+                    entry.getValue());
+        }
+        uploadIds.clear();
+    }
+}
@@ -4,136 +4,742 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.exceptions.IncorrectHashException;
 import ru.rerumu.backups.exceptions.S3MissesFileException;
+import ru.rerumu.backups.factories.S3ClientFactory;
+import ru.rerumu.backups.factories.impl.S3ClientFactoryImpl;
+import ru.rerumu.backups.models.MultipartUploadSettings;
+import ru.rerumu.backups.models.PartDigests;
 import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.models.StorageStats;
+import ru.rerumu.backups.models.UploadPolicy;
+import ru.rerumu.backups.repositories.PartOutputStream;
 import ru.rerumu.backups.repositories.RemoteBackupRepository;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
-import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import org.apache.commons.codec.binary.Hex;
 
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
-public class S3Repository implements RemoteBackupRepository {
+public class S3Repository implements RemoteBackupRepository, AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private final List<S3Storage> storages;
+    private final Map<S3Storage, S3Client> s3Clients = new HashMap<>();
+    private final MultipartUploadSettings multipartUploadSettings;
+    private final ExecutorService multipartExecutor;
+    private final UploadPolicy uploadPolicy;
+    private final ExecutorService storageExecutor;
+    private final Map<S3Storage, StorageStats> storageStats = new LinkedHashMap<>();
+    private final Semaphore streamingBufferSlots;
+    private final Queue<byte[]> streamingBuffers = new ConcurrentLinkedQueue<>();
+    private final Map<S3Storage, Map<String, Set<String>>> listings = new HashMap<>();
     private final Logger logger = LoggerFactory.getLogger(S3Repository.class);
 
     public S3Repository(final List<S3Storage> s3Storages) {
+        this(s3Storages, new S3ClientFactoryImpl());
+    }
+
+    /**
+     * Builds one client per storage, they are reused for every part until {@link #close()}.
+     */
+    public S3Repository(final List<S3Storage> s3Storages, final S3ClientFactory s3ClientFactory) {
+        this(s3Storages, s3ClientFactory, new MultipartUploadSettings());
+    }
+
+    public S3Repository(final List<S3Storage> s3Storages,
+                        final S3ClientFactory s3ClientFactory,
+                        final MultipartUploadSettings multipartUploadSettings) {
+        this(s3Storages, s3ClientFactory, multipartUploadSettings, UploadPolicy.ALL);
+    }
+
+    /**
+     * With several storages every part is hashed once and uploaded to all of them in parallel.
+     * {@code uploadPolicy} tells how many of them have to succeed.
+     */
+    public S3Repository(final List<S3Storage> s3Storages,
+                        final S3ClientFactory s3ClientFactory,
+                        final MultipartUploadSettings multipartUploadSettings,
+                        final UploadPolicy uploadPolicy) {
+        this(s3Storages, s3ClientFactory, multipartUploadSettings, uploadPolicy, 1);
+    }
+
+    /**
+     * {@code streamingWriters} parts may be streamed at the same time, e.g. one per dataset sent concurrently.
+     * Each of them fills one buffer on top of the ones being uploaded, so streaming never holds more than
+     * {@code threads + streamingWriters} buffers of the multipart part size.
+     */
+    public S3Repository(final List<S3Storage> s3Storages,
+                        final S3ClientFactory s3ClientFactory,
+                        final MultipartUploadSettings multipartUploadSettings,
+                        final UploadPolicy uploadPolicy,
+                        final int streamingWriters) {
+        if (streamingWriters < 1) {
+            throw new IllegalArgumentException(String.format("Wrong number of streaming writers %d", streamingWriters));
+        }
         this.storages = s3Storages;
+        this.multipartUploadSettings = multipartUploadSettings;
+        this.uploadPolicy = uploadPolicy;
+        this.storageExecutor = s3Storages.size() > 1 ? Executors.newFixedThreadPool(s3Storages.size()) : null;
+        for (S3Storage s3Storage : s3Storages) {
+            storageStats.put(s3Storage, new StorageStats());
+            listings.put(s3Storage, new ConcurrentHashMap<>());
+        }
+        this.multipartExecutor = multipartUploadSettings.isEnabled()
+                ? Executors.newFixedThreadPool(multipartUploadSettings.getThreads())
+                : null;
+        // Every writer fills one buffer while the others are uploaded
+        this.streamingBufferSlots = new Semaphore(multipartUploadSettings.getThreads() + streamingWriters);
+        for (S3Storage s3Storage : s3Storages) {
+            s3Clients.put(s3Storage, s3ClientFactory.getS3Client(s3Storage));
+        }
     }
 
-    private String getMD5(final Path path)
+    private byte[] getMD5(final Path path)
             throws NoSuchAlgorithmException,
             IOException {
         MessageDigest md = MessageDigest.getInstance("MD5");
-        try (InputStream inputStream = Files.newInputStream(path);
-             BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream)) {
-            String md5 = '"' + Hex.encodeHexString(md.digest(bufferedInputStream.readAllBytes())) + '"';
-            logger.info(String.format("Hex MD5: '%s'", md5));
-            return md5;
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(buf)) >= 0) {
+                md.update(buf, 0, len);
+            }
+        }
+        return md.digest();
+    }
+
+    /**
+     * MD5 of every {@code partSize} bytes of the file, in one pass.
+     */
+    private byte[][] getPartMD5s(final Path path, final long size, final long partSize)
+            throws NoSuchAlgorithmException,
+            IOException {
+        int partCount = (int) ((size + partSize - 1) / partSize);
+        byte[][] res = new byte[partCount][];
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int i = 0; i < partCount; i++) {
+                long remaining = Math.min(partSize, size - i * partSize);
+                while (remaining > 0) {
+                    int len = inputStream.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (len < 0) {
+                        throw new IOException(String.format("File '%s' was truncated", path.toString()));
+                    }
+                    md.update(buf, 0, len);
+                    remaining -= len;
+                }
+                res[i] = md.digest();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * ETag S3 gives to a multipart upload: MD5 of the concatenated part MD5s and the part count.
+     */
+    static String getMultipartETag(final byte[][] partMD5s) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        for (byte[] partMD5 : partMD5s) {
+            md.update(partMD5);
+        }
+        return '"' + Hex.encodeHexString(md.digest()) + "-" + partMD5s.length + '"';
+    }
+
+    private long getMultipartPartSize(final long size) {
+        long minPartSize = (size + MultipartUploadSettings.MAX_PARTS - 1) / MultipartUploadSettings.MAX_PARTS;
+        return Math.max(multipartUploadSettings.getPartSize(), minPartSize);
+    }
+
+    private String putObject(final S3Client s3Client,
+                             final S3Storage s3Storage,
+                             final String key,
+                             final Path path,
+                             final byte[] md5Bytes,
+                             final PartDigests partDigests) {
+        PutObjectRequest.Builder putObjectRequestBuilder = PutObjectRequest.builder()
+                .bucket(s3Storage.getBucketName())
+                .key(key)
+                .storageClass(s3Storage.getStorageClass())
+                .contentMD5(Base64.getEncoder().encodeToString(md5Bytes));
+        if (partDigests != null && partDigests.getSHA256() != null) {
+            putObjectRequestBuilder.checksumSHA256(Base64.getEncoder().encodeToString(partDigests.getSHA256()));
+        }
+        if (partDigests != null && partDigests.getCRC32C() != null) {
+            putObjectRequestBuilder.checksumCRC32C(Base64.getEncoder().encodeToString(partDigests.getCRC32C()));
+        }
+        PutObjectResponse putObjectResponse = s3Client.putObject(putObjectRequestBuilder.build(), path);
+        return putObjectResponse.eTag();
+    }
+
+    String putObject(final S3Client s3Client,
+                     final S3Storage s3Storage,
+                     final String key,
+                     final byte[] data,
+                     final int length,
+                     final byte[] md5Bytes) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(s3Storage.getBucketName())
+                .key(key)
+                .storageClass(s3Storage.getStorageClass())
+                .contentLength((long) length)
+                .contentMD5(Base64.getEncoder().encodeToString(md5Bytes))
+                .build();
+        PutObjectResponse putObjectResponse = s3Client.putObject(
+                putObjectRequest, RequestBody.fromByteBuffer(ByteBuffer.wrap(data, 0, length)));
+        return putObjectResponse.eTag();
+    }
+
+    /**
+     * Body of a sub-part, built again for every attempt.
+     */
+    interface PartBody {
+        RequestBody get() throws IOException;
+    }
+
+    CompletedPart uploadPart(final S3Client s3Client,
+                             final S3Storage s3Storage,
+                             final String key,
+                             final String uploadId,
+                             final int partNumber,
+                             final long length,
+                             final byte[] partMD5,
+                             final PartBody partBody)
+            throws IOException, IncorrectHashException {
+        String expectedETag = '"' + Hex.encodeHexString(partMD5) + '"';
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(s3Storage.getBucketName())
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(length)
+                .contentMD5(Base64.getEncoder().encodeToString(partMD5))
+                .build();
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                UploadPartResponse uploadPartResponse = s3Client.uploadPart(uploadPartRequest, partBody.get());
+                if (!uploadPartResponse.eTag().equals(expectedETag)) {
+                    throw new IncorrectHashException();
+                }
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(uploadPartResponse.eTag())
+                        .build();
+            } catch (SdkException | IncorrectHashException e) {
+                if (attempt >= multipartUploadSettings.getRetries()) {
+                    throw e;
+                }
+                logger.warn(String.format(
+                        "Failed to upload part %d of '%s', retrying (%d/%d)",
+                        partNumber, key, attempt + 1, multipartUploadSettings.getRetries()), e);
+            }
+        }
+    }
+
+    private String uploadMultipart(final S3Client s3Client,
+                                   final S3Storage s3Storage,
+                                   final String key,
+                                   final Path path,
+                                   final long size,
+                                   final long partSize,
+                                   final byte[][] partMD5s)
+            throws IOException, IncorrectHashException {
+        String uploadId = createMultipartUpload(s3Client, s3Storage, key);
+        logger.info(String.format("Started multipart upload of %d parts, id='%s'", partMD5s.length, uploadId));
+
+        List<Future<CompletedPart>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < partMD5s.length; i++) {
+                final int partNumber = i + 1;
+                final long offset = i * partSize;
+                final long length = Math.min(partSize, size - offset);
+                final byte[] partMD5 = partMD5s[i];
+                futures.add(multipartExecutor.submit(() -> uploadPart(
+                        s3Client, s3Storage, key, uploadId, partNumber, length, partMD5,
+                        () -> RequestBody.fromByteBuffer(map(path, offset, length)))));
+            }
+
+            List<CompletedPart> completedParts = new ArrayList<>();
+            for (Future<CompletedPart> future : futures) {
+                completedParts.add(future.get());
+            }
+
+            return completeMultipartUpload(s3Client, s3Storage, key, uploadId, completedParts);
+        } catch (InterruptedException | ExecutionException | RuntimeException e) {
+            for (Future<CompletedPart> future : futures) {
+                future.cancel(true);
+            }
+            abortMultipartUpload(s3Client, s3Storage, key, uploadId);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Upload of '%s' was interrupted", key));
+            }
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (cause instanceof IncorrectHashException) {
+                throw (IncorrectHashException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static MappedByteBuffer map(final Path path, final long offset, final long length) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
         }
     }
 
-    private void upload(final String datasetName, final Path path)
+    String createMultipartUpload(final S3Client s3Client, final S3Storage s3Storage, final String key) {
+        CreateMultipartUploadResponse createMultipartUploadResponse = s3Client.createMultipartUpload(
+                CreateMultipartUploadRequest.builder()
+                        .bucket(s3Storage.getBucketName())
+                        .key(key)
+                        .storageClass(s3Storage.getStorageClass())
+                        .build());
+        return createMultipartUploadResponse.uploadId();
+    }
+
+    String completeMultipartUpload(final S3Client s3Client,
+                                   final S3Storage s3Storage,
+                                   final String key,
+                                   final String uploadId,
+                                   final List<CompletedPart> completedParts) {
+        CompleteMultipartUploadResponse completeMultipartUploadResponse = s3Client.completeMultipartUpload(
+                CompleteMultipartUploadRequest.builder()
+                        .bucket(s3Storage.getBucketName())
+                        .key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                        .build());
+        return completeMultipartUploadResponse.eTag();
+    }
+
+    void abortMultipartUpload(final S3Client s3Client,
+                                      final S3Storage s3Storage,
+                                      final String key,
+                                      final String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(s3Storage.getBucketName())
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (SdkException e) {
+            logger.error(String.format("Failed to abort multipart upload '%s'", uploadId), e);
+        }
+    }
+
+    private void upload(final String datasetName, final Path path, final PartDigests partDigests)
             throws
             IOException,
             NoSuchAlgorithmException,
-            IncorrectHashException {
+            IncorrectHashException,
+            S3MissesFileException {
         if (storages.size()==0){
             throw new IllegalArgumentException();
         }
+        long size = Files.size(path);
+        boolean isMultipart = multipartUploadSettings.isEnabled() && size > multipartUploadSettings.getPartSize();
+
+        byte[] md5Bytes = null;
+        byte[][] partMD5s = null;
+        long partSize = 0;
+        String md5;
+        if (isMultipart) {
+            partSize = getMultipartPartSize(size);
+            // Sub-part checksums computed while the part was written save reading it once more
+            partMD5s = partDigests != null ? partDigests.getPartMD5s(partSize) : null;
+            if (partMD5s == null || partMD5s.length != (size + partSize - 1) / partSize) {
+                logger.debug(String.format("No sub-part checksums for '%s', reading the file", path.toString()));
+                partMD5s = getPartMD5s(path, size, partSize);
+            }
+            md5 = getMultipartETag(partMD5s);
+        } else {
+            if (partDigests != null && partDigests.getMD5() != null) {
+                md5Bytes = partDigests.getMD5();
+            } else {
+                logger.debug(String.format("No checksums for '%s', reading the file", path.toString()));
+                md5Bytes = getMD5(path);
+            }
+            md5 = '"' + Hex.encodeHexString(md5Bytes) + '"';
+        }
+        logger.info(String.format("Hex MD5: '%s'", md5));
+
+        if (storages.size() == 1) {
+            uploadToStorage(storages.get(0), datasetName, path, size, md5, md5Bytes, partSize, partMD5s, partDigests);
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<>();
         for (S3Storage s3Storage : storages) {
-            logger.info(String.format("Uploading file %s", path.toString()));
-            String key = s3Storage.getPrefix().toString() + "/" + datasetName + "/" + path.getFileName().toString();
-            logger.info(String.format("Target: %s", key));
-            String md5 = getMD5(path);
+            final byte[] finalMd5Bytes = md5Bytes;
+            final long finalPartSize = partSize;
+            final byte[][] finalPartMD5s = partMD5s;
+            futures.add(storageExecutor.submit(() -> {
+                uploadToStorage(s3Storage, datasetName, path, size, md5, finalMd5Bytes, finalPartSize,
+                        finalPartMD5s, partDigests);
+                return null;
+            }));
+        }
 
+        int successes = 0;
+        Throwable firstFailure = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    successes++;
+                } catch (ExecutionException e) {
+                    logger.error(String.format("Failed to upload '%s' to %s", path.toString(), storages.get(i)),
+                            e.getCause());
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Upload of '%s' was interrupted", path.toString()));
+        }
 
-            S3Client s3Client = S3Client.builder()
-                    .region(s3Storage.getRegion())
-                    .endpointOverride(s3Storage.getEndpoint())
-                    .credentialsProvider(StaticCredentialsProvider.create(s3Storage.getCredentials()))
-                    .build();
+        int required = uploadPolicy.getRequiredSuccesses(storages.size());
+        if (successes < required) {
+            logger.error(String.format(
+                    "'%s' uploaded to %d of %d storages, %d required", path.toString(), successes, storages.size(),
+                    required));
+            rethrow(firstFailure);
+        }
+        if (firstFailure != null) {
+            logger.warn(String.format(
+                    "'%s' uploaded to %d of %d storages", path.toString(), successes, storages.size()));
+        }
+    }
 
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(s3Storage.getBucketName())
-                    .key(key)
-                    .storageClass(s3Storage.getStorageClass())
-                    .build();
+    private static void rethrow(final Throwable throwable)
+            throws IOException, IncorrectHashException, S3MissesFileException {
+        if (throwable instanceof IOException) {
+            throw (IOException) throwable;
+        }
+        if (throwable instanceof IncorrectHashException) {
+            throw (IncorrectHashException) throwable;
+        }
+        if (throwable instanceof S3MissesFileException) {
+            throw (S3MissesFileException) throwable;
+        }
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        throw new IOException(throwable);
+    }
 
-            PutObjectResponse putObjectResponse = s3Client.putObject(putObjectRequest, path);
-            String eTag = putObjectResponse.eTag();
+    private void uploadToStorage(final S3Storage s3Storage,
+                                 final String datasetName,
+                                 final Path path,
+                                 final long size,
+                                 final String md5,
+                                 final byte[] md5Bytes,
+                                 final long partSize,
+                                 final byte[][] partMD5s,
+                                 final PartDigests partDigests)
+            throws IOException, IncorrectHashException, S3MissesFileException {
+        logger.info(String.format("Uploading file %s", path.toString()));
+        String key = getKey(s3Storage, datasetName, path.getFileName().toString());
+        logger.info(String.format("Target: %s", key));
+
+        StorageStats stats = storageStats.get(s3Storage);
+        long start = System.nanoTime();
+        try {
+            S3Client s3Client = s3Clients.get(s3Storage);
+            String eTag;
+            if (partMD5s != null) {
+                eTag = uploadMultipart(s3Client, s3Storage, key, path, size, partSize, partMD5s);
+            } else {
+                eTag = putObject(s3Client, s3Storage, key, path, md5Bytes, partDigests);
+            }
             logger.info(String.format("Uploaded file '%s'", path.toString()));
             logger.info(String.format("ETag='%s'", eTag));
             if (!(eTag.equals(md5))) {
                 throw new IncorrectHashException();
             }
+            verifyObject(s3Client, s3Storage, key, size, md5);
+        } catch (IOException | IncorrectHashException | S3MissesFileException | RuntimeException e) {
+            stats.addFailure();
+            throw e;
+        }
+        stats.addUpload(size, System.nanoTime() - start);
+        addToListing(s3Storage, datasetName, path.getFileName().toString());
+    }
+
+    /**
+     * Checks with a HeadObject that the object is stored with the expected length and ETag.
+     */
+    void verifyObject(final S3Client s3Client,
+                      final S3Storage s3Storage,
+                      final String key,
+                      final long size,
+                      final String eTag)
+            throws IncorrectHashException, S3MissesFileException {
+        HeadObjectResponse headObjectResponse;
+        try {
+            headObjectResponse = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(s3Storage.getBucketName())
+                    .key(key)
+                    .build());
+        } catch (NoSuchKeyException e) {
+            logger.error(String.format("File '%s' not found on %s", key, s3Storage));
+            throw new S3MissesFileException();
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                logger.error(String.format("File '%s' not found on %s", key, s3Storage));
+                throw new S3MissesFileException();
+            }
+            throw e;
+        }
+        if (headObjectResponse.contentLength() != size) {
+            logger.error(String.format(
+                    "File '%s' on %s has %d bytes, expected %d",
+                    key, s3Storage, headObjectResponse.contentLength(), size));
+            throw new S3MissesFileException();
+        }
+        if (!headObjectResponse.eTag().equals(eTag)) {
+            logger.error(String.format(
+                    "File '%s' on %s has ETag %s, expected %s", key, s3Storage, headObjectResponse.eTag(), eTag));
+            throw new IncorrectHashException();
+        }
+        logger.info(String.format("File '%s' found on %s", key, s3Storage));
+    }
+
+    static String getKey(final S3Storage s3Storage, final String datasetName, final String filename) {
+        return s3Storage.getPrefix().toString() + "/" + datasetName + "/" + filename;
+    }
+
+    /**
+     * Takes a buffer of the multipart part size for a streamed part.
+     * At most {@code threads + streamingWriters} buffers are taken at once, if {@code isWaiting} is false
+     * and all of them are taken null is returned.
+     */
+    byte[] takeStreamingBuffer(final boolean isWaiting) throws InterruptedIOException {
+        if (isWaiting) {
+            try {
+                streamingBufferSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+            }
+        } else if (!streamingBufferSlots.tryAcquire()) {
+            return null;
+        }
+        byte[] buffer = streamingBuffers.poll();
+        return buffer != null ? buffer : new byte[(int) multipartUploadSettings.getPartSize()];
+    }
+
+    void releaseStreamingBuffer(final byte[] buffer) {
+        streamingBuffers.offer(buffer);
+        streamingBufferSlots.release();
+    }
+
+    List<S3Storage> getStorages() {
+        return storages;
+    }
+
+    S3Client getS3Client(final S3Storage s3Storage) {
+        return s3Clients.get(s3Storage);
+    }
+
+    ExecutorService getMultipartExecutor() {
+        return multipartExecutor;
+    }
+
+    UploadPolicy getUploadPolicy() {
+        return uploadPolicy;
+    }
+
+    @Override
+    public PartOutputStream newPartOutputStream(final String datasetName, final String filename, final Path spillPath)
+            throws IOException {
+        if (storages.size() == 0) {
+            throw new IllegalArgumentException();
         }
+        if (!multipartUploadSettings.isEnabled()) {
+            throw new IllegalStateException("Streaming uploads need multipart uploads");
+        }
+        if (multipartUploadSettings.getPartSize() > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException(String.format(
+                    "Multipart part size %d is too large for streaming", multipartUploadSettings.getPartSize()));
+        }
+        return new S3PartOutputStream(this, datasetName, filename, spillPath);
     }
 
     @Override
-    public void add(final String datasetName, final Path path)
+    public void add(final String datasetName, final Path path, final PartDigests partDigests)
             throws
             IOException,
             NoSuchAlgorithmException,
             IncorrectHashException,
             S3MissesFileException {
-        upload(datasetName, path);
-        logger.info(String.format("Checking sent file '%s'", path.getFileName().toString()));
-        if (!isFileExists(datasetName, path.getFileName().toString())) {
-            logger.error(String.format("File '%s' not found on S3", path.getFileName().toString()));
-            throw new S3MissesFileException();
-        }
-        logger.info(String.format("File '%s' found on S3", path.getFileName().toString()));
+        upload(datasetName, path, partDigests);
     }
 
+    /**
+     * True if any storage has the file. Checks the exact key with a HeadObject on every call.
+     */
     @Override
     public boolean isFileExists(final String datasetName, final String filename) {
-
         for (S3Storage s3Storage : storages) {
-            S3Client s3Client = S3Client.builder()
-                    .region(s3Storage.getRegion())
-                    .endpointOverride(s3Storage.getEndpoint())
-                    .credentialsProvider(StaticCredentialsProvider.create(s3Storage.getCredentials()))
-                    .build();
-
-            String prefix = s3Storage.getPrefix().toString() + "/" + datasetName + "/" + filename;
+            String key = getKey(s3Storage, datasetName, filename);
+            try {
+                s3Clients.get(s3Storage).headObject(HeadObjectRequest.builder()
+                        .bucket(s3Storage.getBucketName())
+                        .key(key)
+                        .build());
+                logger.info(String.format("File '%s' found on %s", key, s3Storage));
+                return true;
+            } catch (NoSuchKeyException e) {
+                logger.info(String.format("File '%s' not found on %s", key, s3Storage));
+            } catch (S3Exception e) {
+                if (e.statusCode() != 404) {
+                    throw e;
+                }
+                logger.info(String.format("File '%s' not found on %s", key, s3Storage));
+            }
+        }
+        return false;
+    }
 
-            ListObjectsRequest listObjects = ListObjectsRequest.builder()
-                    .bucket(s3Storage.getBucketName())
-                    .prefix(prefix)
-                    .build();
+    /**
+     * Names of the objects of the dataset, read with ListObjectsV2 page by page on the first call
+     * and kept up to date with the uploads of this repository.
+     * Objects added or deleted by someone else after that are not seen.
+     */
+    private Set<String> getListing(final S3Storage s3Storage, final String datasetName) {
+        return listings.get(s3Storage).computeIfAbsent(datasetName, key -> {
+            S3Client s3Client = s3Clients.get(s3Storage);
+            String prefix = getKey(s3Storage, datasetName, "");
+            Set<String> res = ConcurrentHashMap.newKeySet();
+            String continuationToken = null;
+            int pages = 0;
+            do {
+                ListObjectsV2Response listObjectsV2Response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                        .bucket(s3Storage.getBucketName())
+                        .prefix(prefix)
+                        .continuationToken(continuationToken)
+                        .build());
+                for (S3Object s3Object : listObjectsV2Response.contents()) {
+                    String filename = s3Object.key().substring(prefix.length());
+                    if (!filename.contains("/")) {
+                        res.add(filename);
+                    }
+                }
+                continuationToken = Boolean.TRUE.equals(listObjectsV2Response.isTruncated())
+                        ? listObjectsV2Response.nextContinuationToken()
+                        : null;
+                pages++;
+            } while (continuationToken != null);
+            logger.info(String.format(
+                    "Listed %d objects of '%s' on %s in %d pages", res.size(), datasetName, s3Storage, pages));
+            return res;
+        });
+    }
 
-            ListObjectsResponse res = s3Client.listObjects(listObjects);
-            List<S3Object> s3Objects = res.contents();
-            logger.info(String.format("Found on S3:\n'%s'", s3Objects));
+    void addToListing(final S3Storage s3Storage, final String datasetName, final String filename) {
+        Set<String> listing = listings.get(s3Storage).get(datasetName);
+        if (listing != null) {
+            listing.add(filename);
+        }
+    }
 
-            if (s3Objects.size() > 1) {
-                throw new IllegalArgumentException();
+    /**
+     * Names of the files of the dataset present on every storage, for checking many parts at once.
+     * Each storage is listed once per dataset, later calls are answered from the cache,
+     * see {@link #getListing(S3Storage, String)}.
+     */
+    @Override
+    public Set<String> listFiles(final String datasetName) {
+        Set<String> res = null;
+        for (S3Storage s3Storage : storages) {
+            Set<String> listing = getListing(s3Storage, datasetName);
+            if (res == null) {
+                res = new HashSet<>(listing);
+            } else {
+                res.retainAll(listing);
             }
+        }
+        return res == null ? Collections.emptySet() : res;
+    }
 
-            for (S3Object s3Object : s3Objects) {
-                String tmp = Paths.get(s3Object.key()).getFileName().toString();
-                if (tmp.equals(filename)) {
-                    return true;
-                }
-            }
+    public Map<S3Storage, StorageStats> getStorageStats() {
+        return Collections.unmodifiableMap(storageStats);
+    }
 
+    @Override
+    public void close() {
+        if (storageExecutor != null) {
+            storageExecutor.shutdownNow();
         }
-        return false;
+        if (multipartExecutor != null) {
+            multipartExecutor.shutdownNow();
+        }
+        for (S3Client s3Client : s3Clients.values()) {
+            s3Client.close();
+        }
+        s3Clients.clear();
     }
-
 }
@@ -9,10 +9,13 @@ import ru.rerumu.backups.repositories.ZFSSnapshotRepository;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
 import ru.rerumu.backups.zfs_api.ProcessWrapper;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public class ZFSFileSystemRepositoryImpl implements ZFSFileSystemRepository {
@@ -20,15 +23,50 @@ public class ZFSFileSystemRepositoryImpl implements ZFSFileSystemRepository {
     private final Logger logger = LoggerFactory.getLogger(ZFSFileSystemRepositoryImpl.class);
     private final ZFSProcessFactory zfsProcessFactory;
     private final ZFSSnapshotRepository zfsSnapshotRepository;
+    private final boolean isBulkInventory;
 
     public ZFSFileSystemRepositoryImpl(ZFSProcessFactory zfsProcessFactory,
                                        ZFSSnapshotRepository zfsSnapshotRepository){
+        this(zfsProcessFactory, zfsSnapshotRepository, false);
+    }
+
+    /**
+     * With {@code isBulkInventory} the snapshots of the whole tree are listed by one process
+     * instead of one process per filesystem.
+     */
+    public ZFSFileSystemRepositoryImpl(ZFSProcessFactory zfsProcessFactory,
+                                       ZFSSnapshotRepository zfsSnapshotRepository,
+                                       boolean isBulkInventory){
         this.zfsProcessFactory = zfsProcessFactory;
         this.zfsSnapshotRepository = zfsSnapshotRepository;
+        this.isBulkInventory = isBulkInventory;
+    }
+
+    private List<ZFSFileSystem> getFilesystemsTreeListInBulk(String fileSystemName) throws IOException, InterruptedException, ExecutionException {
+        Map<String, List<Snapshot>> snapshotsByDataset = zfsSnapshotRepository.getAllSnapshotsByDataset(fileSystemName);
+
+        ProcessWrapper zfsListFilesystems = zfsProcessFactory.getZFSListFilesystems(fileSystemName);
+        List<ZFSFileSystem> zfsFileSystemList = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(zfsListFilesystems.getBufferedInputStream(), StandardCharsets.UTF_8));
+        String line;
+        // Already sorted
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            zfsFileSystemList.add(new ZFSFileSystem(line, snapshotsByDataset.getOrDefault(line, new ArrayList<>())));
+        }
+        zfsListFilesystems.close();
+        logger.debug(String.format("Got %d filesystems", zfsFileSystemList.size()));
+        return zfsFileSystemList;
     }
 
     @Override
     public List<ZFSFileSystem> getFilesystemsTreeList(String fileSystemName) throws IOException, InterruptedException, ExecutionException {
+        if (isBulkInventory) {
+            return getFilesystemsTreeListInBulk(fileSystemName);
+        }
         ProcessWrapper zfsListFilesystems = zfsProcessFactory.getZFSListFilesystems(fileSystemName);
         byte[] buf = zfsListFilesystems.getBufferedInputStream().readAllBytes();
         zfsListFilesystems.close();
@@ -3,19 +3,24 @@ package ru.rerumu.backups.repositories.impl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.models.Snapshot;
+import ru.rerumu.backups.models.SnapshotProperties;
 import ru.rerumu.backups.repositories.ZFSSnapshotRepository;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
 import ru.rerumu.backups.zfs_api.ProcessWrapper;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public class ZFSSnapshotRepositoryImpl implements ZFSSnapshotRepository {
 
-    private final Logger logger = LoggerFactory.getLogger(ZFSFileSystemRepositoryImpl.class);
+    private final Logger logger = LoggerFactory.getLogger(ZFSSnapshotRepositoryImpl.class);
     private final ZFSProcessFactory zfsProcessFactory;
 
     public ZFSSnapshotRepositoryImpl(ZFSProcessFactory zfsProcessFactory){
@@ -43,4 +48,98 @@ public class ZFSSnapshotRepositoryImpl implements ZFSSnapshotRepository {
 
         return snapshotList;
     }
+
+    @Override
+    public Map<String, List<Snapshot>> getAllSnapshotsByDataset(String parentFileSystemName) throws IOException, InterruptedException, ExecutionException {
+        ProcessWrapper zfsListSnapshots = zfsProcessFactory.getZFSListSnapshotsRecursive(parentFileSystemName);
+        Map<String, List<Snapshot>> snapshotsByDataset = new LinkedHashMap<>();
+        int count = 0;
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(zfsListSnapshots.getBufferedInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Snapshot snapshot = parseSnapshotLine(line);
+                snapshotsByDataset.computeIfAbsent(snapshot.getDataset(), key -> new ArrayList<>()).add(snapshot);
+                count++;
+            }
+        } catch (IOException | RuntimeException e) {
+            zfsListSnapshots.kill();
+            throw e;
+        }
+        zfsListSnapshots.close();
+        logger.debug(String.format("Got %d snapshots of %d datasets", count, snapshotsByDataset.size()));
+        return snapshotsByDataset;
+    }
+
+    /**
+     * Parses {@code name guid createtxg creation used written}, separated by tabs.
+     */
+    private Snapshot parseSnapshotLine(String line) throws IOException {
+        String[] fields = line.split("\\t");
+        if (fields.length != 6) {
+            throw new IOException(String.format("Unexpected snapshot line '%s'", line));
+        }
+        try {
+            return new Snapshot(fields[0], new SnapshotProperties(
+                    Long.parseUnsignedLong(fields[1]),
+                    Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]),
+                    Long.parseLong(fields[4]),
+                    Long.parseLong(fields[5])));
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Unexpected snapshot line '%s'", line), e);
+        }
+    }
+
+    @Override
+    public long estimateSendSize(List<Snapshot> snapshotList) throws IOException, InterruptedException, ExecutionException {
+        if (snapshotList.isEmpty()) {
+            return 0;
+        }
+        Snapshot baseSnapshot = snapshotList.get(0);
+        long size = readEstimate(zfsProcessFactory.getZFSSendEstimate(baseSnapshot));
+        if (snapshotList.size() > 1) {
+            size += readEstimate(zfsProcessFactory.getZFSSendEstimate(
+                    baseSnapshot, snapshotList.get(snapshotList.size() - 1)));
+        }
+        logger.debug(String.format("Estimated %d bytes for '%s'", size, baseSnapshot.getDataset()));
+        return size;
+    }
+
+    /**
+     * Reads the {@code size} line that ends the parsable output of a dry run.
+     * The process is killed if its output can not be read.
+     */
+    private long readEstimate(ProcessWrapper zfsSendEstimate) throws IOException, InterruptedException, ExecutionException {
+        long size = 0;
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(zfsSendEstimate.getBufferedInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\\t");
+                if (fields.length == 2 && fields[0].equals("size")) {
+                    size = parseEstimate(line, fields[1]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            zfsSendEstimate.kill();
+            throw e;
+        } finally {
+            zfsSendEstimate.close();
+        }
+        return size;
+    }
+
+    private static long parseEstimate(String line, String field) throws IOException {
+        try {
+            return Long.parseLong(field.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Unexpected estimate line '%s'", line), e);
+        }
+    }
 }
@@ -3,10 +3,23 @@ package ru.rerumu.backups.services;
 import ru.rerumu.backups.exceptions.CompressorException;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
 public interface Compressor {
 
     byte[] compressChunk(byte[] chunk) throws CompressorException;
+
+    /**
+     * Compresses the remaining bytes of the buffer without copying them first.
+     * The buffer position is left unchanged.
+     */
+    byte[] compressChunk(ByteBuffer chunk) throws CompressorException;
+
     byte[] decompressChunk(byte[] chunk) throws CompressorException;
+
+    /**
+     * Codec id stored in every frame written with this compressor, one of {@code CryptoMessage.CODEC_*}.
+     */
+    int getCodec();
 }
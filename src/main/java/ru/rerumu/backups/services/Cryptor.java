@@ -18,4 +18,6 @@ public interface Cryptor {
 
     CryptoMessage encryptChunk(byte[] chunk) throws EncryptException;
     byte[] decryptChunk(CryptoMessage cryptoMessage) throws EncryptException;
+    // Hint that the message will be decrypted soon, so its key can be prepared in the background
+    void prefetchKey(CryptoMessage cryptoMessage);
 }
@@ -0,0 +1,13 @@
+package ru.rerumu.backups.services;
+
+import ru.rerumu.backups.models.CryptoMessage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+
+public interface FrameReader extends Closeable {
+
+    // Throws EOFException after the last message
+    CryptoMessage read() throws IOException, ClassNotFoundException, EOFException;
+}
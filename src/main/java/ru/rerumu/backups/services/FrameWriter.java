@@ -0,0 +1,11 @@
+package ru.rerumu.backups.services;
+
+import ru.rerumu.backups.models.CryptoMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface FrameWriter extends Closeable {
+
+    void write(CryptoMessage cryptoMessage) throws IOException;
+}
@@ -25,4 +25,9 @@ public interface SnapshotSender {
             throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException;
     void sendStartingFromIncremental(String datasetName, List<Snapshot> snapshotList)
             throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException;
+
+    /**
+     * Number of incremental streams that were not sent because their snapshots had nothing written.
+     */
+    long getAvoidedSends();
 }
@@ -3,15 +3,32 @@ package ru.rerumu.backups.services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.exceptions.*;
+import ru.rerumu.backups.models.BackupProgress;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.models.ZFSFileSystem;
 import ru.rerumu.backups.repositories.ZFSFileSystemRepository;
+import ru.rerumu.backups.repositories.ZFSSnapshotRepository;
 import ru.rerumu.backups.services.impl.SnapshotPickerImpl;
 
 import java.io.*;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ZFSBackupService {
 
@@ -19,13 +36,53 @@ public class ZFSBackupService {
     private final boolean isLoadS3;
     private final ZFSFileSystemRepository zfsFileSystemRepository;
     private final SnapshotSender snapshotSender;
+    private final int datasetThreads;
+    private final ZFSSnapshotRepository zfsSnapshotRepository;
 
     public ZFSBackupService(boolean isLoadS3,
                             ZFSFileSystemRepository zfsFileSystemRepository,
                             SnapshotSender snapshotSender) {
+        this(isLoadS3, zfsFileSystemRepository, snapshotSender, 1);
+    }
+
+    /**
+     * Up to {@code datasetThreads} datasets are sent at the same time, each with its own
+     * {@code zfs send} process, writer and upload queue. Parts are named after the dataset and snapshot,
+     * so streams of different datasets don't mix.
+     * Parts put into the local directory for a receiver must come one stream at a time,
+     * so without S3 datasets are always sent one by one.
+     */
+    public ZFSBackupService(boolean isLoadS3,
+                            ZFSFileSystemRepository zfsFileSystemRepository,
+                            SnapshotSender snapshotSender,
+                            int datasetThreads) {
+        this(isLoadS3, zfsFileSystemRepository, snapshotSender, datasetThreads, null);
+    }
+
+    /**
+     * With {@code zfsSnapshotRepository} the size of every dataset is estimated before sending,
+     * concurrent datasets are started largest first and the expected end of the backup is logged
+     * as datasets are finished. The dry runs go one dataset after another before the first send,
+     * so with a single dataset thread they only buy the progress log. Null skips the estimation.
+     */
+    public ZFSBackupService(boolean isLoadS3,
+                            ZFSFileSystemRepository zfsFileSystemRepository,
+                            SnapshotSender snapshotSender,
+                            int datasetThreads,
+                            ZFSSnapshotRepository zfsSnapshotRepository) {
+        if (datasetThreads < 1) {
+            throw new IllegalArgumentException(String.format("Wrong number of dataset threads %d", datasetThreads));
+        }
         this.isLoadS3 = isLoadS3;
         this.zfsFileSystemRepository = zfsFileSystemRepository;
         this.snapshotSender = snapshotSender;
+        this.zfsSnapshotRepository = zfsSnapshotRepository;
+        if (!isLoadS3 && datasetThreads > 1) {
+            logger.warn("Datasets are sent one by one without S3");
+            this.datasetThreads = 1;
+        } else {
+            this.datasetThreads = datasetThreads;
+        }
     }
 
 //    private void sendIncrementalSnapshots(Snapshot baseSnapshot, List<Snapshot> incrementalSnapshots, S3Loader s3Loader)
@@ -42,6 +99,167 @@ public class ZFSBackupService {
 //        }
 //    }
 
+    private void backupDataset(String datasetName,
+                               List<Snapshot> snapshotList,
+                               Map<String, Long> estimates,
+                               BackupProgress backupProgress) throws
+            IOException,
+            InterruptedException,
+            CompressorException,
+            EncryptException,
+            BaseSnapshotNotFoundException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        snapshotSender.sendStartingFromFull(datasetName, snapshotList);
+        Long estimate = estimates.get(datasetName);
+        if (estimate == null) {
+            return;
+        }
+        backupProgress.addSent(estimate);
+        Duration remainingTime = backupProgress.getRemainingTime();
+        if (remainingTime != null) {
+            logger.info(String.format(
+                    "Sent '%s'. %s, expected to finish at %s",
+                    datasetName,
+                    backupProgress,
+                    LocalDateTime.now().plus(remainingTime).withNano(0)));
+        }
+    }
+
+    /**
+     * Runs a dry {@code zfs send} for every dataset. A dataset that can not be estimated counts as empty.
+     */
+    private Map<String, Long> estimateSizes(Map<String, List<Snapshot>> pickedSnapshots) throws InterruptedException {
+        Map<String, Long> estimates = new HashMap<>();
+        if (zfsSnapshotRepository == null) {
+            return estimates;
+        }
+        for (Map.Entry<String, List<Snapshot>> entry : pickedSnapshots.entrySet()) {
+            long estimate = 0;
+            try {
+                estimate = zfsSnapshotRepository.estimateSendSize(entry.getValue());
+            } catch (IOException | ExecutionException e) {
+                logger.warn(String.format("Failed to estimate size of '%s'", entry.getKey()), e);
+            }
+            estimates.put(entry.getKey(), estimate);
+        }
+        return estimates;
+    }
+
+    /**
+     * Closest dataset of the list that contains the given one, null if there is none.
+     */
+    private static String getParent(String datasetName, List<String> datasetNames) {
+        String parent = null;
+        for (String candidate : datasetNames) {
+            if (datasetName.startsWith(candidate + "/")
+                    && (parent == null || candidate.length() > parent.length())) {
+                parent = candidate;
+            }
+        }
+        return parent;
+    }
+
+    /**
+     * Sends the filesystems in a pool of {@code datasetThreads} threads, in the order of {@code datasetNames}.
+     * A filesystem is started only after its parent was sent, so a receiver still gets parents before
+     * their children. The first failure is rethrown as it would be by a sequential backup, the datasets
+     * still being sent are interrupted.
+     */
+    private void backupConcurrently(List<String> datasetNames,
+                                    Map<String, List<Snapshot>> pickedSnapshots,
+                                    Map<String, Long> estimates,
+                                    BackupProgress backupProgress) throws
+            IOException,
+            InterruptedException,
+            CompressorException,
+            EncryptException,
+            BaseSnapshotNotFoundException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        int threads = Math.min(datasetThreads, datasetNames.size());
+        logger.info(String.format("Sending %d filesystems in %d threads", datasetNames.size(), threads));
+        Map<String, String> parents = new HashMap<>();
+        for (String datasetName : datasetNames) {
+            parents.put(datasetName, getParent(datasetName, datasetNames));
+        }
+        List<String> waiting = new ArrayList<>(datasetNames);
+        Set<String> sent = new HashSet<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<String> completionService = new ExecutorCompletionService<>(executorService);
+            int running = 0;
+            while (running > 0 || !waiting.isEmpty()) {
+                for (Iterator<String> iterator = waiting.iterator(); iterator.hasNext(); ) {
+                    String datasetName = iterator.next();
+                    String parent = parents.get(datasetName);
+                    if (parent != null && !sent.contains(parent)) {
+                        continue;
+                    }
+                    iterator.remove();
+                    running++;
+                    completionService.submit(() -> {
+                        backupDataset(datasetName, pickedSnapshots.get(datasetName), estimates, backupProgress);
+                        return datasetName;
+                    });
+                }
+                try {
+                    sent.add(completionService.take().get());
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+                running--;
+            }
+        } finally {
+            executorService.shutdownNow();
+            if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.error("Dataset threads did not stop");
+            }
+        }
+    }
+
+    /**
+     * Rethrows the cause of a failed dataset as it would be thrown by a sequential backup.
+     */
+    private static ExecutionException unwrap(ExecutionException e) throws
+            IOException,
+            InterruptedException,
+            CompressorException,
+            EncryptException,
+            BaseSnapshotNotFoundException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof CompressorException) {
+            throw (CompressorException) cause;
+        }
+        if (cause instanceof EncryptException) {
+            throw (EncryptException) cause;
+        }
+        if (cause instanceof BaseSnapshotNotFoundException) {
+            throw (BaseSnapshotNotFoundException) cause;
+        }
+        if (cause instanceof NoSuchAlgorithmException) {
+            throw (NoSuchAlgorithmException) cause;
+        }
+        if (cause instanceof IncorrectHashException) {
+            throw (IncorrectHashException) cause;
+        }
+        if (cause instanceof ExecutionException) {
+            throw (ExecutionException) cause;
+        }
+        if (cause instanceof S3MissesFileException) {
+            throw (S3MissesFileException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+
     public void zfsBackupFull(String targetSnapshotName,
                               String parentDatasetName) throws
             IOException,
@@ -52,15 +270,36 @@ public class ZFSBackupService {
 
         List<ZFSFileSystem> zfsFileSystemList = zfsFileSystemRepository.getFilesystemsTreeList(parentDatasetName);
 
+        Map<String, List<Snapshot>> pickedSnapshots = new LinkedHashMap<>();
+        SnapshotPicker snapshotPicker = new SnapshotPickerImpl();
         for (ZFSFileSystem zfsFileSystem : zfsFileSystemList) {
             try {
-                SnapshotPicker snapshotPicker = new SnapshotPickerImpl();
-                List<Snapshot> pickedSnapshots = snapshotPicker.pick(zfsFileSystem, targetSnapshotName);
-                snapshotSender.sendStartingFromFull(zfsFileSystem.getName(),pickedSnapshots);
+                pickedSnapshots.put(zfsFileSystem.getName(), snapshotPicker.pick(zfsFileSystem, targetSnapshotName));
             } catch (SnapshotNotFoundException e){
                 logger.warn(String.format("Skipping filesystem '%s'. No acceptable snapshots", zfsFileSystem.getName()));
             }
+        }
 
+        Map<String, Long> estimates = estimateSizes(pickedSnapshots);
+        BackupProgress backupProgress = new BackupProgress(
+                estimates.values().stream().mapToLong(Long::longValue).sum());
+        if (!estimates.isEmpty()) {
+            logger.info(String.format(
+                    "Estimated %d bytes in %d filesystems", backupProgress.getTotalBytes(), estimates.size()));
+        }
+
+        List<String> datasetNames = new ArrayList<>(pickedSnapshots.keySet());
+        if (datasetThreads == 1 || datasetNames.size() < 2) {
+            // In tree order, so a receiver gets parents before their children
+            for (String datasetName : datasetNames) {
+                backupDataset(datasetName, pickedSnapshots.get(datasetName), estimates, backupProgress);
+            }
+        } else {
+            // The largest datasets start first, so none of them is left to run alone at the end.
+            // Children still wait for their parents, see backupConcurrently
+            datasetNames.sort(Comparator.comparingLong((String datasetName) -> estimates.getOrDefault(datasetName, 0L))
+                    .reversed());
+            backupConcurrently(datasetNames, pickedSnapshots, estimates, backupProgress);
         }
         logger.debug("Sent all filesystems");
     }
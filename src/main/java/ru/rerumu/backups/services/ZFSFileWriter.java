@@ -4,17 +4,39 @@ import ru.rerumu.backups.exceptions.CompressorException;
 import ru.rerumu.backups.exceptions.EncryptException;
 import ru.rerumu.backups.exceptions.FileHitSizeLimitException;
 import ru.rerumu.backups.exceptions.ZFSStreamEndedException;
-import ru.rerumu.backups.zfs_api.ZFSSend;
+import ru.rerumu.backups.models.PartDigests;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
 
-public interface ZFSFileWriter {
+public interface ZFSFileWriter extends AutoCloseable {
 
     void write(BufferedInputStream bufferedInputStream, Path path) throws IOException,
             CompressorException,
             EncryptException,
             FileHitSizeLimitException,
             ZFSStreamEndedException;
+
+    /**
+     * Same as {@link #write(BufferedInputStream, Path)} but writes the part to {@code outputStream}.
+     * The stream is closed when the part is finished.
+     */
+    void write(BufferedInputStream bufferedInputStream, OutputStream outputStream) throws IOException,
+            CompressorException,
+            EncryptException,
+            FileHitSizeLimitException,
+            ZFSStreamEndedException;
+
+    /**
+     * Checksums of the part written by the last {@code write} call.
+     */
+    PartDigests getPartDigests();
+
+    /**
+     * Releases what the writer holds for the stream, like worker threads. The writer is not used after it.
+     */
+    @Override
+    void close();
 }
@@ -39,8 +39,8 @@ public class ZFSRestoreService {
                     Path nextPath = filePartRepository.getNextInputPath();
                     snapshotReceiver.receiveSnapshotPart(nextPath);
                 } catch (NoMorePartsException e) {
-                    logger.debug("No acceptable files found. Waiting 1 second before retry");
-                    Thread.sleep(1000);
+                    logger.debug("No acceptable files found. Waiting for changes before retry");
+                    filePartRepository.awaitChange();
                 } catch (FinishedFlagException e) {
                     logger.info("Finish flag found. Exiting loop");
                     break;
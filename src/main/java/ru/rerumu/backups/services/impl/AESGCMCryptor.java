@@ -0,0 +1,49 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.models.CryptoMessage;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * AES-256-GCM on the default JDK provider, which uses the AES-NI and GHASH intrinsics.
+ * Each chunk is encrypted with one doFinal call straight into an array of the final size.
+ */
+public class AESGCMCryptor extends AbstractAESCryptor {
+    private static final int KEY_CACHE_SIZE = 16;
+    private static final int IV_SIZE = 12;
+
+    public AESGCMCryptor(String password) {
+        this(new SecretKeyCache(password, KEY_CACHE_SIZE, 0));
+    }
+
+    public AESGCMCryptor(SecretKeyCache secretKeyCache) {
+        super(secretKeyCache);
+    }
+
+    @Override
+    public CryptoMessage encryptChunk(byte[] chunk) throws EncryptException {
+        try {
+            byte[] salt = getMasterSalt();
+            byte[] iv = generateIv(IV_SIZE);
+            SecretKey secretKey = deriveChunkKey(secretKeyCache.get(salt), iv);
+
+            Cipher cipher = getGCMCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+
+            byte[] res = new byte[cipher.getOutputSize(chunk.length)];
+            int len = cipher.doFinal(chunk, 0, chunk.length, res, 0);
+            if (len != res.length) {
+                throw new EncryptException("Unexpected encrypted length");
+            }
+            return new CryptoMessage(CryptoMessage.VERSION_GCM, salt, iv, res);
+
+        } catch (EncryptException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EncryptException(e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ru.rerumu.backups.services.impl;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Cryptor;
+
+import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.Security;
+
+/**
+ * Key handling shared by the AES cryptors. Subclasses choose how chunks are encrypted,
+ * decryption follows the version of the message, so every cryptor reads every format.
+ *
+ * <p>Cipher instances are kept per thread and reinitialised for every chunk,
+ * salts and IVs come from one DRBG shared by all cryptors.
+ */
+public abstract class AbstractAESCryptor implements Cryptor {
+    static {
+        Security.setProperty("crypto.policy", "unlimited");
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    protected static final int GCM_TAG_LENGTH = 128;
+
+    private static final SecureRandom SECURE_RANDOM = createSecureRandom();
+    private static final ThreadLocal<Cipher> CBC_CIPHER =
+            threadLocalCipher("AES/CBC/PKCS5Padding", BouncyCastleProvider.PROVIDER_NAME);
+    private static final ThreadLocal<Cipher> GCM_CIPHER = threadLocalCipher("AES/GCM/NoPadding", null);
+
+    private static final Integer SALT_SIZE = 8;
+    private static final int KEY_SIZE = 32;
+    private static final byte[] HKDF_INFO_PREFIX = "ZFSBackupS3 chunk key".getBytes(StandardCharsets.US_ASCII);
+
+    protected final SecretKeyCache secretKeyCache;
+    private volatile byte[] masterSalt;
+
+    public AbstractAESCryptor(SecretKeyCache secretKeyCache) {
+        this.secretKeyCache = secretKeyCache;
+    }
+
+    private static SecureRandom createSecureRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    private static ThreadLocal<Cipher> threadLocalCipher(String transformation, String provider) {
+        return ThreadLocal.withInitial(() -> {
+            try {
+                return provider == null
+                        ? Cipher.getInstance(transformation)
+                        : Cipher.getInstance(transformation, provider);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    protected static Cipher getCBCCipher() {
+        return CBC_CIPHER.get();
+    }
+
+    protected static Cipher getGCMCipher() {
+        return GCM_CIPHER.get();
+    }
+
+    protected byte[] getMasterSalt() {
+        if (masterSalt == null) {
+            synchronized (this) {
+                if (masterSalt == null) {
+                    byte[] salt = new byte[SALT_SIZE];
+                    SECURE_RANDOM.nextBytes(salt);
+                    masterSalt = salt;
+                }
+            }
+        }
+        return masterSalt;
+    }
+
+    protected SecretKey deriveChunkKey(SecretKey masterKey, byte[] iv) {
+        byte[] info = new byte[HKDF_INFO_PREFIX.length + iv.length];
+        System.arraycopy(HKDF_INFO_PREFIX, 0, info, 0, HKDF_INFO_PREFIX.length);
+        System.arraycopy(iv, 0, info, HKDF_INFO_PREFIX.length, iv.length);
+
+        HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
+        hkdf.init(new HKDFParameters(masterKey.getEncoded(), null, info));
+        byte[] chunkKey = new byte[KEY_SIZE];
+        hkdf.generateBytes(chunkKey, 0, KEY_SIZE);
+        return new SecretKeySpec(chunkKey, "AES");
+    }
+
+    protected byte[] generateIv(int size) {
+        byte[] iv = new byte[size];
+        SECURE_RANDOM.nextBytes(iv);
+        return iv;
+    }
+
+    private byte[] decryptCBC(CryptoMessage cryptoMessage, SecretKey secretKey) throws Exception {
+        Cipher cipher = getCBCCipher();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(cryptoMessage.getIv()));
+        return cipher.doFinal(cryptoMessage.getMessage());
+    }
+
+    private byte[] decryptGCM(CryptoMessage cryptoMessage, SecretKey secretKey) throws Exception {
+        Cipher cipher = getGCMCipher();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, cryptoMessage.getIv()));
+
+        byte[] message = cryptoMessage.getMessage();
+        byte[] res = new byte[cipher.getOutputSize(message.length)];
+        int len = cipher.doFinal(message, 0, message.length, res, 0);
+        if (len != res.length) {
+            throw new EncryptException("Unexpected decrypted length");
+        }
+        return res;
+    }
+
+    @Override
+    public void prefetchKey(CryptoMessage cryptoMessage) {
+        secretKeyCache.prefetch(cryptoMessage.getSalt());
+    }
+
+    @Override
+    public byte[] decryptChunk(CryptoMessage cryptoMessage) throws EncryptException {
+        try {
+            switch (cryptoMessage.getVersion()) {
+                case CryptoMessage.VERSION_PBKDF2:
+                    return decryptCBC(cryptoMessage, secretKeyCache.get(cryptoMessage.getSalt()));
+                case CryptoMessage.VERSION_HKDF:
+                    return decryptCBC(
+                            cryptoMessage,
+                            deriveChunkKey(secretKeyCache.get(cryptoMessage.getSalt()), cryptoMessage.getIv()));
+                case CryptoMessage.VERSION_GCM:
+                    return decryptGCM(
+                            cryptoMessage,
+                            deriveChunkKey(secretKeyCache.get(cryptoMessage.getSalt()), cryptoMessage.getIv()));
+                default:
+                    throw new EncryptException(String.format("Unsupported message version %d", cryptoMessage.getVersion()));
+            }
+        } catch (EncryptException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EncryptException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.services.Compressor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Base for codecs that compress a whole chunk in one call.
+ * The compressed chunk is prefixed with its original length as a big-endian int,
+ * so it can be decompressed into an array of the exact size.
+ */
+public abstract class AbstractBlockCompressor implements Compressor {
+    private static final int LENGTH_SIZE = 4;
+
+    protected abstract int maxCompressedLength(int length);
+
+    protected abstract int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws CompressorException;
+
+    protected abstract void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst)
+            throws CompressorException;
+
+    @Override
+    public byte[] compressChunk(byte[] chunk) throws CompressorException {
+        return compressChunk(ByteBuffer.wrap(chunk));
+    }
+
+    @Override
+    public byte[] compressChunk(ByteBuffer chunk) throws CompressorException {
+        try {
+            byte[] src;
+            int srcOffset;
+            int srcLength = chunk.remaining();
+            if (chunk.hasArray()) {
+                src = chunk.array();
+                srcOffset = chunk.arrayOffset() + chunk.position();
+            } else {
+                src = new byte[srcLength];
+                srcOffset = 0;
+                chunk.duplicate().get(src);
+            }
+
+            byte[] dst = new byte[LENGTH_SIZE + maxCompressedLength(srcLength)];
+            ByteBuffer.wrap(dst).putInt(srcLength);
+            int len = compress(src, srcOffset, srcLength, dst, LENGTH_SIZE, dst.length - LENGTH_SIZE);
+            return Arrays.copyOf(dst, LENGTH_SIZE + len);
+        } catch (CompressorException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompressorException(e);
+        }
+    }
+
+    @Override
+    public byte[] decompressChunk(byte[] chunk) throws CompressorException {
+        if (chunk.length < LENGTH_SIZE) {
+            throw new CompressorException("Chunk is too short");
+        }
+        int length = ByteBuffer.wrap(chunk).getInt();
+        if (length < 0) {
+            throw new CompressorException(String.format("Wrong chunk length %d", length));
+        }
+        try {
+            byte[] dst = new byte[length];
+            decompress(chunk, LENGTH_SIZE, chunk.length - LENGTH_SIZE, dst);
+            return dst;
+        } catch (CompressorException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompressorException(e);
+        }
+    }
+}
@@ -5,19 +5,23 @@ import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.exceptions.*;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
+import ru.rerumu.backups.models.PartDigests;
+import ru.rerumu.backups.models.PartUploadMode;
+import ru.rerumu.backups.models.SendFlag;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.repositories.FilePartRepository;
+import ru.rerumu.backups.repositories.PartOutputStream;
 import ru.rerumu.backups.repositories.RemoteBackupRepository;
 import ru.rerumu.backups.services.SnapshotSender;
 import ru.rerumu.backups.services.ZFSFileWriter;
 import ru.rerumu.backups.zfs_api.ZFSSend;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractSnapshotSender implements SnapshotSender {
     private final Logger logger = LoggerFactory.getLogger(AbstractSnapshotSender.class);
@@ -27,6 +31,10 @@ public abstract class AbstractSnapshotSender implements SnapshotSender {
     protected final ZFSProcessFactory zfsProcessFactory;
     protected final ZFSFileWriterFactory zfsFileWriterFactory;
     protected final boolean isLoadS3;
+    protected final int uploadQueueDepth;
+    protected final PartUploadMode partUploadMode;
+    protected final PartSpool partSpool;
+    protected final AtomicLong avoidedSends = new AtomicLong();
 
     public AbstractSnapshotSender(
             FilePartRepository filePartRepository,
@@ -35,20 +43,102 @@ public abstract class AbstractSnapshotSender implements SnapshotSender {
             ZFSFileWriterFactory zfsFileWriterFactory,
             boolean isLoadS3
     ) {
+        this(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, isLoadS3, 0);
+    }
+
+    /**
+     * With {@code uploadQueueDepth} above 0 parts are uploaded in the background while the next ones
+     * are written, and at most that many parts of the stream are on disk, including the one being written,
+     * see {@link PartUploadQueue}. With 0 each part is uploaded before the next one is written.
+     */
+    public AbstractSnapshotSender(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth
+    ) {
+        this(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, isLoadS3,
+                uploadQueueDepth, PartUploadMode.FILES);
+    }
+
+    /**
+     * In a streaming {@code partUploadMode} parts are not written to {@code filePartRepository} but uploaded
+     * while they are written, the repository only names them and keeps spilled data.
+     */
+    public AbstractSnapshotSender(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode
+    ) {
+        this(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, isLoadS3,
+                uploadQueueDepth, partUploadMode, null);
+    }
+
+    /**
+     * {@code partSpool} is shared by the senders of datasets that are sent at the same time,
+     * every part written to {@code filePartRepository} holds one of its slots. Null means no limit.
+     */
+    public AbstractSnapshotSender(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool
+    ) {
+        if (uploadQueueDepth < 0) {
+            throw new IllegalArgumentException(String.format("Wrong upload queue depth %d", uploadQueueDepth));
+        }
         this.filePartRepository = filePartRepository;
         this.remoteBackupRepository = remoteBackupRepository;
         this.zfsProcessFactory = zfsProcessFactory;
         this.zfsFileWriterFactory = zfsFileWriterFactory;
         this.isLoadS3 = isLoadS3;
+        this.uploadQueueDepth = uploadQueueDepth;
+        this.partUploadMode = partUploadMode;
+        this.partSpool = partSpool;
+    }
+
+    /**
+     * True if something was written to the dataset between the previous snapshot and this one.
+     * Snapshots listed without properties count as changed.
+     */
+    protected static boolean isChanged(Snapshot snapshot) {
+        return snapshot.getProperties() == null || snapshot.getProperties().getWritten() > 0;
     }
 
     private String escapeSymbols(final String srcString) {
         return srcString.replace('/', '-');
     }
 
+    /**
+     * Name of the full stream of the snapshot, its parts are named after it.
+     */
+    protected String getFullStreamMark(final Snapshot baseSnapshot) {
+        return escapeSymbols(baseSnapshot.getDataset()) + "@" + baseSnapshot.getName()
+                + SendFlag.getStreamTag(zfsProcessFactory.getSendFlags());
+    }
+
+    protected String getIncrementalStreamMark(final Snapshot baseSnapshot, final Snapshot incrementalSnapshot) {
+        return escapeSymbols(baseSnapshot.getDataset())
+                + "@" + baseSnapshot.getName()
+                + "__" + escapeSymbols(incrementalSnapshot.getDataset())
+                + "@" + incrementalSnapshot.getName()
+                + SendFlag.getStreamTag(zfsProcessFactory.getSendFlags());
+    }
+
     private void processCreatedFile(
             final String datasetName,
-            final Path path
+            final Path path,
+            final PartDigests partDigests
     )
             throws IOException,
             InterruptedException,
@@ -56,51 +146,223 @@ public abstract class AbstractSnapshotSender implements SnapshotSender {
             IncorrectHashException,
             S3MissesFileException {
         if (isLoadS3) {
-            remoteBackupRepository.add(datasetName, path);
+            remoteBackupRepository.add(datasetName, path, partDigests);
             filePartRepository.delete(path);
         } else {
-            Path readyPath = filePartRepository.markReady(path);
-            while (Files.exists(readyPath)) {
-                logger.debug("Last part exists. Waiting 1 second before retry");
-                Thread.sleep(1000);
+            filePartRepository.awaitReadySlot();
+            filePartRepository.markReady(path);
+        }
+        logger.debug(String.format(
+                "File '%s' processed",
+                path));
+    }
+
+    /**
+     * Rethrows the cause of a failed background upload as it would be thrown by a synchronous one.
+     */
+    private static ExecutionException unwrap(final ExecutionException e)
+            throws IOException,
+            InterruptedException,
+            NoSuchAlgorithmException,
+            IncorrectHashException,
+            S3MissesFileException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof NoSuchAlgorithmException) {
+            throw (NoSuchAlgorithmException) cause;
+        }
+        if (cause instanceof IncorrectHashException) {
+            throw (IncorrectHashException) cause;
+        }
+        if (cause instanceof S3MissesFileException) {
+            throw (S3MissesFileException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+
+    /**
+     * Processes the part and gives back its spool slot, whether it succeeded or not.
+     */
+    private void processSpooledFile(
+            final String datasetName,
+            final Path path,
+            final PartDigests partDigests
+    )
+            throws IOException,
+            InterruptedException,
+            NoSuchAlgorithmException,
+            IncorrectHashException,
+            S3MissesFileException {
+        try {
+            processCreatedFile(datasetName, path, partDigests);
+        } finally {
+            if (partSpool != null) {
+                partSpool.release();
             }
         }
+    }
 
+    private void onCreatedFile(
+            final PartUploadQueue partUploadQueue,
+            final String datasetName,
+            final Path path,
+            final PartDigests partDigests
+    )
+            throws IOException,
+            InterruptedException,
+            NoSuchAlgorithmException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        if (partUploadQueue == null) {
+            processSpooledFile(datasetName, path, partDigests);
+            return;
+        }
+        try {
+            partUploadQueue.submit(() -> {
+                processSpooledFile(datasetName, path, partDigests);
+                return null;
+            });
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
     }
 
-    private void sendStream(
+    /**
+     * Writes parts straight to the remote repository. A part is finished once the writer reports
+     * the size limit or the end of the stream, on any other failure its upload is aborted.
+     */
+    private void streamParts(
             final ZFSSend zfsSend,
             final String streamMark,
-            final String datasetName
+            final String datasetName,
+            final ZFSFileWriter zfsFileWriter
     )
-            throws InterruptedException,
-            CompressorException,
+            throws CompressorException,
             IOException,
-            EncryptException,
-            NoSuchAlgorithmException,
-            IncorrectHashException,
-            S3MissesFileException {
+            EncryptException {
         int n = 0;
-        ZFSFileWriter zfsFileWriter = zfsFileWriterFactory.getZFSFileWriter();
         while (true) {
             Path newFilePath = filePartRepository.createNewFilePath(streamMark, n);
             n++;
+            PartOutputStream partOutputStream = remoteBackupRepository.newPartOutputStream(
+                    datasetName,
+                    newFilePath.getFileName().toString(),
+                    partUploadMode == PartUploadMode.STREAMING_WITH_SPILL ? newFilePath : null);
             try {
-                zfsFileWriter.write(zfsSend.getBufferedInputStream(), newFilePath);
+                zfsFileWriter.write(zfsSend.getBufferedInputStream(), new CloseShieldOutputStream(partOutputStream));
             } catch (FileHitSizeLimitException e) {
-                processCreatedFile(datasetName, newFilePath);
-                logger.debug(String.format(
-                        "File '%s' processed",
-                        newFilePath));
+                partOutputStream.close();
+                continue;
             } catch (ZFSStreamEndedException e) {
-                processCreatedFile(datasetName, newFilePath);
-                logger.debug(String.format(
-                        "File '%s' processed",
-                        newFilePath));
-                logger.info("End of stream. Exiting");
+                partOutputStream.close();
                 break;
+            } finally {
+                partOutputStream.abort();
+            }
+        }
+        logger.info("End of stream. Exiting");
+    }
+
+    private void sendStream(
+            final ZFSSend zfsSend,
+            final String streamMark,
+            final Snapshot baseSnapshot
+    )
+            throws InterruptedException,
+            CompressorException,
+            IOException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        String datasetName = escapeSymbols(baseSnapshot.getDataset());
+        // Closing the writer stops its worker threads, also when a part could not be processed
+        try (ZFSFileWriter zfsFileWriter = zfsFileWriterFactory.getZFSFileWriter(baseSnapshot.getDataset())) {
+            if (isLoadS3 && partUploadMode.isStreaming()) {
+                streamParts(zfsSend, streamMark, datasetName, zfsFileWriter);
+                return;
             }
+            sendParts(zfsSend, streamMark, datasetName, zfsFileWriter);
+        }
+    }
+
+    private void sendParts(
+            final ZFSSend zfsSend,
+            final String streamMark,
+            final String datasetName,
+            final ZFSFileWriter zfsFileWriter
+    )
+            throws InterruptedException,
+            CompressorException,
+            IOException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        int n = 0;
+        PartUploadQueue partUploadQueue = uploadQueueDepth > 0 ? new PartUploadQueue(uploadQueueDepth) : null;
+        try {
+            while (true) {
+                Path newFilePath = filePartRepository.createNewFilePath(streamMark, n);
+                n++;
+                if (partUploadQueue != null) {
+                    try {
+                        partUploadQueue.awaitSlot();
+                    } catch (ExecutionException e) {
+                        throw unwrap(e);
+                    }
+                }
+                if (partSpool != null) {
+                    partSpool.acquire();
+                }
+                // Once the part is handed over its slot is given back after processing
+                boolean isHandedOver = false;
+                try {
+                    zfsFileWriter.write(zfsSend.getBufferedInputStream(), newFilePath);
+                } catch (FileHitSizeLimitException e) {
+                    isHandedOver = true;
+                    onCreatedFile(partUploadQueue, datasetName, newFilePath, zfsFileWriter.getPartDigests());
+                } catch (ZFSStreamEndedException e) {
+                    isHandedOver = true;
+                    onCreatedFile(partUploadQueue, datasetName, newFilePath, zfsFileWriter.getPartDigests());
+                    break;
+                } finally {
+                    if (!isHandedOver && partSpool != null) {
+                        partSpool.release();
+                    }
+                }
 
+            }
+            if (partUploadQueue != null) {
+                try {
+                    partUploadQueue.awaitAll();
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+            if (!isLoadS3) {
+                // The receiver tells streams apart only if they are not in the directory at the same time
+                filePartRepository.awaitAllReceived();
+            }
+            logger.info("End of stream. Exiting");
+        } finally {
+            if (partUploadQueue != null) {
+                partUploadQueue.close();
+            }
         }
     }
 
@@ -113,15 +375,14 @@ public abstract class AbstractSnapshotSender implements SnapshotSender {
             IncorrectHashException,
             ExecutionException,
             S3MissesFileException {
-        String streamMark = escapeSymbols(baseSnapshot.getDataset()) + "@" + baseSnapshot.getName();
+        String streamMark = getFullStreamMark(baseSnapshot);
         ZFSSend zfsSend = null;
-        String datasetName = escapeSymbols(baseSnapshot.getDataset());
         try {
             zfsSend = zfsProcessFactory.getZFSSendFull(baseSnapshot);
             sendStream(
                     zfsSend,
                     streamMark,
-                    datasetName);
+                    baseSnapshot);
         } catch (Exception e) {
             if (zfsSend != null) {
                 zfsSend.kill();
@@ -148,18 +409,51 @@ public abstract class AbstractSnapshotSender implements SnapshotSender {
             IncorrectHashException,
             ExecutionException,
             S3MissesFileException {
-        String streamMark = escapeSymbols(baseSnapshot.getDataset())
-                + "@" + baseSnapshot.getName()
-                + "__" + escapeSymbols(incrementalSnapshot.getDataset())
-                + "@" + incrementalSnapshot.getName();
+        sendIncrementalStream(baseSnapshot, incrementalSnapshot, false);
+    }
+
+    /**
+     * Sends one {@code zfs send -I} stream with every snapshot after {@code baseSnapshot}
+     * up to {@code incrementalSnapshot}.
+     */
+    protected void sendIncrementalRange(
+            final Snapshot baseSnapshot,
+            final Snapshot incrementalSnapshot
+    )
+            throws InterruptedException,
+            CompressorException,
+            IOException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            IncorrectHashException,
+            ExecutionException,
+            S3MissesFileException {
+        sendIncrementalStream(baseSnapshot, incrementalSnapshot, true);
+    }
+
+    private void sendIncrementalStream(
+            final Snapshot baseSnapshot,
+            final Snapshot incrementalSnapshot,
+            final boolean isRange
+    )
+            throws InterruptedException,
+            CompressorException,
+            IOException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            IncorrectHashException,
+            ExecutionException,
+            S3MissesFileException {
+        String streamMark = getIncrementalStreamMark(baseSnapshot, incrementalSnapshot);
         ZFSSend zfsSend = null;
-        String datasetName = escapeSymbols(baseSnapshot.getDataset());
         try {
-            zfsSend = getIncrementalProcess(baseSnapshot, incrementalSnapshot);
+            zfsSend = isRange
+                    ? zfsProcessFactory.getZFSSendMultiIncremental(baseSnapshot, incrementalSnapshot)
+                    : getIncrementalProcess(baseSnapshot, incrementalSnapshot);
             sendStream(
                     zfsSend,
                     streamMark,
-                    datasetName);
+                    baseSnapshot);
         } catch (Exception e) {
             if (zfsSend != null) {
                 zfsSend.kill();
@@ -176,6 +470,11 @@ public abstract class AbstractSnapshotSender implements SnapshotSender {
         return zfsProcessFactory.getZFSSendIncremental(baseSnapshot, incrementalSnapshot);
     }
 
+    @Override
+    public long getAvoidedSends() {
+        return avoidedSends.get();
+    }
+
     @Override
     public abstract void sendStartingFromFull(String datasetName, List<Snapshot> snapshotList)
             throws InterruptedException,
@@ -0,0 +1,60 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.FrameReader;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BinaryFrameReader implements FrameReader {
+    private final DataInputStream dataInputStream;
+
+    public BinaryFrameReader(InputStream inputStream) {
+        this.dataInputStream = new DataInputStream(inputStream);
+    }
+
+    private byte[] readShortArray() throws IOException {
+        byte[] bytes = new byte[dataInputStream.readUnsignedByte()];
+        dataInputStream.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public CryptoMessage read() throws IOException, EOFException {
+        int first = dataInputStream.read();
+        if (first == -1) {
+            throw new EOFException();
+        }
+        try {
+            int magic = (first << 24) | (dataInputStream.readUnsignedByte() << 16) | dataInputStream.readUnsignedShort();
+            if (magic != FrameFormat.MAGIC) {
+                throw new IOException(String.format("Wrong frame magic %08x", magic));
+            }
+            int formatVersion = dataInputStream.readUnsignedByte();
+            if (formatVersion != FrameFormat.FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported frame format version %d", formatVersion));
+            }
+            int version = dataInputStream.readUnsignedByte();
+            int codec = dataInputStream.readUnsignedByte();
+            byte[] salt = readShortArray();
+            byte[] iv = readShortArray();
+            int length = dataInputStream.readInt();
+            if (length < 0) {
+                throw new IOException(String.format("Wrong payload length %d", length));
+            }
+            byte[] message = new byte[length];
+            dataInputStream.readFully(message);
+            return new CryptoMessage(version, codec, salt, iv, message);
+        } catch (EOFException e) {
+            // Only the end of file between frames is the end of the part
+            throw new IOException("Truncated frame", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataInputStream.close();
+    }
+}
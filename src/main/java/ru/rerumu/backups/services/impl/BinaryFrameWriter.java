@@ -0,0 +1,41 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.FrameWriter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class BinaryFrameWriter implements FrameWriter {
+    private final DataOutputStream dataOutputStream;
+
+    public BinaryFrameWriter(OutputStream outputStream) {
+        this.dataOutputStream = new DataOutputStream(outputStream);
+    }
+
+    private void writeShortArray(byte[] bytes) throws IOException {
+        if (bytes.length > 255) {
+            throw new IllegalArgumentException();
+        }
+        dataOutputStream.writeByte(bytes.length);
+        dataOutputStream.write(bytes);
+    }
+
+    @Override
+    public void write(CryptoMessage cryptoMessage) throws IOException {
+        dataOutputStream.writeInt(FrameFormat.MAGIC);
+        dataOutputStream.writeByte(FrameFormat.FORMAT_VERSION);
+        dataOutputStream.writeByte(cryptoMessage.getVersion());
+        dataOutputStream.writeByte(cryptoMessage.getCodec());
+        writeShortArray(cryptoMessage.getSalt());
+        writeShortArray(cryptoMessage.getIv());
+        dataOutputStream.writeInt(cryptoMessage.getMessage().length);
+        dataOutputStream.write(cryptoMessage.getMessage());
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataOutputStream.close();
+    }
+}
@@ -0,0 +1,112 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.PartDigests;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes the checksums of everything written through it in the same pass.
+ * With a {@code partMD5Size} the MD5 of every that many bytes is computed as well,
+ * so a multipart upload of the part does not have to read it again.
+ */
+public class ChecksumOutputStream extends FilterOutputStream {
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+    private final CRC32C crc32c;
+    private final MessageDigest partMD5;
+    private final long partMD5Size;
+    private final List<byte[]> partMD5s = new ArrayList<>();
+    private long partPosition = 0;
+
+    public ChecksumOutputStream(OutputStream outputStream, Set<ChecksumType> checksumTypes) {
+        this(outputStream, checksumTypes, 0);
+    }
+
+    public ChecksumOutputStream(OutputStream outputStream, Set<ChecksumType> checksumTypes, long partMD5Size) {
+        super(outputStream);
+        try {
+            this.md5 = checksumTypes.contains(ChecksumType.MD5) ? MessageDigest.getInstance("MD5") : null;
+            this.sha256 = checksumTypes.contains(ChecksumType.SHA256) ? MessageDigest.getInstance("SHA-256") : null;
+            this.partMD5 = partMD5Size > 0 ? MessageDigest.getInstance("MD5") : null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.crc32c = checksumTypes.contains(ChecksumType.CRC32C) ? new CRC32C() : null;
+        this.partMD5Size = partMD5Size;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        update(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        update(b, off, len);
+    }
+
+    private void update(byte[] b, int off, int len) {
+        if (md5 != null) {
+            md5.update(b, off, len);
+        }
+        if (sha256 != null) {
+            sha256.update(b, off, len);
+        }
+        if (crc32c != null) {
+            crc32c.update(b, off, len);
+        }
+        if (partMD5 != null) {
+            updatePartMD5(b, off, len);
+        }
+    }
+
+    private void updatePartMD5(byte[] b, int off, int len) {
+        while (len > 0) {
+            int n = (int) Math.min(len, partMD5Size - partPosition);
+            partMD5.update(b, off, n);
+            partPosition += n;
+            off += n;
+            len -= n;
+            if (partPosition == partMD5Size) {
+                partMD5s.add(partMD5.digest());
+                partPosition = 0;
+            }
+        }
+    }
+
+    /**
+     * Finishes the checksums, call once after the last write.
+     */
+    public PartDigests getDigests() {
+        byte[] crc = null;
+        if (crc32c != null) {
+            crc = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc32c.getValue()).array();
+        }
+        byte[][] parts = null;
+        if (partMD5 != null) {
+            if (partPosition > 0) {
+                partMD5s.add(partMD5.digest());
+                partPosition = 0;
+            }
+            parts = partMD5s.toArray(new byte[0][]);
+        }
+        return new PartDigests(
+                md5 == null ? null : md5.digest(),
+                sha256 == null ? null : sha256.digest(),
+                crc,
+                parts,
+                partMD5Size);
+    }
+}
@@ -0,0 +1,77 @@
+package ru.rerumu.backups.services.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed set of reusable chunk buffers.
+ *
+ * <p>{@link #readChunk} fills a buffer in place until it holds {@code chunkSize} bytes or the stream ends,
+ * so assembling a chunk does not allocate. Buffers are created lazily, at most {@code capacity} of them;
+ * when all are taken {@link #readChunk} waits for one to be {@link #release released}.
+ */
+public class ChunkBufferPool {
+    private final int chunkSize;
+    private final int capacity;
+    private final BlockingQueue<ByteBuffer> free;
+    private int allocated = 0;
+
+    public ChunkBufferPool(int chunkSize, int capacity) {
+        if (chunkSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.chunkSize = chunkSize;
+        this.capacity = capacity;
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    private ByteBuffer acquire() throws IOException {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        synchronized (this) {
+            if (allocated < capacity) {
+                allocated++;
+                return ByteBuffer.allocate(chunkSize);
+            }
+        }
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads the next chunk into a pooled buffer.
+     *
+     * @return buffer positioned at the chunk start with the limit at its end,
+     * or {@code null} if the stream has ended
+     */
+    public ByteBuffer readChunk(InputStream inputStream) throws IOException {
+        ByteBuffer buffer = acquire();
+        int len;
+        try {
+            len = inputStream.readNBytes(buffer.array(), buffer.arrayOffset(), chunkSize);
+        } catch (IOException e) {
+            release(buffer);
+            throw e;
+        }
+        if (len == 0) {
+            release(buffer);
+            return null;
+        }
+        buffer.clear().limit(len);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+}
@@ -0,0 +1,75 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.models.CompressedChunk;
+import ru.rerumu.backups.models.CompressionStats;
+import ru.rerumu.backups.services.Compressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses chunks unless they do not shrink to {@code maxRatio} of their size, such chunks are stored raw.
+ *
+ * <p>Before compressing a whole chunk its first {@code sampleSize} bytes are compressed on trial,
+ * so already compressed data costs the sample instead of the full chunk.
+ */
+public class ChunkCompressor {
+    public static final double DEFAULT_MAX_RATIO = 1.0;
+    public static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+
+    private final Compressor compressor;
+    private final Compressor storedCompressor = new StoredCompressor();
+    private final double maxRatio;
+    private final int sampleSize;
+    private final CompressionStats compressionStats;
+
+    public ChunkCompressor(Compressor compressor) {
+        this(compressor, DEFAULT_MAX_RATIO, DEFAULT_SAMPLE_SIZE, new CompressionStats());
+    }
+
+    public ChunkCompressor(Compressor compressor, double maxRatio, int sampleSize, CompressionStats compressionStats) {
+        if (maxRatio <= 0 || sampleSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.compressor = compressor;
+        this.maxRatio = maxRatio;
+        this.sampleSize = sampleSize;
+        this.compressionStats = compressionStats;
+    }
+
+    private boolean isShrunk(int compressedSize, int size) {
+        return compressedSize <= size * maxRatio;
+    }
+
+    private CompressedChunk store(ByteBuffer chunk) throws CompressorException {
+        compressionStats.addStored();
+        return new CompressedChunk(storedCompressor.getCodec(), storedCompressor.compressChunk(chunk));
+    }
+
+    /**
+     * Compresses the remaining bytes of the buffer. The buffer position is left unchanged.
+     */
+    public CompressedChunk compressChunk(ByteBuffer chunk) throws CompressorException {
+        int size = chunk.remaining();
+        if (compressor.getCodec() == storedCompressor.getCodec()) {
+            return store(chunk);
+        }
+        if (size > sampleSize) {
+            ByteBuffer sample = chunk.duplicate();
+            sample.limit(sample.position() + sampleSize);
+            if (!isShrunk(compressor.compressChunk(sample).length, sampleSize)) {
+                return store(chunk);
+            }
+        }
+        byte[] compressed = compressor.compressChunk(chunk);
+        if (!isShrunk(compressed.length, size)) {
+            return store(chunk);
+        }
+        compressionStats.addCompressed();
+        return new CompressedChunk(compressor.getCodec(), compressed);
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.rerumu.backups.services.impl;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the chunks read ahead by all parallel writers of the datasets and streams sent at the same time.
+ * A writer takes a slot for every chunk beyond the first one it holds and gives it back once the chunk
+ * is written, so a writer is never stopped by the others, it only reads ahead less.
+ */
+public class ChunkLimit {
+    private final Semaphore slots;
+
+    public ChunkLimit(int maxChunks) {
+        if (maxChunks < 1) {
+            throw new IllegalArgumentException(String.format("Wrong chunk limit %d", maxChunks));
+        }
+        this.slots = new Semaphore(maxChunks);
+    }
+
+    public boolean tryAcquire() {
+        return slots.tryAcquire();
+    }
+
+    public void release(int chunks) {
+        slots.release(chunks);
+    }
+
+    public int getAvailable() {
+        return slots.availablePermits();
+    }
+}
@@ -0,0 +1,25 @@
+package ru.rerumu.backups.services.impl;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Flushes instead of closing, so the caller decides when the underlying stream is finished.
+ */
+class CloseShieldOutputStream extends FilterOutputStream {
+
+    CloseShieldOutputStream(OutputStream outputStream) {
+        super(outputStream);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,43 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.services.FrameReader;
+import ru.rerumu.backups.services.FrameWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Layout of a part file.
+ *
+ * <p>Every frame of the binary format is
+ * {@code magic(int) formatVersion(byte) cipherVersion(byte) codec(byte) saltLength(byte) salt
+ * ivLength(byte) iv payloadLength(int) payload}, all numbers big-endian.
+ * Part files written before it are Java serialization streams of CryptoMessage,
+ * which start with {@code 0xACED} instead of the frame magic.
+ */
+public class FrameFormat {
+    public static final int MAGIC = 0x5A424653; // "ZBFS"
+    public static final int FORMAT_VERSION = 1;
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static FrameWriter newWriter(OutputStream outputStream) {
+        return new BinaryFrameWriter(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+    }
+
+    public static FrameReader newReader(InputStream inputStream) throws IOException {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
+        bufferedInputStream.mark(2);
+        int first = bufferedInputStream.read();
+        int second = bufferedInputStream.read();
+        bufferedInputStream.reset();
+
+        if (first != -1 && second != -1 && ((first << 8) | second) == SERIALIZATION_MAGIC) {
+            return new SerializedFrameReader(bufferedInputStream);
+        }
+        return new BinaryFrameReader(bufferedInputStream);
+    }
+}
@@ -1,44 +1,150 @@
 package ru.rerumu.backups.services.impl;
 
 import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.models.CryptoMessage;
 import ru.rerumu.backups.services.Compressor;
 
-import java.io.*;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+/**
+ * Single member gzip, the same format GZIPOutputStream writes.
+ * Deflater and Inflater are kept per thread and reset after every chunk instead of allocating
+ * native zlib state for each one.
+ */
 public class GZIPCompressor implements Compressor {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte[] HEADER = {
+            (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+    private static final int TRAILER_SIZE = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
 
     @Override
     public byte[] compressChunk(byte[] chunk) throws CompressorException {
+        return compressChunk(ByteBuffer.wrap(chunk));
+    }
+
+    @Override
+    public byte[] compressChunk(ByteBuffer chunk) throws CompressorException {
+        int length = chunk.remaining();
+        CRC32 crc32 = new CRC32();
+        crc32.update(chunk.duplicate());
+
+        Deflater deflater = DEFLATER.get();
         try {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
-                gzipOutputStream.write(chunk);
+            deflater.setInput(chunk.duplicate());
+            deflater.finish();
+
+            byte[] res = new byte[HEADER.length + length + (length >> 12) + (length >> 14) + 13 + TRAILER_SIZE];
+            System.arraycopy(HEADER, 0, res, 0, HEADER.length);
+            int pos = HEADER.length;
+            while (!deflater.finished()) {
+                if (pos == res.length - TRAILER_SIZE) {
+                    res = Arrays.copyOf(res, res.length * 2);
+                }
+                pos += deflater.deflate(res, pos, res.length - TRAILER_SIZE - pos);
             }
-            return byteArrayOutputStream.toByteArray();
+
+            ByteBuffer trailer = ByteBuffer.wrap(res, pos, TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc32.getValue());
+            trailer.putInt(length);
+            return Arrays.copyOf(res, pos + TRAILER_SIZE);
         } catch (Exception e) {
             throw new CompressorException(e);
+        } finally {
+            deflater.reset();
         }
+    }
 
+    private static int skipHeader(byte[] chunk) throws CompressorException {
+        if (chunk.length < HEADER.length + TRAILER_SIZE
+                || (chunk[0] & 0xff | (chunk[1] & 0xff) << 8) != GZIP_MAGIC
+                || chunk[2] != Deflater.DEFLATED) {
+            throw new CompressorException("Not in gzip format");
+        }
+        int flags = chunk[3] & 0xff;
+        int pos = HEADER.length;
+        try {
+            if ((flags & FEXTRA) != 0) {
+                pos += 2 + (chunk[pos] & 0xff | (chunk[pos + 1] & 0xff) << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                while (chunk[pos++] != 0) ;
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (chunk[pos++] != 0) ;
+            }
+            if ((flags & FHCRC) != 0) {
+                pos += 2;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new CompressorException("Truncated gzip header");
+        }
+        if (pos > chunk.length - TRAILER_SIZE) {
+            throw new CompressorException("Truncated gzip header");
+        }
+        return pos;
     }
 
     @Override
     public byte[] decompressChunk(byte[] chunk) throws CompressorException {
+        int pos = skipHeader(chunk);
+        ByteBuffer trailer = ByteBuffer.wrap(chunk, chunk.length - TRAILER_SIZE, TRAILER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int crc = trailer.getInt();
+        int length = trailer.getInt();
+        if (length < 0) {
+            throw new CompressorException(String.format("Unsupported chunk length %d", length & 0xffffffffL));
+        }
+
+        Inflater inflater = INFLATER.get();
         try {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            try (InputStream inputStream = new ByteArrayInputStream(chunk);
-                 GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
-
-                byte[] buf = new byte[1024];
-                int len;
-                while ((len = gzipInputStream.read(buf)) >= 0) {
-                    byteArrayOutputStream.write(buf, 0, len);
+            inflater.setInput(chunk, pos, chunk.length - TRAILER_SIZE - pos);
+            byte[] res = new byte[length];
+            int filled = 0;
+            while (filled < length) {
+                int len = inflater.inflate(res, filled, length - filled);
+                if (len == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
                 }
+                filled += len;
             }
-            return byteArrayOutputStream.toByteArray();
-        } catch (Exception e) {
+            if (!inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                throw new CompressorException("Chunk is longer than its recorded size");
+            }
+            if (filled != length || !inflater.finished() || inflater.getRemaining() != 0) {
+                throw new CompressorException("Corrupted gzip data");
+            }
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(res);
+            if ((int) crc32.getValue() != crc) {
+                throw new CompressorException("Wrong gzip checksum");
+            }
+            return res;
+        } catch (DataFormatException e) {
             throw new CompressorException(e);
+        } finally {
+            inflater.reset();
         }
     }
+
+    @Override
+    public int getCodec() {
+        return CryptoMessage.CODEC_GZIP;
+    }
 }
@@ -0,0 +1,40 @@
+package ru.rerumu.backups.services.impl;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.models.CryptoMessage;
+
+public class LZ4Compressor extends AbstractBlockCompressor {
+    private final net.jpountz.lz4.LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    public LZ4Compressor() {
+        LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
+        this.compressor = lz4Factory.fastCompressor();
+        this.decompressor = lz4Factory.safeDecompressor();
+    }
+
+    @Override
+    protected int maxCompressedLength(int length) {
+        return compressor.maxCompressedLength(length);
+    }
+
+    @Override
+    protected int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) {
+        return compressor.compress(src, srcOffset, srcLength, dst, dstOffset, dstLength);
+    }
+
+    @Override
+    protected void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst) throws CompressorException {
+        int res = decompressor.decompress(src, srcOffset, srcLength, dst, 0, dst.length);
+        if (res != dst.length) {
+            throw new CompressorException(String.format("Expected %d bytes, got %d", dst.length, res));
+        }
+    }
+
+    @Override
+    public int getCodec() {
+        return CryptoMessage.CODEC_LZ4;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.rerumu.backups.services.impl;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the parts kept on disk by all datasets that are sent at the same time.
+ * A slot is taken before a part is written and given back once the part is uploaded and deleted,
+ * or handed over to the receiver, so {@link #acquire()} blocks the writer while the spool is full.
+ */
+public class PartSpool {
+    private final Semaphore slots;
+
+    public PartSpool(int maxParts) {
+        if (maxParts < 1) {
+            throw new IllegalArgumentException(String.format("Wrong spool size %d", maxParts));
+        }
+        this.slots = new Semaphore(maxParts);
+    }
+
+    public void acquire() throws InterruptedException {
+        slots.acquire();
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    public int getAvailable() {
+        return slots.availablePermits();
+    }
+}
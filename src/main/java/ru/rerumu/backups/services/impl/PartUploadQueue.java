@@ -0,0 +1,100 @@
+package ru.rerumu.backups.services.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes written parts in a background thread, in the order they were submitted.
+ * At most {@code depth} parts are on disk: the writer takes a slot with {@link #awaitSlot()}
+ * before it starts a part, and the slot is given back once the part is processed.
+ * So with {@code depth} 1 writing and processing take turns, 2 lets one part be written while the
+ * previous one is processed.
+ * A failed task is reported by the next {@link #awaitSlot()}, {@link #submit(Callable)} or {@link #awaitAll()}.
+ *
+ * <p>Used by a single writer thread.
+ */
+public class PartUploadQueue implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(PartUploadQueue.class);
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final Semaphore slots;
+    private final Deque<Future<Void>> futures = new ArrayDeque<>();
+    private boolean isSlotHeld = false;
+
+    public PartUploadQueue(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException(String.format("Wrong queue depth %d", depth));
+        }
+        this.slots = new Semaphore(depth);
+    }
+
+    private void checkCompleted() throws InterruptedException, ExecutionException {
+        while (!futures.isEmpty() && futures.peekFirst().isDone()) {
+            futures.pollFirst().get();
+        }
+    }
+
+    /**
+     * Blocks until fewer than {@code depth} parts are on disk. The slot is kept for the part
+     * that is written next and passed on to its task by {@link #submit(Callable)}.
+     */
+    public void awaitSlot() throws InterruptedException, ExecutionException {
+        checkCompleted();
+        if (!isSlotHeld) {
+            slots.acquire();
+            isSlotHeld = true;
+        }
+        // The task that freed the slot may have failed
+        checkCompleted();
+    }
+
+    /**
+     * Queues the task of a written part, taking a slot first if {@link #awaitSlot()} was not called.
+     */
+    public void submit(Callable<Void> task) throws InterruptedException, ExecutionException {
+        awaitSlot();
+        isSlotHeld = false;
+        try {
+            futures.addLast(executorService.submit(() -> {
+                try {
+                    return task.call();
+                } finally {
+                    slots.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    public void awaitAll() throws InterruptedException, ExecutionException {
+        while (!futures.isEmpty()) {
+            futures.pollFirst().get();
+        }
+    }
+
+    /**
+     * Cancels the tasks that are not finished, after a failure.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (!futures.isEmpty()) {
+            logger.warn(String.format("Cancelling %d unfinished parts", futures.size()));
+        }
+        executorService.shutdownNow();
+        if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+            logger.error("Upload thread did not stop");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Cryptor;
+
+/**
+ * Leaves chunks unencrypted, for raw sends of natively encrypted datasets.
+ * Encrypted chunks are read with {@code cryptor}, so the parts of a stream may have either.
+ *
+ * <p>Other cryptors reject unencrypted chunks, so it is used for reading only when unencrypted parts
+ * were allowed explicitly.
+ */
+public class PlainCryptor implements Cryptor {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Cryptor cryptor;
+
+    public PlainCryptor(Cryptor cryptor) {
+        this.cryptor = cryptor;
+    }
+
+    @Override
+    public CryptoMessage encryptChunk(byte[] chunk) {
+        return new CryptoMessage(CryptoMessage.VERSION_PLAIN, EMPTY, EMPTY, chunk);
+    }
+
+    @Override
+    public byte[] decryptChunk(CryptoMessage cryptoMessage) throws EncryptException {
+        if (cryptoMessage.getVersion() == CryptoMessage.VERSION_PLAIN) {
+            return cryptoMessage.getMessage();
+        }
+        return cryptor.decryptChunk(cryptoMessage);
+    }
+
+    @Override
+    public void prefetchKey(CryptoMessage cryptoMessage) {
+        if (cryptoMessage.getVersion() != CryptoMessage.VERSION_PLAIN) {
+            cryptor.prefetchKey(cryptoMessage);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ru.rerumu.backups.services.impl;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.exceptions.EncryptException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.spec.KeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Bounded LRU cache of PBKDF2 keys by salt.
+ *
+ * <p>With {@code threads > 0} keys requested through {@link #prefetch} are derived in the background,
+ * so a reader can ask for the salts of upcoming messages before it needs them.
+ * Without threads keys are derived by the calling thread.
+ */
+public class SecretKeyCache {
+    private final Logger logger = LoggerFactory.getLogger(SecretKeyCache.class);
+
+    private final String password;
+    private final Map<String, Future<SecretKey>> keys;
+    private final ExecutorService executorService;
+
+    public SecretKeyCache(String password, int capacity, int threads) {
+        if (capacity < 1 || threads < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.password = password;
+        this.keys = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Future<SecretKey>> eldest) {
+                return size() > capacity;
+            }
+        };
+        if (threads > 0) {
+            this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "secret-key-cache");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.executorService = null;
+        }
+    }
+
+    private SecretKey generateSecretKey(byte[] salt) throws Exception {
+        logger.trace("Deriving key");
+        KeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, 100000, 256);
+        return new SecretKeySpec(
+                SecretKeyFactory
+                        .getInstance("PBKDF2WithHmacSHA256")
+                        .generateSecret(keySpec)
+                        .getEncoded()
+                , "AES");
+    }
+
+    private Future<SecretKey> getFuture(byte[] salt, boolean isBackground) {
+        FutureTask<SecretKey> task;
+        synchronized (keys) {
+            String key = Hex.encodeHexString(salt);
+            Future<SecretKey> future = keys.get(key);
+            if (future != null) {
+                return future;
+            }
+            byte[] saltCopy = salt.clone();
+            task = new FutureTask<>(() -> generateSecretKey(saltCopy));
+            keys.put(key, task);
+        }
+        if (isBackground && executorService != null) {
+            executorService.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
+    }
+
+    public void prefetch(byte[] salt) {
+        if (executorService != null) {
+            getFuture(salt, true);
+        }
+    }
+
+    public SecretKey get(byte[] salt) throws EncryptException {
+        try {
+            return getFuture(salt, false).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EncryptException(e);
+        } catch (ExecutionException e) {
+            synchronized (keys) {
+                keys.remove(Hex.encodeHexString(salt));
+            }
+            throw new EncryptException(e.getCause());
+        }
+    }
+}
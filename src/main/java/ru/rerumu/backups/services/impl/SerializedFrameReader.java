@@ -0,0 +1,39 @@
+package ru.rerumu.backups.services.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.FrameReader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+/**
+ * Reads part files written as Java serialization streams of CryptoMessage.
+ */
+public class SerializedFrameReader implements FrameReader {
+    private final Logger logger = LoggerFactory.getLogger(SerializedFrameReader.class);
+    private final ObjectInputStream objectInputStream;
+
+    public SerializedFrameReader(InputStream inputStream) throws IOException {
+        this.objectInputStream = new ObjectInputStream(inputStream);
+    }
+
+    @Override
+    public CryptoMessage read() throws IOException, ClassNotFoundException, EOFException {
+        Object object = objectInputStream.readUnshared();
+        if (object instanceof CryptoMessage) {
+            return (CryptoMessage) object;
+        } else {
+            logger.error("Object is not instance of CryptoMessage");
+            throw new IOException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        objectInputStream.close();
+    }
+}
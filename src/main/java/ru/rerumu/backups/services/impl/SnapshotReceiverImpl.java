@@ -7,6 +7,7 @@ import ru.rerumu.backups.exceptions.EncryptException;
 import ru.rerumu.backups.exceptions.IncorrectFilePartNameException;
 import ru.rerumu.backups.services.ZFSFileReader;
 import ru.rerumu.backups.factories.ZFSFileReaderFactory;
+import ru.rerumu.backups.models.SendFlag;
 import ru.rerumu.backups.models.ZFSPool;
 import ru.rerumu.backups.models.ZFSStreamPart;
 import ru.rerumu.backups.repositories.FilePartRepository;
@@ -80,6 +81,11 @@ public class SnapshotReceiverImpl implements SnapshotReceiver {
             zfsReceive = zfsProcessFactory.getZFSReceive(zfsPool);
         }
         logger.info(String.format("Got next stream - %s", nextStream.toString()));
+        if (nextStream.getPartNumber() == 0 && nextStream.getSendFlags().contains(SendFlag.RAW)) {
+            logger.info(String.format(
+                    "'%s' is a raw stream, encrypted datasets need 'zfs load-key' after receiving",
+                    nextStream.getStreamName()));
+        }
         ZFSFileReader zfsFileReader = zfsFileReaderFactory.getZFSFileReader(zfsReceive.getBufferedOutputStream(), nextStream.getFullPath());
         try {
             zfsFileReader.read();
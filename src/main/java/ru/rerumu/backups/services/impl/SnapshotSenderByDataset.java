@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.exceptions.*;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
+import ru.rerumu.backups.models.PartUploadMode;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.repositories.FilePartRepository;
 import ru.rerumu.backups.repositories.RemoteBackupRepository;
@@ -19,6 +20,7 @@ import java.util.concurrent.ExecutionException;
 
 public class SnapshotSenderByDataset extends AbstractSnapshotSender {
     private final Logger logger = LoggerFactory.getLogger(SnapshotSenderByDataset.class);
+    private final boolean isSkippingUnchanged;
 
     public SnapshotSenderByDataset(
             FilePartRepository filePartRepository,
@@ -34,6 +36,109 @@ public class SnapshotSenderByDataset extends AbstractSnapshotSender {
                 zfsFileWriterFactory,
                 isLoadS3
         );
+        this.isSkippingUnchanged = false;
+    }
+
+    public SnapshotSenderByDataset(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth
+    ) {
+        super(
+                filePartRepository,
+                remoteBackupRepository,
+                zfsProcessFactory,
+                zfsFileWriterFactory,
+                isLoadS3,
+                uploadQueueDepth
+        );
+        this.isSkippingUnchanged = false;
+    }
+
+    public SnapshotSenderByDataset(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode
+    ) {
+        super(
+                filePartRepository,
+                remoteBackupRepository,
+                zfsProcessFactory,
+                zfsFileWriterFactory,
+                isLoadS3,
+                uploadQueueDepth,
+                partUploadMode
+        );
+        this.isSkippingUnchanged = false;
+    }
+
+    public SnapshotSenderByDataset(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool
+    ) {
+        this(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, isLoadS3,
+                uploadQueueDepth, partUploadMode, partSpool, false);
+    }
+
+    /**
+     * With {@code isSkippingUnchanged} the stream after the base is not sent if none of the snapshots
+     * after it has anything written, the receiver keeps the base as its latest snapshot.
+     */
+    public SnapshotSenderByDataset(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool,
+            boolean isSkippingUnchanged
+    ) {
+        super(
+                filePartRepository,
+                remoteBackupRepository,
+                zfsProcessFactory,
+                zfsFileWriterFactory,
+                isLoadS3,
+                uploadQueueDepth,
+                partUploadMode,
+                partSpool
+        );
+        this.isSkippingUnchanged = isSkippingUnchanged;
+    }
+
+    /**
+     * True if the snapshots after the base have nothing written and are not sent.
+     */
+    private boolean isSkipped(String datasetName, List<Snapshot> incrementalSnapshots) {
+        if (!isSkippingUnchanged) {
+            return false;
+        }
+        for (Snapshot snapshot : incrementalSnapshots) {
+            if (isChanged(snapshot)) {
+                return false;
+            }
+        }
+        logger.info(String.format(
+                "Nothing written to '%s' in %d snapshots after the base, skipping them",
+                datasetName, incrementalSnapshots.size()));
+        // They would have gone in a single stream
+        avoidedSends.incrementAndGet();
+        return true;
     }
 
     @Override
@@ -59,7 +164,7 @@ public class SnapshotSenderByDataset extends AbstractSnapshotSender {
         }
 
         sendBaseSnapshot(baseSnapshot);
-        if (lastIncrementalSnapshot!=null){
+        if (lastIncrementalSnapshot!=null && !isSkipped(datasetName, snapshotList.subList(1, snapshotList.size()))){
             sendIncrementalSnapshot(baseSnapshot, lastIncrementalSnapshot);
         }
     }
@@ -82,6 +187,9 @@ public class SnapshotSenderByDataset extends AbstractSnapshotSender {
         Snapshot baseSnapshot = snapshotList.get(0);
         Snapshot lastIncrementalSnapshot = snapshotList.get(snapshotList.size()-1);
 
+        if (isSkipped(datasetName, snapshotList.subList(1, snapshotList.size()))){
+            return;
+        }
         sendIncrementalSnapshot(baseSnapshot, lastIncrementalSnapshot);
     }
 
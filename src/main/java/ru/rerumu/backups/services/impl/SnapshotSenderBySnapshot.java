@@ -6,6 +6,7 @@ import ru.rerumu.backups.exceptions.*;
 import ru.rerumu.backups.repositories.RemoteBackupRepository;
 import ru.rerumu.backups.services.ZFSFileWriter;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
+import ru.rerumu.backups.models.PartUploadMode;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.repositories.FilePartRepository;
 import ru.rerumu.backups.services.SnapshotSender;
@@ -18,10 +19,17 @@ import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class SnapshotSenderBySnapshot extends AbstractSnapshotSender {
     private final Logger logger = LoggerFactory.getLogger(SnapshotSenderBySnapshot.class);
+    private final boolean isSkippingUnchanged;
+    private final int streamThreads;
 
     public SnapshotSenderBySnapshot(
             FilePartRepository filePartRepository,
@@ -37,41 +45,286 @@ public class SnapshotSenderBySnapshot extends AbstractSnapshotSender {
                 zfsFileWriterFactory,
                 isLoadS3
         );
+        this.isSkippingUnchanged = false;
+        this.streamThreads = 1;
     }
 
-    @Override
-    public void sendStartingFromFull(String datasetName, List<Snapshot> snapshotList) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
-        boolean isBaseSent = false;
-
-        Snapshot previousSnapshot = null;
-        for (Snapshot snapshot : snapshotList) {
-            if (!isBaseSent) {
-                sendBaseSnapshot(snapshot);
-                isBaseSent = true;
-                previousSnapshot = snapshot;
+    public SnapshotSenderBySnapshot(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth
+    ) {
+        super(
+                filePartRepository,
+                remoteBackupRepository,
+                zfsProcessFactory,
+                zfsFileWriterFactory,
+                isLoadS3,
+                uploadQueueDepth
+        );
+        this.isSkippingUnchanged = false;
+        this.streamThreads = 1;
+    }
+
+    public SnapshotSenderBySnapshot(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode
+    ) {
+        super(
+                filePartRepository,
+                remoteBackupRepository,
+                zfsProcessFactory,
+                zfsFileWriterFactory,
+                isLoadS3,
+                uploadQueueDepth,
+                partUploadMode
+        );
+        this.isSkippingUnchanged = false;
+        this.streamThreads = 1;
+    }
+
+    public SnapshotSenderBySnapshot(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool
+    ) {
+        this(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, isLoadS3,
+                uploadQueueDepth, partUploadMode, partSpool, false);
+    }
+
+    /**
+     * With {@code isSkippingUnchanged} a snapshot that has nothing written since the previous one
+     * does not get a stream of its own, see {@link #groupIncrements(List)}. If nothing was written after
+     * the base, the snapshots after it are not sent, the receiver keeps the base as its latest snapshot.
+     */
+    public SnapshotSenderBySnapshot(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool,
+            boolean isSkippingUnchanged
+    ) {
+        this(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, isLoadS3,
+                uploadQueueDepth, partUploadMode, partSpool, isSkippingUnchanged, 1);
+    }
+
+    /**
+     * With {@code streamThreads} above 1 that many incremental streams of a dataset are sent at the same time,
+     * each with its own {@code zfs send} and parts. Their parts reach the bucket mixed. Every stream is named
+     * after the snapshot it starts from, and the receiving side continues with the stream that starts where
+     * the received one ended, see {@code FilePartRepositoryImpl}. The ready window there must hold parts
+     * of all streams sent at the same time.
+     * The directory handoff takes one stream at a time, so without S3 they are sent one by one.
+     */
+    public SnapshotSenderBySnapshot(
+            FilePartRepository filePartRepository,
+            RemoteBackupRepository remoteBackupRepository,
+            ZFSProcessFactory zfsProcessFactory,
+            ZFSFileWriterFactory zfsFileWriterFactory,
+            boolean isLoadS3,
+            int uploadQueueDepth,
+            PartUploadMode partUploadMode,
+            PartSpool partSpool,
+            boolean isSkippingUnchanged,
+            int streamThreads
+    ) {
+        super(
+                filePartRepository,
+                remoteBackupRepository,
+                zfsProcessFactory,
+                zfsFileWriterFactory,
+                isLoadS3,
+                uploadQueueDepth,
+                partUploadMode,
+                partSpool
+        );
+        if (streamThreads < 1) {
+            throw new IllegalArgumentException(String.format("Wrong number of stream threads %d", streamThreads));
+        }
+        this.isSkippingUnchanged = isSkippingUnchanged;
+        if (streamThreads > 1 && !isLoadS3) {
+            logger.warn("Streams are handed over through the backup directory one at a time, sending them one by one");
+            this.streamThreads = 1;
+        } else {
+            this.streamThreads = streamThreads;
+        }
+    }
+
+    /**
+     * Splits the snapshots that follow the base into streams.
+     * Every changed snapshot starts a new stream, the unchanged ones after it go into the same
+     * {@code -I} stream, and leading unchanged ones join the first stream. So every snapshot still reaches
+     * the receiver, but only changed data costs a stream. Snapshots listed without properties count as changed.
+     * If none of them changed there is nothing to send after the base and no stream at all.
+     */
+    private List<List<Snapshot>> groupIncrements(List<Snapshot> incrementalSnapshots) {
+        List<List<Snapshot>> groups = new ArrayList<>();
+        List<Snapshot> group = new ArrayList<>();
+        boolean isGroupChanged = false;
+        for (Snapshot snapshot : incrementalSnapshots) {
+            if (!isSkippingUnchanged) {
+                groups.add(List.of(snapshot));
                 continue;
             }
-            sendIncrementalSnapshot(previousSnapshot, snapshot);
-            previousSnapshot = snapshot;
+            if (isChanged(snapshot) && isGroupChanged) {
+                groups.add(group);
+                group = new ArrayList<>();
+                isGroupChanged = false;
+            }
+            group.add(snapshot);
+            isGroupChanged |= isChanged(snapshot);
+        }
+        if (isGroupChanged) {
+            groups.add(group);
+        }
+        return groups;
+    }
 
+    private void sendGroup(Snapshot previousSnapshot, List<Snapshot> group) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        Snapshot lastSnapshot = group.get(group.size() - 1);
+        if (group.size() == 1) {
+            sendIncrementalSnapshot(previousSnapshot, lastSnapshot);
+        } else {
+            sendIncrementalRange(previousSnapshot, lastSnapshot);
         }
     }
 
-    @Override
-    public void sendStartingFromIncremental(String datasetName,List<Snapshot> snapshotList) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
-        boolean isBaseSkipped = false;
+    /**
+     * Sends every group with its own stream, at most {@code streamThreads} at a time.
+     * Once one of them fails the others are interrupted.
+     */
+    private void sendGroupsConcurrently(String datasetName, Snapshot baseSnapshot, List<List<Snapshot>> groups) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        int threads = Math.min(streamThreads, groups.size());
+        logger.info(String.format("Sending %d streams of '%s' in %d threads", groups.size(), datasetName, threads));
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(executorService);
+            Snapshot previousSnapshot = baseSnapshot;
+            for (List<Snapshot> group : groups) {
+                Snapshot groupBaseSnapshot = previousSnapshot;
+                completionService.submit(() -> {
+                    sendGroup(groupBaseSnapshot, group);
+                    return null;
+                });
+                previousSnapshot = group.get(group.size() - 1);
+            }
+            for (int i = 0; i < groups.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+            if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.error(String.format("Stream threads of '%s' did not stop", datasetName));
+            }
+        }
+    }
 
-        Snapshot previousSnapshot = null;
-        for (Snapshot snapshot : snapshotList) {
-            if (!isBaseSkipped) {
-                isBaseSkipped = true;
-                previousSnapshot = snapshot;
-                continue;
+    /**
+     * Rethrows the cause of a failed stream as it would be thrown by a sequential send.
+     */
+    private static ExecutionException unwrap(ExecutionException e) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof CompressorException) {
+            throw (CompressorException) cause;
+        }
+        if (cause instanceof EncryptException) {
+            throw (EncryptException) cause;
+        }
+        if (cause instanceof NoSuchAlgorithmException) {
+            throw (NoSuchAlgorithmException) cause;
+        }
+        if (cause instanceof IncorrectHashException) {
+            throw (IncorrectHashException) cause;
+        }
+        if (cause instanceof ExecutionException) {
+            throw (ExecutionException) cause;
+        }
+        if (cause instanceof S3MissesFileException) {
+            throw (S3MissesFileException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+
+    /**
+     * Sends the snapshots after the base.
+     */
+    private void sendIncrements(String datasetName, Snapshot baseSnapshot, List<Snapshot> incrementalSnapshots) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        List<List<Snapshot>> groups = groupIncrements(incrementalSnapshots);
+        int avoided = incrementalSnapshots.size() - groups.size();
+        if (groups.isEmpty() && avoided > 0) {
+            logger.info(String.format(
+                    "Nothing written to '%s' in %d snapshots after '%s', skipping them",
+                    datasetName, avoided, baseSnapshot.getFullName()));
+            avoidedSends.addAndGet(avoided);
+        } else if (avoided > 0) {
+            logger.info(String.format(
+                    "Sending %d snapshots of '%s' in %d streams, %d snapshots have nothing written",
+                    incrementalSnapshots.size(), datasetName, groups.size(), avoided));
+            avoidedSends.addAndGet(avoided);
+        }
+
+        Snapshot previousSnapshot = baseSnapshot;
+        for (List<Snapshot> group : groups) {
+            Snapshot lastSnapshot = group.get(group.size() - 1);
+            if (streamThreads == 1) {
+                sendGroup(previousSnapshot, group);
             }
-            sendIncrementalSnapshot(previousSnapshot, snapshot);
-            previousSnapshot = snapshot;
+            previousSnapshot = lastSnapshot;
+        }
+        if (streamThreads > 1 && !groups.isEmpty()) {
+            sendGroupsConcurrently(datasetName, baseSnapshot, groups);
+        }
+    }
+
+    @Override
+    public void sendStartingFromFull(String datasetName, List<Snapshot> snapshotList) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        if (snapshotList.isEmpty()) {
+            return;
+        }
+        Snapshot baseSnapshot = snapshotList.get(0);
+        sendBaseSnapshot(baseSnapshot);
+        sendIncrements(datasetName, baseSnapshot, snapshotList.subList(1, snapshotList.size()));
+    }
 
+    @Override
+    public void sendStartingFromIncremental(String datasetName,List<Snapshot> snapshotList) throws InterruptedException, CompressorException, IOException, EncryptException, NoSuchAlgorithmException, IncorrectHashException, ExecutionException, S3MissesFileException {
+        if (snapshotList.isEmpty()) {
+            return;
         }
+        sendIncrements(datasetName, snapshotList.get(0), snapshotList.subList(1, snapshotList.size()));
     }
 
 }
@@ -0,0 +1,34 @@
+package ru.rerumu.backups.services.impl;
+
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Compressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps chunks as they are.
+ */
+public class StoredCompressor implements Compressor {
+
+    @Override
+    public byte[] compressChunk(byte[] chunk) {
+        return chunk.clone();
+    }
+
+    @Override
+    public byte[] compressChunk(ByteBuffer chunk) {
+        byte[] res = new byte[chunk.remaining()];
+        chunk.duplicate().get(res);
+        return res;
+    }
+
+    @Override
+    public byte[] decompressChunk(byte[] chunk) {
+        return chunk;
+    }
+
+    @Override
+    public int getCodec() {
+        return CryptoMessage.CODEC_STORED;
+    }
+}
@@ -4,57 +4,78 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.exceptions.CompressorException;
 import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.factories.CompressorFactory;
+import ru.rerumu.backups.factories.impl.CompressorFactoryImpl;
 import ru.rerumu.backups.services.ZFSFileReader;
 import ru.rerumu.backups.models.CryptoMessage;
 import ru.rerumu.backups.services.Compressor;
 import ru.rerumu.backups.services.Cryptor;
+import ru.rerumu.backups.services.FrameReader;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 public class ZFSFileReaderFull implements ZFSFileReader {
+    // Messages read before they are decrypted, so the cryptor can prepare their keys in the background
+    private static final int LOOK_AHEAD = 4;
+
     private final Logger logger = LoggerFactory.getLogger(ZFSFileReaderFull.class);
-    private final String password;
+    private final Cryptor cryptor;
+    private final CompressorFactory compressorFactory;
     private final BufferedOutputStream bufferedOutputStream;
     private final Path path;
 
     public ZFSFileReaderFull(BufferedOutputStream bufferedOutputStream, Path path, String password){
+        this(bufferedOutputStream, path, new AESCryptor(password), new CompressorFactoryImpl());
+    }
+
+    public ZFSFileReaderFull(BufferedOutputStream bufferedOutputStream, Path path, Cryptor cryptor,
+                             CompressorFactory compressorFactory){
         this.bufferedOutputStream = bufferedOutputStream;
         this.path = path;
-        this.password = password;
+        this.cryptor = cryptor;
+        this.compressorFactory = compressorFactory;
     }
 
     @Override
     public void read() throws IOException, ClassNotFoundException, EncryptException, CompressorException, EOFException {
         logger.info(String.format("Starting reading from file '%s'", path.toString()));
-        Cryptor cryptor = new AESCryptor(password);
-        Compressor compressor = new GZIPCompressor();
+        Deque<CryptoMessage> readAhead = new ArrayDeque<>();
+        EOFException endOfFile = null;
 
         try (InputStream inputStream = Files.newInputStream(path);
-             ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)) {
+             FrameReader frameReader = FrameFormat.newReader(inputStream)) {
             logger.info(String.format("Reading file '%s'", path.toString()));
             while (true) {
-                logger.trace("Reading object from stream");
-                Object object = objectInputStream.readUnshared();
-                if (object instanceof CryptoMessage) {
-                    logger.trace("Trying to cast to CryptoMessage");
-                    CryptoMessage cryptoMessage = (CryptoMessage) object;
-
-                    logger.trace("Trying to decrypt chunk");
-                    byte[] tmp = cryptor.decryptChunk(cryptoMessage);
-
-                    logger.trace("Trying to decompress chunk");
-                    tmp = compressor.decompressChunk(tmp);
-
-                    logger.trace("Writing chunk to stream");
-                    bufferedOutputStream.write(tmp);
-                    logger.trace("End writing chunk to stream");
-                } else {
-                    logger.error("Object is not instance of CryptoMessage");
-                    throw new IOException();
+                while (endOfFile == null && readAhead.size() < LOOK_AHEAD) {
+                    logger.trace("Reading message from stream");
+                    CryptoMessage cryptoMessage;
+                    try {
+                        cryptoMessage = frameReader.read();
+                    } catch (EOFException e) {
+                        endOfFile = e;
+                        break;
+                    }
+                    cryptor.prefetchKey(cryptoMessage);
+                    readAhead.addLast(cryptoMessage);
                 }
+                if (readAhead.isEmpty()) {
+                    throw endOfFile;
+                }
+                CryptoMessage cryptoMessage = readAhead.pollFirst();
+
+                logger.trace("Trying to decrypt chunk");
+                byte[] tmp = cryptor.decryptChunk(cryptoMessage);
+
+                logger.trace("Trying to decompress chunk");
+                tmp = compressorFactory.getDecompressor(cryptoMessage.getCodec()).decompressChunk(tmp);
 
+                logger.trace("Writing chunk to stream");
+                bufferedOutputStream.write(tmp);
+                logger.trace("End writing chunk to stream");
             }
 
         }
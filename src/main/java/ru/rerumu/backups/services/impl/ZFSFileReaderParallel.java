@@ -0,0 +1,112 @@
+package ru.rerumu.backups.services.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.factories.CompressorFactory;
+import ru.rerumu.backups.factories.impl.CompressorFactoryImpl;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Compressor;
+import ru.rerumu.backups.services.Cryptor;
+import ru.rerumu.backups.services.FrameReader;
+import ru.rerumu.backups.services.ZFSFileReader;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads files written by {@link ZFSFileWriterFull} or {@link ZFSFileWriterParallel}.
+ * Messages are read by the calling thread, decrypted and decompressed on a pool of worker threads
+ * and written to the output stream in file order. At most {@code maxInFlight} messages are read ahead.
+ */
+public class ZFSFileReaderParallel implements ZFSFileReader {
+    private final Logger logger = LoggerFactory.getLogger(ZFSFileReaderParallel.class);
+    private final Cryptor cryptor;
+    private final CompressorFactory compressorFactory;
+    private final BufferedOutputStream bufferedOutputStream;
+    private final Path path;
+    private final int threads;
+    private final int maxInFlight;
+
+    public ZFSFileReaderParallel(BufferedOutputStream bufferedOutputStream, Path path, String password,
+                                 int threads, int maxInFlight){
+        this(bufferedOutputStream, path, new AESCryptor(password), new CompressorFactoryImpl(), threads, maxInFlight);
+    }
+
+    public ZFSFileReaderParallel(BufferedOutputStream bufferedOutputStream, Path path, Cryptor cryptor,
+                                 CompressorFactory compressorFactory, int threads, int maxInFlight){
+        if (threads < 1 || maxInFlight < 1){
+            throw new IllegalArgumentException();
+        }
+        this.bufferedOutputStream = bufferedOutputStream;
+        this.path = path;
+        this.cryptor = cryptor;
+        this.compressorFactory = compressorFactory;
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    private void writeNext(Deque<Future<byte[]>> inFlight) throws IOException, EncryptException, CompressorException {
+        Future<byte[]> future = inFlight.pollFirst();
+        byte[] tmp;
+        try {
+            tmp = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompressorException) {
+                throw (CompressorException) cause;
+            } else if (cause instanceof EncryptException) {
+                throw (EncryptException) cause;
+            }
+            throw new IOException(cause);
+        }
+        logger.trace("Writing chunk to stream");
+        bufferedOutputStream.write(tmp);
+        logger.trace("End writing chunk to stream");
+    }
+
+    @Override
+    public void read() throws IOException, ClassNotFoundException, EncryptException, CompressorException, EOFException {
+        logger.info(String.format("Starting reading from file '%s'", path.toString()));
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+        try (InputStream inputStream = Files.newInputStream(path);
+             FrameReader frameReader = FrameFormat.newReader(inputStream)) {
+            logger.info(String.format("Reading file '%s'", path.toString()));
+            while (true) {
+                while (inFlight.size() < maxInFlight) {
+                    logger.trace("Reading message from stream");
+                    CryptoMessage cryptoMessage;
+                    try {
+                        cryptoMessage = frameReader.read();
+                    } catch (EOFException e) {
+                        while (!inFlight.isEmpty()) {
+                            writeNext(inFlight);
+                        }
+                        throw e;
+                    }
+                    cryptor.prefetchKey(cryptoMessage);
+                    Compressor compressor = compressorFactory.getDecompressor(cryptoMessage.getCodec());
+                    inFlight.addLast(executorService.submit(
+                            () -> compressor.decompressChunk(cryptor.decryptChunk(cryptoMessage))
+                    ));
+                }
+                writeNext(inFlight);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -1,55 +1,65 @@
 package ru.rerumu.backups.services.impl;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.rerumu.backups.exceptions.CompressorException;
 import ru.rerumu.backups.exceptions.EncryptException;
 import ru.rerumu.backups.exceptions.FileHitSizeLimitException;
 import ru.rerumu.backups.exceptions.ZFSStreamEndedException;
+import ru.rerumu.backups.factories.CryptorFactory;
 import ru.rerumu.backups.services.ZFSFileWriter;
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.CompressedChunk;
 import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.models.PartDigests;
 import ru.rerumu.backups.services.Compressor;
 import ru.rerumu.backups.services.Cryptor;
+import ru.rerumu.backups.services.FrameWriter;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class ZFSFileWriterFull implements ZFSFileWriter {
     private final Logger logger = LoggerFactory.getLogger(ZFSFileWriterFull.class);
 
-    private final String password;
-    private final int chunkSize;
+    private final CryptorFactory cryptorFactory;
+    private final ChunkCompressor chunkCompressor;
+    private final Set<ChecksumType> checksumTypes;
+    private final long partMD5Size;
+    private PartDigests partDigests;
     private final long filePartSize;
+    private final ChunkBufferPool chunkBufferPool;
 
     public ZFSFileWriterFull(String password, int chunkSize, long filePartSize){
-        this.password = password;
-        this.chunkSize = chunkSize;
-        this.filePartSize = filePartSize;
+        this(() -> new AESCryptor(password), new GZIPCompressor(), chunkSize, filePartSize);
     }
 
-    private byte[] fillBuffer(BufferedInputStream bufferedInputStream) throws IOException {
-        byte[] buf = new byte[0];
-        int filled = 0;
+    public ZFSFileWriterFull(CryptorFactory cryptorFactory, Compressor compressor, int chunkSize, long filePartSize){
+        this(cryptorFactory, new ChunkCompressor(compressor), chunkSize, filePartSize, EnumSet.of(ChecksumType.MD5));
+    }
 
-        while (true) {
-            byte[] readBuf = new byte[chunkSize - filled];
-            int len = bufferedInputStream.read(readBuf);
-            if (len == -1) {
-                return buf;
-            }
-            byte[] tmp = Arrays.copyOfRange(readBuf, 0, len);
-            buf = ArrayUtils.addAll(buf, tmp);
-            filled += len;
-            if (filled == chunkSize) {
-                return buf;
-            }
-        }
+    public ZFSFileWriterFull(CryptorFactory cryptorFactory, ChunkCompressor chunkCompressor, int chunkSize,
+                             long filePartSize, Set<ChecksumType> checksumTypes){
+        this(cryptorFactory, chunkCompressor, chunkSize, filePartSize, checksumTypes, 0);
+    }
+
+    /**
+     * With {@code partMD5Size} above 0 the MD5s of the multipart sub-parts are computed while writing.
+     */
+    public ZFSFileWriterFull(CryptorFactory cryptorFactory, ChunkCompressor chunkCompressor, int chunkSize,
+                             long filePartSize, Set<ChecksumType> checksumTypes, long partMD5Size){
+        this.partMD5Size = partMD5Size;
+        this.cryptorFactory = cryptorFactory;
+        this.chunkCompressor = chunkCompressor;
+        this.checksumTypes = checksumTypes;
+        this.filePartSize = filePartSize;
+        this.chunkBufferPool = new ChunkBufferPool(chunkSize, 1);
     }
 
     @Override
@@ -57,23 +67,36 @@ public class ZFSFileWriterFull implements ZFSFileWriter {
             throws
             IOException,
             CompressorException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
-        Cryptor cryptor = new AESCryptor(password);
-        Compressor compressor = new GZIPCompressor();
+        logger.info(String.format("Writing stream to file '%s'", path.toString()));
+        write(bufferedInputStream, Files.newOutputStream(path));
+    }
 
-        try (OutputStream outputStream = Files.newOutputStream(path);
-             ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
-            logger.info(String.format("Writing stream to file '%s'", path.toString()));
+    @Override
+    public void write(BufferedInputStream bufferedInputStream, OutputStream outputStream)
+            throws
+            IOException,
+            CompressorException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
+        partDigests = null;
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(outputStream, checksumTypes, partMD5Size);
+        try (checksumOutputStream;
+             FrameWriter frameWriter = FrameFormat.newWriter(checksumOutputStream)) {
+            Cryptor cryptor = cryptorFactory.getCryptor();
             long written = 0;
 
             while (true) {
-                byte[] buf = fillBuffer(bufferedInputStream);
-                if (buf.length == 0) {
+                ByteBuffer chunk = chunkBufferPool.readChunk(bufferedInputStream);
+                if (chunk == null) {
                     break;
                 }
-                buf = compressor.compressChunk(buf);
-                CryptoMessage cryptoMessage = cryptor.encryptChunk(buf);
-                objectOutputStream.writeUnshared(cryptoMessage);
-                objectOutputStream.reset();
+                CompressedChunk compressedChunk;
+                try {
+                    compressedChunk = chunkCompressor.compressChunk(chunk);
+                } finally {
+                    chunkBufferPool.release(chunk);
+                }
+                CryptoMessage cryptoMessage = cryptor.encryptChunk(compressedChunk.getData())
+                        .withCodec(compressedChunk.getCodec());
+                frameWriter.write(cryptoMessage);
                 written += cryptoMessage.getMessage().length + cryptoMessage.getSalt().length + cryptoMessage.getIv().length;
                 logger.trace(String.format("Data written: %d bytes", written));
                 if (written >= filePartSize) {
@@ -81,8 +104,19 @@ public class ZFSFileWriterFull implements ZFSFileWriter {
                     throw new FileHitSizeLimitException();
                 }
             }
+            logger.info(String.format("Compression of dataset so far: %s", chunkCompressor.getCompressionStats()));
             throw new ZFSStreamEndedException();
+        } finally {
+            partDigests = checksumOutputStream.getDigests();
         }
+    }
 
+    @Override
+    public PartDigests getPartDigests() {
+        return partDigests;
+    }
+
+    @Override
+    public void close() {
     }
 }
@@ -0,0 +1,235 @@
+package ru.rerumu.backups.services.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.exceptions.FileHitSizeLimitException;
+import ru.rerumu.backups.exceptions.ZFSStreamEndedException;
+import ru.rerumu.backups.factories.CryptorFactory;
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.CompressedChunk;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.models.PartDigests;
+import ru.rerumu.backups.services.Compressor;
+import ru.rerumu.backups.services.Cryptor;
+import ru.rerumu.backups.services.FrameWriter;
+import ru.rerumu.backups.services.ZFSFileWriter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the stream in the same format as {@link ZFSFileWriterFull}, but compresses and encrypts chunks
+ * on a pool of worker threads. Chunks are read and written in stream order, at most {@code maxInFlight}
+ * chunks are held in memory at once and their read buffers are reused.
+ *
+ * <p>One instance serves one stream: chunks already read when a part hits its size limit
+ * are written to the next part on the following {@link #write} call.
+ */
+public class ZFSFileWriterParallel implements ZFSFileWriter {
+    private final Logger logger = LoggerFactory.getLogger(ZFSFileWriterParallel.class);
+
+    private final CryptorFactory cryptorFactory;
+    private final ChunkCompressor chunkCompressor;
+    private final Set<ChecksumType> checksumTypes;
+    private final long partMD5Size;
+    private PartDigests partDigests;
+    private final long filePartSize;
+    private final int maxInFlight;
+    private final ChunkLimit chunkLimit;
+    private int heldChunkSlots = 0;
+    private final ChunkBufferPool chunkBufferPool;
+    private final ExecutorService executorService;
+    private final Deque<Future<CryptoMessage>> inFlight = new ArrayDeque<>();
+    private boolean isStreamEnded = false;
+
+    public ZFSFileWriterParallel(String password, int chunkSize, long filePartSize, int threads, int maxInFlight){
+        this(() -> new AESCryptor(password), new GZIPCompressor(), chunkSize, filePartSize, threads, maxInFlight);
+    }
+
+    public ZFSFileWriterParallel(CryptorFactory cryptorFactory, Compressor compressor, int chunkSize, long filePartSize,
+                                 int threads, int maxInFlight){
+        this(cryptorFactory, new ChunkCompressor(compressor), chunkSize, filePartSize, threads, maxInFlight,
+                EnumSet.of(ChecksumType.MD5));
+    }
+
+    public ZFSFileWriterParallel(CryptorFactory cryptorFactory, ChunkCompressor chunkCompressor, int chunkSize,
+                                 long filePartSize, int threads, int maxInFlight, Set<ChecksumType> checksumTypes){
+        this(cryptorFactory, chunkCompressor, chunkSize, filePartSize, threads, maxInFlight, checksumTypes, 0);
+    }
+
+    /**
+     * With {@code partMD5Size} above 0 the MD5s of the multipart sub-parts are computed while writing.
+     */
+    public ZFSFileWriterParallel(CryptorFactory cryptorFactory, ChunkCompressor chunkCompressor, int chunkSize,
+                                 long filePartSize, int threads, int maxInFlight, Set<ChecksumType> checksumTypes,
+                                 long partMD5Size){
+        this(cryptorFactory, chunkCompressor, chunkSize, filePartSize, threads, maxInFlight, checksumTypes,
+                partMD5Size, null);
+    }
+
+    /**
+     * {@code chunkLimit} is shared by the writers of streams sent at the same time, every chunk in flight
+     * but the first takes one of its slots. Null means only {@code maxInFlight} limits this writer.
+     */
+    public ZFSFileWriterParallel(CryptorFactory cryptorFactory, ChunkCompressor chunkCompressor, int chunkSize,
+                                 long filePartSize, int threads, int maxInFlight, Set<ChecksumType> checksumTypes,
+                                 long partMD5Size, ChunkLimit chunkLimit){
+        if (threads < 1 || maxInFlight < 1){
+            throw new IllegalArgumentException();
+        }
+        this.cryptorFactory = cryptorFactory;
+        this.chunkCompressor = chunkCompressor;
+        this.checksumTypes = checksumTypes;
+        this.partMD5Size = partMD5Size;
+        this.filePartSize = filePartSize;
+        this.maxInFlight = maxInFlight;
+        this.chunkLimit = chunkLimit;
+        this.chunkBufferPool = new ChunkBufferPool(chunkSize, maxInFlight);
+        // Daemon threads do not keep the JVM alive if a writer is left unclosed
+        this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "zfs-file-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void fillWindow(BufferedInputStream bufferedInputStream, Cryptor cryptor)
+            throws IOException {
+        while (!isStreamEnded && inFlight.size() < maxInFlight) {
+            if (chunkLimit != null && !inFlight.isEmpty()) {
+                if (!chunkLimit.tryAcquire()) {
+                    break;
+                }
+                heldChunkSlots++;
+            }
+            ByteBuffer chunk = chunkBufferPool.readChunk(bufferedInputStream);
+            if (chunk == null) {
+                logger.debug("Source stream ended");
+                isStreamEnded = true;
+                releaseChunkSlots();
+                break;
+            }
+            inFlight.addLast(executorService.submit(() -> {
+                CompressedChunk compressedChunk;
+                try {
+                    compressedChunk = chunkCompressor.compressChunk(chunk);
+                } finally {
+                    chunkBufferPool.release(chunk);
+                }
+                return cryptor.encryptChunk(compressedChunk.getData()).withCodec(compressedChunk.getCodec());
+            }));
+        }
+    }
+
+    /**
+     * Gives back the slots of the chunks no longer in flight. The first chunk in flight holds no slot.
+     */
+    private void releaseChunkSlots() {
+        int extra = heldChunkSlots - Math.max(inFlight.size() - 1, 0);
+        if (chunkLimit != null && extra > 0) {
+            chunkLimit.release(extra);
+            heldChunkSlots -= extra;
+        }
+    }
+
+    private CryptoMessage takeNext() throws CompressorException, EncryptException, IOException {
+        Future<CryptoMessage> future = inFlight.pollFirst();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompressorException) {
+                throw (CompressorException) cause;
+            } else if (cause instanceof EncryptException) {
+                throw (EncryptException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            releaseChunkSlots();
+        }
+    }
+
+    private void shutdown() {
+        for (Future<CryptoMessage> future : inFlight) {
+            future.cancel(true);
+        }
+        inFlight.clear();
+        releaseChunkSlots();
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public void write(BufferedInputStream bufferedInputStream, Path path)
+            throws
+            IOException,
+            CompressorException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
+        logger.info(String.format("Writing stream to file '%s'", path.toString()));
+        write(bufferedInputStream, Files.newOutputStream(path));
+    }
+
+    @Override
+    public void write(BufferedInputStream bufferedInputStream, OutputStream outputStream)
+            throws
+            IOException,
+            CompressorException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
+        boolean isPartFinished = false;
+        partDigests = null;
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(outputStream, checksumTypes, partMD5Size);
+        try (checksumOutputStream;
+             FrameWriter frameWriter = FrameFormat.newWriter(checksumOutputStream)) {
+            Cryptor cryptor = cryptorFactory.getCryptor();
+            long written = 0;
+
+            while (true) {
+                fillWindow(bufferedInputStream, cryptor);
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                CryptoMessage cryptoMessage = takeNext();
+                frameWriter.write(cryptoMessage);
+                written += cryptoMessage.getMessage().length + cryptoMessage.getSalt().length + cryptoMessage.getIv().length;
+                logger.trace(String.format("Data written: %d bytes", written));
+                if (written >= filePartSize) {
+                    logger.debug(String.format("Written (%d bytes) is bigger than filePartSize (%d bytes)", written, filePartSize));
+                    isPartFinished = true;
+                    throw new FileHitSizeLimitException();
+                }
+            }
+            isPartFinished = true;
+            logger.info(String.format("Compression of dataset so far: %s", chunkCompressor.getCompressionStats()));
+            throw new ZFSStreamEndedException();
+        } finally {
+            partDigests = checksumOutputStream.getDigests();
+            if (!isPartFinished || (inFlight.isEmpty() && isStreamEnded)) {
+                shutdown();
+            }
+        }
+    }
+
+    @Override
+    public PartDigests getPartDigests() {
+        return partDigests;
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package ru.rerumu.backups.services.impl;
+
+import com.github.luben.zstd.Zstd;
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.models.CryptoMessage;
+
+public class ZstdCompressor extends AbstractBlockCompressor {
+    public static final int DEFAULT_LEVEL = 3;
+
+    private final int level;
+
+    public ZstdCompressor() {
+        this(DEFAULT_LEVEL);
+    }
+
+    public ZstdCompressor(int level) {
+        if (level < Zstd.minCompressionLevel() || level > Zstd.maxCompressionLevel()) {
+            throw new IllegalArgumentException(String.format("Wrong zstd level %d", level));
+        }
+        this.level = level;
+    }
+
+    @Override
+    protected int maxCompressedLength(int length) {
+        return (int) Zstd.compressBound(length);
+    }
+
+    @Override
+    protected int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws CompressorException {
+        long res = Zstd.compressByteArray(dst, dstOffset, dstLength, src, srcOffset, srcLength, level);
+        if (Zstd.isError(res)) {
+            throw new CompressorException(Zstd.getErrorName(res));
+        }
+        return (int) res;
+    }
+
+    @Override
+    protected void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst) throws CompressorException {
+        long res = Zstd.decompressByteArray(dst, 0, dst.length, src, srcOffset, srcLength);
+        if (Zstd.isError(res)) {
+            throw new CompressorException(Zstd.getErrorName(res));
+        }
+        if (res != dst.length) {
+            throw new CompressorException(String.format("Expected %d bytes, got %d", dst.length, res));
+        }
+    }
+
+    @Override
+    public int getCodec() {
+        return CryptoMessage.CODEC_ZSTD;
+    }
+}
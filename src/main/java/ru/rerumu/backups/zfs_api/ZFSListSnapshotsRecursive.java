@@ -0,0 +1,22 @@
+package ru.rerumu.backups.zfs_api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.zfs_api.impl.ProcessWrapperImpl;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lists the snapshots of a filesystem and all its descendants with their properties, oldest first.
+ */
+public class ZFSListSnapshotsRecursive extends ProcessWrapperImpl {
+    protected final Logger logger = LoggerFactory.getLogger(ZFSListSnapshotsRecursive.class);
+
+    public ZFSListSnapshotsRecursive(String parentFileSystemName) throws IOException {
+        super(Arrays.asList(
+                "zfs","list","-rHp","-t","snapshot","-o","name,guid,createtxg,creation,used,written",
+                "-s","createtxg", parentFileSystemName
+        ));
+    }
+}
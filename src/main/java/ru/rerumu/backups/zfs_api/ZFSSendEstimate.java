@@ -0,0 +1,42 @@
+package ru.rerumu.backups.zfs_api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.models.SendFlag;
+import ru.rerumu.backups.models.Snapshot;
+import ru.rerumu.backups.zfs_api.impl.ProcessWrapperImpl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Dry run of {@code zfs send}, prints the estimated stream size to stdout without sending anything.
+ */
+public class ZFSSendEstimate extends ProcessWrapperImpl {
+    protected final Logger logger = LoggerFactory.getLogger(ZFSSendEstimate.class);
+
+    public ZFSSendEstimate(Snapshot fullSnapshot) throws IOException {
+        this(fullSnapshot, EnumSet.noneOf(SendFlag.class));
+    }
+
+    public ZFSSendEstimate(Snapshot fullSnapshot, Set<SendFlag> sendFlags) throws IOException {
+        super(Arrays.asList("zfs", "send", "-nvpP" + SendFlag.toOptions(sendFlags), fullSnapshot.getFullName()));
+
+        setStderrProcessor(logger::debug);
+    }
+
+    public ZFSSendEstimate(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException {
+        this(baseSnapshot, incrementalSnapshot, EnumSet.noneOf(SendFlag.class));
+    }
+
+    public ZFSSendEstimate(Snapshot baseSnapshot, Snapshot incrementalSnapshot, Set<SendFlag> sendFlags)
+            throws IOException {
+        super(Arrays.asList(
+                "zfs", "send", "-nvpP" + SendFlag.toOptions(sendFlags) + "I",
+                baseSnapshot.getFullName(), incrementalSnapshot.getFullName()));
+
+        setStderrProcessor(logger::debug);
+    }
+}
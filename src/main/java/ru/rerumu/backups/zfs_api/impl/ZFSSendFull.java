@@ -2,18 +2,25 @@ package ru.rerumu.backups.zfs_api.impl;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.models.SendFlag;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.zfs_api.ZFSSend;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class ZFSSendFull extends ProcessWrapperImpl implements ZFSSend {
     protected final Logger logger = LoggerFactory.getLogger(ZFSSendFull.class);
 
     public ZFSSendFull(Snapshot fullSnapshot) throws IOException {
-        super(Arrays.asList("zfs","send","-vpP",fullSnapshot.getFullName()));
+        this(fullSnapshot, EnumSet.noneOf(SendFlag.class));
+    }
+
+    public ZFSSendFull(Snapshot fullSnapshot, Set<SendFlag> sendFlags) throws IOException {
+        super(Arrays.asList("zfs","send","-vpP" + SendFlag.toOptions(sendFlags),fullSnapshot.getFullName()));
 
         setStderrProcessor(logger::debug);
     }
@@ -2,18 +2,28 @@ package ru.rerumu.backups.zfs_api.impl;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.rerumu.backups.models.SendFlag;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.zfs_api.ZFSSend;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class ZFSSendMultiIncremental extends ProcessWrapperImpl implements ZFSSend {
     protected final Logger logger = LoggerFactory.getLogger(ZFSSendMultiIncremental.class);
 
     public ZFSSendMultiIncremental(Snapshot baseSnapshot, Snapshot incrementalSnapshot) throws IOException {
-        super(Arrays.asList("zfs", "send", "-vpPI", baseSnapshot.getFullName(), incrementalSnapshot.getFullName()));
+        this(baseSnapshot, incrementalSnapshot, EnumSet.noneOf(SendFlag.class));
+    }
+
+    public ZFSSendMultiIncremental(Snapshot baseSnapshot, Snapshot incrementalSnapshot, Set<SendFlag> sendFlags)
+            throws IOException {
+        super(Arrays.asList(
+                "zfs", "send", "-vpP" + SendFlag.toOptions(sendFlags) + "I",
+                baseSnapshot.getFullName(), incrementalSnapshot.getFullName()));
 
         setStderrProcessor(logger::debug);
     }
@@ -0,0 +1,136 @@
+package ru.rerumu.backups.benchmarks;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Compressor;
+import ru.rerumu.backups.services.Cryptor;
+import ru.rerumu.backups.services.impl.AESGCMCryptor;
+import ru.rerumu.backups.services.impl.GZIPCompressor;
+import ru.rerumu.backups.services.impl.SecretKeyCache;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Per-chunk cost of compression and encryption. The {@code perChunk*} methods repeat what was done
+ * for every chunk before Deflater, Inflater, Cipher and SecureRandom were reused.
+ *
+ * <p>Run with {@code java -cp <test classpath> ru.rerumu.backups.benchmarks.ChunkOverheadBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkOverheadBenchmark {
+    private static final byte[] HKDF_INFO_PREFIX = "ZFSBackupS3 chunk key".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"16384", "1048576"})
+    public int chunkSize;
+
+    private byte[] chunk;
+    private byte[] gzipChunk;
+    private SecretKey masterKey;
+    private Compressor compressor;
+    private Cryptor cryptor;
+
+    @Setup
+    public void setup() throws Exception {
+        // Half random, half repeated, so gzip has some work to do
+        chunk = new byte[chunkSize];
+        Random random = new Random(0);
+        for (int i = 0; i < chunkSize; i++) {
+            chunk[i] = i % 2 == 0 ? (byte) random.nextInt() : (byte) (i % 16);
+        }
+        compressor = new GZIPCompressor();
+        gzipChunk = compressor.compressChunk(chunk);
+
+        SecretKeyCache secretKeyCache = new SecretKeyCache("benchmark", 16, 0);
+        cryptor = new AESGCMCryptor(secretKeyCache);
+        CryptoMessage cryptoMessage = cryptor.encryptChunk(chunk);
+        masterKey = secretKeyCache.get(cryptoMessage.getSalt());
+    }
+
+    @Benchmark
+    public byte[] perChunkGzip() throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+            gzipOutputStream.write(chunk);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] pooledGzip() throws Exception {
+        return compressor.compressChunk(chunk);
+    }
+
+    @Benchmark
+    public byte[] perChunkGunzip() throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(gzipChunk))) {
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = gzipInputStream.read(buf)) >= 0) {
+                byteArrayOutputStream.write(buf, 0, len);
+            }
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] pooledGunzip() throws Exception {
+        return compressor.decompressChunk(gzipChunk);
+    }
+
+    @Benchmark
+    public byte[] perChunkEncrypt() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+
+        byte[] info = new byte[HKDF_INFO_PREFIX.length + iv.length];
+        System.arraycopy(HKDF_INFO_PREFIX, 0, info, 0, HKDF_INFO_PREFIX.length);
+        System.arraycopy(iv, 0, info, HKDF_INFO_PREFIX.length, iv.length);
+        HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
+        hkdf.init(new HKDFParameters(masterKey.getEncoded(), null, info));
+        byte[] chunkKey = new byte[32];
+        hkdf.generateBytes(chunkKey, 0, chunkKey.length);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(chunkKey, "AES"), new GCMParameterSpec(128, iv));
+        return cipher.doFinal(chunk);
+    }
+
+    @Benchmark
+    public CryptoMessage pooledEncrypt() throws Exception {
+        return cryptor.encryptChunk(chunk);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChunkOverheadBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
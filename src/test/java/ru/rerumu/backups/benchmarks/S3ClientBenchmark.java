@@ -0,0 +1,166 @@
+package ru.rerumu.backups.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.rerumu.backups.factories.S3ClientFactory;
+import ru.rerumu.backups.factories.impl.S3ClientFactoryImpl;
+import ru.rerumu.backups.models.PartDigests;
+import ru.rerumu.backups.models.S3ClientSettings;
+import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.repositories.impl.S3Repository;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-part cost of {@link S3Repository#add} against a local S3 stand-in.
+ * {@code perPartClient} builds and closes the clients for every part like it was done before,
+ * {@code pooledClient} reuses one client and its connections.
+ *
+ * <p>The stand-in answers PutObject with the ETag taken from Content-MD5, HeadObject with the ETag and
+ * length of the last PutObject and ListObjects with the requested prefix, it does not store anything else.
+ *
+ * <p>Run with {@code java -cp <test classpath> ru.rerumu.backups.benchmarks.S3ClientBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3ClientBenchmark {
+    private static final String BUCKET = "bucket";
+    private static final String DATASET = "pool-dataset";
+
+    @Param({"65536"})
+    public int partSize;
+
+    private HttpServer httpServer;
+    private ExecutorService executorService;
+    private Path part;
+    private PartDigests partDigests;
+    private List<S3Storage> s3Storages;
+    private S3ClientFactory s3ClientFactory;
+    private S3Repository pooledS3Repository;
+
+    @Setup
+    public void setup() throws Exception {
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/", S3ClientBenchmark::handle);
+        executorService = Executors.newFixedThreadPool(4);
+        httpServer.setExecutor(executorService);
+        httpServer.start();
+
+        byte[] data = new byte[partSize];
+        new Random(0).nextBytes(data);
+        part = Files.createTempFile("benchmark", ".part0");
+        Files.write(part, data);
+        partDigests = new PartDigests(MessageDigest.getInstance("MD5").digest(data), null, null);
+
+        URI endpoint = new URI("http://127.0.0.1:" + httpServer.getAddress().getPort());
+        s3Storages = List.of(new S3Storage(
+                Region.US_EAST_1, BUCKET, "keyId", "secretKey", Paths.get("prefix"), endpoint, "STANDARD"));
+        s3ClientFactory = new S3ClientFactoryImpl(new S3ClientSettings(
+                S3ClientSettings.DEFAULT_MAX_CONNECTIONS,
+                S3ClientSettings.DEFAULT_CONNECTION_TIMEOUT,
+                S3ClientSettings.DEFAULT_SOCKET_TIMEOUT,
+                Duration.ofMinutes(5),
+                true,
+                true));
+        pooledS3Repository = new S3Repository(s3Storages, s3ClientFactory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pooledS3Repository.close();
+        httpServer.stop(0);
+        executorService.shutdownNow();
+        Files.deleteIfExists(part);
+    }
+
+    private static volatile String lastETag = "";
+    private static volatile long lastLength = 0;
+
+    private static void handle(HttpExchange httpExchange) throws IOException {
+        byte[] body;
+        long length;
+        try (InputStream inputStream = httpExchange.getRequestBody()) {
+            length = inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+        if (httpExchange.getRequestMethod().equals("PUT")) {
+            String contentMD5 = httpExchange.getRequestHeaders().getFirst("Content-MD5");
+            lastETag = '"' + Hex.encodeHexString(Base64.getDecoder().decode(contentMD5)) + '"';
+            String decodedLength = httpExchange.getRequestHeaders().getFirst("x-amz-decoded-content-length");
+            lastLength = decodedLength != null ? Long.parseLong(decodedLength) : length;
+            httpExchange.getResponseHeaders().add("ETag", lastETag);
+            body = new byte[0];
+        } else if (httpExchange.getRequestMethod().equals("HEAD")) {
+            httpExchange.getResponseHeaders().add("ETag", lastETag);
+            httpExchange.getResponseHeaders().add("Content-Length", String.valueOf(lastLength));
+            body = new byte[0];
+        } else {
+            String prefix = "";
+            String query = httpExchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    if (param.startsWith("prefix=")) {
+                        prefix = URLDecoder.decode(param.substring("prefix=".length()), StandardCharsets.UTF_8);
+                    }
+                }
+            }
+            body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                    + "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">"
+                    + "<Name>" + BUCKET + "</Name><Prefix>" + prefix + "</Prefix>"
+                    + "<IsTruncated>false</IsTruncated>"
+                    + "<Contents><Key>" + prefix + "</Key><Size>0</Size></Contents>"
+                    + "</ListBucketResult>").getBytes(StandardCharsets.UTF_8);
+            httpExchange.getResponseHeaders().add("Content-Type", "application/xml");
+        }
+        httpExchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        try (OutputStream outputStream = httpExchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    @Benchmark
+    public void perPartClient() throws Exception {
+        try (S3Repository s3Repository = new S3Repository(s3Storages, s3ClientFactory)) {
+            s3Repository.add(DATASET, part, partDigests);
+        }
+    }
+
+    @Benchmark
+    public void pooledClient() throws Exception {
+        pooledS3Repository.add(DATASET, part, partDigests);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(S3ClientBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
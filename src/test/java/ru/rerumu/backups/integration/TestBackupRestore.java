@@ -70,7 +70,7 @@ public class TestBackupRestore {
                 Thread.sleep(1000);
             }
             return null;
-        }).when(remoteBackupRepository).add(Mockito.any(), Mockito.any());
+        }).when(remoteBackupRepository).add(Mockito.any(), Mockito.any(), Mockito.any());
 
         // zfsListFilesystems
         ProcessWrapper zfsListFilesystems = Mockito.mock(ProcessWrapper.class);
@@ -72,7 +72,7 @@ public class TestBackupRestoreByDataset {
                 Thread.sleep(1000);
             }
             return null;
-        }).when(remoteBackupRepository).add(Mockito.any(), Mockito.any());
+        }).when(remoteBackupRepository).add(Mockito.any(), Mockito.any(), Mockito.any());
 
         // zfsListFilesystems
         ProcessWrapper zfsListFilesystems = Mockito.mock(ProcessWrapper.class);
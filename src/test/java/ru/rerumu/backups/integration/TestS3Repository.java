@@ -62,8 +62,8 @@ public class TestS3Repository {
             bufferedOutputStream.write(srcByte);
         }
 
-        s3Repository.add(datasetName,path);
-        s3Repository.add(datasetName,path1);
+        s3Repository.add(datasetName,path,null);
+        s3Repository.add(datasetName,path1,null);
 
         Assertions.assertTrue(s3Repository.isFileExists(datasetName,generatedString));
         Assertions.assertTrue(s3Repository.isFileExists(datasetName,generatedString1));
@@ -100,7 +100,7 @@ public class TestS3Repository {
             bufferedOutputStream.write(srcByte);
         }
 
-        s3Repository.add(datasetName,path);
+        s3Repository.add(datasetName,path,null);
 
         boolean isExists = s3Repository.isFileExists(datasetName,"test");
         Assertions.assertFalse(isExists);
@@ -7,16 +7,31 @@ import ru.rerumu.backups.exceptions.CompressorException;
 import ru.rerumu.backups.exceptions.EncryptException;
 import ru.rerumu.backups.exceptions.FileHitSizeLimitException;
 import ru.rerumu.backups.exceptions.ZFSStreamEndedException;
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.PartDigests;
 import ru.rerumu.backups.services.ZFSFileReader;
 import ru.rerumu.backups.services.ZFSFileWriter;
+import ru.rerumu.backups.services.impl.AESCryptor;
+import ru.rerumu.backups.services.impl.ChunkCompressor;
+import ru.rerumu.backups.services.impl.ChunkLimit;
+import ru.rerumu.backups.services.impl.GZIPCompressor;
+import ru.rerumu.backups.services.impl.LZ4Compressor;
 import ru.rerumu.backups.services.impl.ZFSFileReaderFull;
+import ru.rerumu.backups.services.impl.ZFSFileReaderParallel;
 import ru.rerumu.backups.services.impl.ZFSFileWriterFull;
+import ru.rerumu.backups.services.impl.ZFSFileWriterParallel;
+import ru.rerumu.backups.services.impl.ZstdCompressor;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Random;
+import java.util.zip.CRC32C;
 
 public class TestWriteRead {
 
@@ -103,4 +118,231 @@ public class TestWriteRead {
         Assertions.assertArrayEquals(srcBuf, resBuf);
 
     }
+
+    @Test
+    void shouldWriteReadSameParallel(@TempDir Path tempDir) throws IOException, CompressorException, ClassNotFoundException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
+        String password = "jNfdCfxcWUqg5xa";
+        int chunkSize = 100;
+        long filePartSize = 1000;
+        ZFSFileWriter zfsFileWriter = new ZFSFileWriterParallel(password, chunkSize, filePartSize, 4, 8);
+        byte[] srcBuf = new byte[5050];
+        new Random().nextBytes(srcBuf);
+
+        List<Path> pathList = new ArrayList<>();
+
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(srcBuf);
+             BufferedInputStream bufferedInputStream = new BufferedInputStream(byteArrayInputStream)) {
+            while (true) {
+                Path path = tempDir.resolve("test" + pathList.size());
+                pathList.add(path);
+                try {
+                    zfsFileWriter.write(bufferedInputStream, path);
+                } catch (ZFSStreamEndedException ignored) {
+                    break;
+                } catch (FileHitSizeLimitException ignored) {
+                }
+            }
+        }
+
+        Assertions.assertTrue(pathList.size() > 1);
+
+        byte[] resBuf;
+
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(byteArrayOutputStream)) {
+
+            for (Path path : pathList) {
+                ZFSFileReader zfsFileReader = new ZFSFileReaderFull(bufferedOutputStream, path, password);
+                try {
+                    zfsFileReader.read();
+                } catch (EOFException ignored) {
+                }
+            }
+            bufferedOutputStream.flush();
+            resBuf = byteArrayOutputStream.toByteArray();
+        }
+
+        Assertions.assertArrayEquals(srcBuf, resBuf);
+    }
+
+    @Test
+    void shouldWriteReadSameParallelWithChunkLimit(@TempDir Path tempDir) throws IOException, CompressorException, ClassNotFoundException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
+        String password = "jNfdCfxcWUqg5xa";
+        int chunkSize = 100;
+        long filePartSize = 1000;
+        ChunkLimit chunkLimit = new ChunkLimit(2);
+        ZFSFileWriter zfsFileWriter = new ZFSFileWriterParallel(() -> new AESCryptor(password),
+                new ChunkCompressor(new GZIPCompressor()), chunkSize, filePartSize, 4, 8,
+                EnumSet.of(ChecksumType.MD5), 0, chunkLimit);
+        byte[] srcBuf = new byte[5050];
+        new Random().nextBytes(srcBuf);
+
+        List<Path> pathList = new ArrayList<>();
+
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(srcBuf);
+             BufferedInputStream bufferedInputStream = new BufferedInputStream(byteArrayInputStream)) {
+            while (true) {
+                Path path = tempDir.resolve("test" + pathList.size());
+                pathList.add(path);
+                try {
+                    zfsFileWriter.write(bufferedInputStream, path);
+                } catch (ZFSStreamEndedException ignored) {
+                    break;
+                } catch (FileHitSizeLimitException ignored) {
+                }
+            }
+        }
+        Assertions.assertEquals(2, chunkLimit.getAvailable());
+
+        byte[] resBuf;
+
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(byteArrayOutputStream)) {
+
+            for (Path path : pathList) {
+                ZFSFileReader zfsFileReader = new ZFSFileReaderFull(bufferedOutputStream, path, password);
+                try {
+                    zfsFileReader.read();
+                } catch (EOFException ignored) {
+                }
+            }
+            bufferedOutputStream.flush();
+            resBuf = byteArrayOutputStream.toByteArray();
+        }
+
+        Assertions.assertArrayEquals(srcBuf, resBuf);
+    }
+
+    @Test
+    void shouldWriteReadSameParallelRead(@TempDir Path tempDir) throws IOException, CompressorException, ClassNotFoundException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
+        String password = "jNfdCfxcWUqg5xa";
+        int chunkSize = 100;
+        long filePartSize = 100000;
+        ZFSFileWriter zfsFileWriter = new ZFSFileWriterFull(password, chunkSize, filePartSize);
+        byte[] srcBuf = new byte[2550];
+        new Random().nextBytes(srcBuf);
+        Path path = tempDir.resolve("test");
+
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(srcBuf);
+             BufferedInputStream bufferedInputStream = new BufferedInputStream(byteArrayInputStream)) {
+            zfsFileWriter.write(bufferedInputStream, path);
+        } catch (ZFSStreamEndedException ignored) {
+
+        }
+
+        byte[] resBuf;
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(byteArrayOutputStream)) {
+            ZFSFileReader zfsFileReader = new ZFSFileReaderParallel(bufferedOutputStream, path, password, 4, 8);
+            Assertions.assertThrows(EOFException.class, zfsFileReader::read);
+            bufferedOutputStream.flush();
+            resBuf = byteArrayOutputStream.toByteArray();
+        }
+
+        Assertions.assertArrayEquals(srcBuf, resBuf);
+    }
+
+    @Test
+    void shouldWriteReadSameMixedCodecs(@TempDir Path tempDir) throws IOException, CompressorException, ClassNotFoundException, EncryptException, FileHitSizeLimitException, ZFSStreamEndedException {
+        String password = "jNfdCfxcWUqg5xa";
+        int chunkSize = 1024;
+        long filePartSize = 200;
+        List<ZFSFileWriter> zfsFileWriterList = List.of(
+                new ZFSFileWriterFull(() -> new AESCryptor(password), new GZIPCompressor(), chunkSize, filePartSize),
+                new ZFSFileWriterFull(() -> new AESCryptor(password), new ZstdCompressor(19), chunkSize, filePartSize),
+                new ZFSFileWriterFull(() -> new AESCryptor(password), new LZ4Compressor(), chunkSize, filePartSize)
+        );
+        // Compressible, so chunks are not stored raw
+        Random random = new Random();
+        byte[] srcBuf = new byte[5000];
+        for (int i = 0; i < srcBuf.length; i++) {
+            srcBuf[i] = (byte) random.nextInt(4);
+        }
+
+        List<Path> pathList = new ArrayList<>();
+
+        int n = 0;
+
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(srcBuf);
+             BufferedInputStream bufferedInputStream = new BufferedInputStream(byteArrayInputStream)) {
+            while (true) {
+                pathList.add(tempDir.resolve("test" + n));
+                try {
+                    zfsFileWriterList.get(n % zfsFileWriterList.size()).write(bufferedInputStream, pathList.get(n));
+                } catch (ZFSStreamEndedException ignored) {
+                    break;
+                } catch (FileHitSizeLimitException e) {
+                    n++;
+                }
+            }
+        }
+        Assertions.assertTrue(n >= 2);
+
+        byte[] resBuf;
+
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(byteArrayOutputStream)) {
+
+            for (Path path : pathList) {
+                ZFSFileReader zfsFileReader = new ZFSFileReaderParallel(bufferedOutputStream, path, password, 2, 4);
+                try {
+                    zfsFileReader.read();
+                } catch (EOFException ignored) {
+                }
+            }
+            bufferedOutputStream.flush();
+            resBuf = byteArrayOutputStream.toByteArray();
+        }
+
+        Assertions.assertArrayEquals(srcBuf, resBuf);
+    }
+
+    @Test
+    void shouldComputePartDigestsWhileWriting(@TempDir Path tempDir) throws Exception {
+        String password = "jNfdCfxcWUqg5xa";
+        int chunkSize = 100;
+        long filePartSize = 1000;
+        List<ZFSFileWriter> zfsFileWriters = List.of(
+                new ZFSFileWriterFull(() -> new AESCryptor(password), new ChunkCompressor(new GZIPCompressor()),
+                        chunkSize, filePartSize, EnumSet.allOf(ChecksumType.class)),
+                new ZFSFileWriterParallel(() -> new AESCryptor(password), new ChunkCompressor(new GZIPCompressor()),
+                        chunkSize, filePartSize, 4, 8, EnumSet.allOf(ChecksumType.class)));
+
+        for (ZFSFileWriter zfsFileWriter : zfsFileWriters) {
+            byte[] srcBuf = new byte[5050];
+            new Random().nextBytes(srcBuf);
+            List<Path> pathList = new ArrayList<>();
+
+            try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(srcBuf);
+                 BufferedInputStream bufferedInputStream = new BufferedInputStream(byteArrayInputStream)) {
+                while (true) {
+                    Path path = tempDir.resolve(zfsFileWriter.getClass().getSimpleName() + pathList.size());
+                    pathList.add(path);
+                    boolean isEnded = false;
+                    try {
+                        zfsFileWriter.write(bufferedInputStream, path);
+                    } catch (ZFSStreamEndedException ignored) {
+                        isEnded = true;
+                    } catch (FileHitSizeLimitException ignored) {
+                    }
+
+                    byte[] fileBytes = Files.readAllBytes(path);
+                    PartDigests partDigests = zfsFileWriter.getPartDigests();
+                    CRC32C crc32c = new CRC32C();
+                    crc32c.update(fileBytes);
+
+                    Assertions.assertArrayEquals(
+                            MessageDigest.getInstance("MD5").digest(fileBytes), partDigests.getMD5());
+                    Assertions.assertArrayEquals(
+                            MessageDigest.getInstance("SHA-256").digest(fileBytes), partDigests.getSHA256());
+                    Assertions.assertEquals((int) crc32c.getValue(),
+                            ByteBuffer.wrap(partDigests.getCRC32C()).getInt());
+                    if (isEnded) {
+                        break;
+                    }
+                }
+            }
+            Assertions.assertTrue(pathList.size() > 1);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package ru.rerumu.backups.models;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+public class TestBackupProgress {
+
+    @Test
+    void shouldPredictFromMeasuredThroughput() {
+        BackupProgress backupProgress = new BackupProgress(1000, 0);
+        Assertions.assertNull(backupProgress.getRemainingTime(Duration.ofSeconds(10).toNanos()));
+
+        backupProgress.addSent(250);
+        Assertions.assertEquals(Duration.ofSeconds(30), backupProgress.getRemainingTime(Duration.ofSeconds(10).toNanos()));
+
+        backupProgress.addSent(250);
+        Assertions.assertEquals(Duration.ofSeconds(40), backupProgress.getRemainingTime(Duration.ofSeconds(40).toNanos()));
+    }
+
+    @Test
+    void shouldNotGoBelowZero() {
+        BackupProgress backupProgress = new BackupProgress(100, 0);
+        backupProgress.addSent(150);
+
+        Assertions.assertEquals(Duration.ZERO, backupProgress.getRemainingTime(Duration.ofSeconds(10).toNanos()));
+        Assertions.assertEquals(150, backupProgress.getSentBytes());
+    }
+}
@@ -0,0 +1,47 @@
+package ru.rerumu.backups.models;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+public class TestSendFlag {
+
+    @Test
+    void shouldParseList() {
+        Assertions.assertEquals(
+                EnumSet.of(SendFlag.COMPRESSED, SendFlag.LARGE_BLOCKS),
+                SendFlag.parse("large_blocks, compressed"));
+        Assertions.assertTrue(SendFlag.parse("").isEmpty());
+        Assertions.assertTrue(SendFlag.parse(null).isEmpty());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SendFlag.parse("dedup"));
+    }
+
+    @Test
+    void shouldBuildOptionsInOrder() {
+        Set<SendFlag> sendFlags = SendFlag.parse("raw,embedded,large_blocks,compressed");
+
+        Assertions.assertEquals("cLew", SendFlag.toOptions(sendFlags));
+        Assertions.assertEquals("+cLew", SendFlag.getStreamTag(sendFlags));
+        Assertions.assertEquals("", SendFlag.getStreamTag(EnumSet.noneOf(SendFlag.class)));
+    }
+
+    @Test
+    void shouldReadTagFromStreamName() {
+        Set<SendFlag> sendFlags = EnumSet.of(SendFlag.COMPRESSED, SendFlag.RAW);
+        String streamName = "MainPool@level-0__MainPool@level-1" + SendFlag.getStreamTag(sendFlags);
+
+        Assertions.assertEquals(sendFlags, SendFlag.fromStreamName(streamName));
+        Assertions.assertTrue(SendFlag.fromStreamName("MainPool@level-0").isEmpty());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SendFlag.fromStreamName("MainPool@level-0+x"));
+    }
+
+    @Test
+    void shouldTellIncompressible() {
+        Assertions.assertTrue(SendFlag.isIncompressible(EnumSet.of(SendFlag.RAW)));
+        Assertions.assertTrue(SendFlag.isIncompressible(EnumSet.of(SendFlag.RAW, SendFlag.LARGE_BLOCKS)));
+        Assertions.assertFalse(SendFlag.isIncompressible(EnumSet.of(SendFlag.COMPRESSED)));
+        Assertions.assertFalse(SendFlag.isIncompressible(EnumSet.of(SendFlag.LARGE_BLOCKS, SendFlag.EMBEDDED)));
+    }
+}
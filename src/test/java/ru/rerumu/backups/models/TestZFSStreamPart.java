@@ -6,6 +6,7 @@ import ru.rerumu.backups.exceptions.IncorrectFilePartNameException;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.EnumSet;
 
 public class TestZFSStreamPart {
 
@@ -49,6 +50,15 @@ public class TestZFSStreamPart {
         Assertions.assertEquals("MainPool-VMs@tmp_14.02.2022_23.05.part1.ready",zfsStreamPart.getFilename().toString());
     }
 
+    @Test
+    void shouldParseSendFlags() throws IncorrectFilePartNameException {
+        Path path = Paths.get("/tmp/MainPool-VMs@tmp_14.02.2022_23.05+Lw.part1.ready");
+        ZFSStreamPart zfsStreamPart = new ZFSStreamPart(path);
+
+        Assertions.assertEquals("MainPool-VMs@tmp_14.02.2022_23.05+Lw",zfsStreamPart.getStreamName());
+        Assertions.assertEquals(EnumSet.of(SendFlag.LARGE_BLOCKS, SendFlag.RAW),zfsStreamPart.getSendFlags());
+        Assertions.assertTrue(new ZFSStreamPart(Paths.get("/tmp/MainPool@level-0.part0")).getSendFlags().isEmpty());
+    }
 
     @Test
     void shouldNotParse() throws IncorrectFilePartNameException {
@@ -63,4 +73,20 @@ public class TestZFSStreamPart {
         ZFSStreamPart zfsStreamPart = new ZFSStreamPart(path);
         Assertions.assertEquals(path,zfsStreamPart.getFullPath());
     }
+
+    @Test
+    void shouldParseSnapshots() throws IncorrectFilePartNameException {
+        ZFSStreamPart incremental = new ZFSStreamPart(
+                Paths.get("/tmp/MainPool-VMs@level__0__MainPool-VMs@level__1+Lw.part0.ready"));
+        Assertions.assertEquals("MainPool-VMs@level__0", incremental.getStartSnapshot());
+        Assertions.assertEquals("MainPool-VMs@level__1", incremental.getEndSnapshot());
+
+        ZFSStreamPart full = new ZFSStreamPart(Paths.get("/tmp/MainPool-VMs@level__0+Lw.part0.ready"));
+        Assertions.assertNull(full.getStartSnapshot());
+        Assertions.assertEquals("MainPool-VMs@level__0", full.getEndSnapshot());
+
+        ZFSStreamPart legacy = new ZFSStreamPart(Paths.get("/tmp/level_0_25_02_2020__20_50.part0.ready"));
+        Assertions.assertNull(legacy.getStartSnapshot());
+        Assertions.assertNull(legacy.getEndSnapshot());
+    }
 }
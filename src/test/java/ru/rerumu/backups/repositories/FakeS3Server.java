@@ -0,0 +1,323 @@
+package ru.rerumu.backups.repositories;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory S3 stand-in for tests, path-style addressing only.
+ * Supports PutObject, multipart uploads, HeadObject, GetObject and ListObjects (v1 and v2).
+ * ListObjectsV2 returns at most {@link #setPageSize(int)} keys per page.
+ * Requests matching {@link #setFailure(Predicate)} are answered with 400.
+ */
+public class FakeS3Server implements AutoCloseable {
+    private static final Pattern PART_NUMBER = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+
+    private final HttpServer httpServer;
+    private final ExecutorService executorService;
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, String> eTags = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile Predicate<String> failure = request -> false;
+    private volatile int pageSize = 1000;
+
+    public FakeS3Server() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/", this::handle);
+        executorService = Executors.newFixedThreadPool(8);
+        httpServer.setExecutor(executorService);
+        httpServer.start();
+    }
+
+    public URI getEndpoint() {
+        return URI.create("http://127.0.0.1:" + httpServer.getAddress().getPort());
+    }
+
+    /**
+     * Objects by "bucket/key".
+     */
+    public Map<String, byte[]> getObjects() {
+        return objects;
+    }
+
+    /**
+     * Every request as "METHOD /bucket/key?query", in arrival order.
+     */
+    public List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    public void setFailure(Predicate<String> failure) {
+        this.failure = failure;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executorService.shutdownNow();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> res = new HashMap<>();
+        if (rawQuery == null) {
+            return res;
+        }
+        for (String param : rawQuery.split("&")) {
+            int idx = param.indexOf('=');
+            String name = idx < 0 ? param : param.substring(0, idx);
+            String value = idx < 0 ? "" : URLDecoder.decode(param.substring(idx + 1), StandardCharsets.UTF_8);
+            res.put(name, value);
+        }
+        return res;
+    }
+
+    private static String md5Hex(byte[] data) {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("MD5").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Strips the aws-chunked framing the SDK uses for signed payloads over plain HTTP.
+     */
+    private static byte[] readBody(HttpExchange httpExchange) throws IOException {
+        byte[] body;
+        try (InputStream inputStream = httpExchange.getRequestBody()) {
+            body = inputStream.readAllBytes();
+        }
+        String contentSha256 = httpExchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if (contentSha256 == null || !contentSha256.startsWith("STREAMING-")) {
+            return body;
+        }
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        int pos = 0;
+        while (true) {
+            int lineEnd = pos;
+            while (body[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            String header = new String(body, pos, lineEnd - pos, StandardCharsets.US_ASCII);
+            int size = Integer.parseInt(header.split(";")[0], 16);
+            pos = lineEnd + 2;
+            if (size == 0) {
+                return res.toByteArray();
+            }
+            res.write(body, pos, size);
+            pos += size + 2;
+        }
+    }
+
+    private static void send(HttpExchange httpExchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != 0) {
+            httpExchange.getResponseHeaders().add("Content-Type", "application/xml");
+        }
+        send(httpExchange, code, bytes);
+    }
+
+    private static void send(HttpExchange httpExchange, int code, byte[] bytes) throws IOException {
+        boolean isHead = httpExchange.getRequestMethod().equals("HEAD");
+        httpExchange.sendResponseHeaders(code, isHead || bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream outputStream = httpExchange.getResponseBody()) {
+            if (!isHead) {
+                outputStream.write(bytes);
+            }
+        }
+    }
+
+    private void handle(HttpExchange httpExchange) throws IOException {
+        try {
+            String method = httpExchange.getRequestMethod();
+            String path = httpExchange.getRequestURI().getPath().substring(1);
+            String rawQuery = httpExchange.getRequestURI().getRawQuery();
+            String request = method + " /" + path + (rawQuery == null ? "" : "?" + rawQuery);
+            requests.add(request);
+            byte[] body = readBody(httpExchange);
+
+            if (failure.test(request)) {
+                send(httpExchange, 400, "<Error><Code>InvalidRequest</Code><Message>Injected failure</Message></Error>");
+                return;
+            }
+
+            Map<String, String> query = parseQuery(rawQuery);
+            int idx = path.indexOf('/');
+            String bucket = idx < 0 ? path : path.substring(0, idx);
+            String key = idx < 0 ? "" : path.substring(idx + 1);
+            String objectName = bucket + "/" + key;
+
+            switch (method) {
+                case "PUT":
+                    if (query.containsKey("uploadId")) {
+                        Map<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+                        if (parts == null) {
+                            send(httpExchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                            return;
+                        }
+                        parts.put(Integer.parseInt(query.get("partNumber")), body);
+                    } else {
+                        objects.put(objectName, body);
+                        eTags.put(objectName, '"' + md5Hex(body) + '"');
+                    }
+                    httpExchange.getResponseHeaders().add("ETag", '"' + md5Hex(body) + '"');
+                    send(httpExchange, 200, new byte[0]);
+                    return;
+                case "POST":
+                    if (query.containsKey("uploads")) {
+                        String uploadId = UUID.randomUUID().toString();
+                        uploads.put(uploadId, new ConcurrentHashMap<>());
+                        send(httpExchange, 200, "<InitiateMultipartUploadResult>"
+                                + "<Bucket>" + bucket + "</Bucket><Key>" + key + "</Key>"
+                                + "<UploadId>" + uploadId + "</UploadId>"
+                                + "</InitiateMultipartUploadResult>");
+                        return;
+                    }
+                    completeMultipartUpload(httpExchange, query.get("uploadId"), objectName, body);
+                    return;
+                case "DELETE":
+                    if (query.containsKey("uploadId")) {
+                        uploads.remove(query.get("uploadId"));
+                    } else {
+                        objects.remove(objectName);
+                        eTags.remove(objectName);
+                    }
+                    send(httpExchange, 204, new byte[0]);
+                    return;
+                case "HEAD":
+                case "GET":
+                    if (key.isEmpty()) {
+                        listObjects(httpExchange, bucket, query);
+                        return;
+                    }
+                    byte[] object = objects.get(objectName);
+                    if (object == null) {
+                        send(httpExchange, 404, "<Error><Code>NoSuchKey</Code></Error>");
+                        return;
+                    }
+                    httpExchange.getResponseHeaders().add("ETag", eTags.get(objectName));
+                    if (method.equals("HEAD")) {
+                        httpExchange.getResponseHeaders().add("Content-Length", String.valueOf(object.length));
+                    }
+                    send(httpExchange, 200, object);
+                    return;
+                default:
+                    send(httpExchange, 405, new byte[0]);
+            }
+        } catch (Exception e) {
+            send(httpExchange, 500, "<Error><Code>InternalError</Code><Message>" + e + "</Message></Error>");
+        }
+    }
+
+    private void completeMultipartUpload(HttpExchange httpExchange, String uploadId, String objectName, byte[] body)
+            throws IOException {
+        Map<Integer, byte[]> parts = uploads.remove(uploadId);
+        if (parts == null) {
+            send(httpExchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+            return;
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream partMD5s = new ByteArrayOutputStream();
+        int partCount = 0;
+        Matcher matcher = PART_NUMBER.matcher(new String(body, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            byte[] part = parts.get(Integer.parseInt(matcher.group(1)));
+            if (part == null) {
+                send(httpExchange, 400, "<Error><Code>InvalidPart</Code></Error>");
+                return;
+            }
+            data.write(part);
+            try {
+                partMD5s.write(MessageDigest.getInstance("MD5").digest(part));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            partCount++;
+        }
+        String eTag = '"' + md5Hex(partMD5s.toByteArray()) + "-" + partCount + '"';
+        objects.put(objectName, data.toByteArray());
+        eTags.put(objectName, eTag);
+        send(httpExchange, 200, "<CompleteMultipartUploadResult>"
+                + "<Key>" + objectName + "</Key>"
+                + "<ETag>" + eTag.replace("\"", "&quot;") + "</ETag>"
+                + "</CompleteMultipartUploadResult>");
+    }
+
+    private void listObjects(HttpExchange httpExchange, String bucket, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        Map<String, byte[]> found = new TreeMap<>();
+        objects.forEach((name, data) -> {
+            if (name.startsWith(bucket + "/" + prefix)) {
+                found.put(name.substring(bucket.length() + 1), data);
+            }
+        });
+        boolean isV2 = "2".equals(query.get("list-type"));
+        boolean isTruncated = false;
+        String lastKey = null;
+        Map<String, byte[]> page = found;
+        if (isV2) {
+            // The continuation token is the last key of the previous page
+            String continuationToken = query.get("continuation-token");
+            page = new TreeMap<>();
+            for (Map.Entry<String, byte[]> entry : found.entrySet()) {
+                if (continuationToken != null && entry.getKey().compareTo(continuationToken) <= 0) {
+                    continue;
+                }
+                if (page.size() == pageSize) {
+                    isTruncated = true;
+                    break;
+                }
+                page.put(entry.getKey(), entry.getValue());
+                lastKey = entry.getKey();
+            }
+        }
+        StringBuilder res = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+                .append("<Name>").append(bucket).append("</Name>")
+                .append("<Prefix>").append(prefix).append("</Prefix>")
+                .append("<IsTruncated>").append(isTruncated).append("</IsTruncated>");
+        if (isV2) {
+            res.append("<KeyCount>").append(page.size()).append("</KeyCount>");
+            if (isTruncated) {
+                res.append("<NextContinuationToken>").append(lastKey).append("</NextContinuationToken>");
+            }
+        }
+        page.forEach((key, data) -> res.append("<Contents>")
+                .append("<Key>").append(key).append("</Key>")
+                .append("<Size>").append(data.length).append("</Size>")
+                .append("<ETag>").append(eTags.get(bucket + "/" + key).replace("\"", "&quot;")).append("</ETag>")
+                .append("</Contents>"));
+        res.append("</ListBucketResult>");
+        send(httpExchange, 200, res.toString());
+    }
+}
@@ -16,7 +16,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 public class TestFilePartRepository {
@@ -140,4 +146,143 @@ public class TestFilePartRepository {
         Assertions.assertFalse(Files.exists(path));
 
     }
+
+    @Test
+    void shouldWakeUpOnNewPart(@TempDir Path tempDir) throws Exception {
+        // Long enough that only the directory event can end the wait in time
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 60_000);
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part0"));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = executorService.submit(() -> {
+                filePartRepository.awaitChange();
+                return null;
+            });
+            Thread.sleep(500);
+            filePartRepository.markReady(tempDir.resolve("level_0_25_02_2020__20_50.part0"));
+
+            future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assertions.assertEquals(
+                tempDir.resolve("level_0_25_02_2020__20_50.part0.ready"), filePartRepository.getNextInputPath());
+    }
+
+    @Test
+    void shouldReturnAfterPollInterval(@TempDir Path tempDir) throws Exception {
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 100);
+
+        long start = System.nanoTime();
+        filePartRepository.awaitChange();
+
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    void shouldGetLowestPartInWindow(@TempDir Path tempDir) throws Exception {
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part11.ready"));
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part9.ready"));
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part10.ready"));
+
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 1000, 3);
+
+        Assertions.assertEquals(
+                tempDir.resolve("level_0_25_02_2020__20_50.part9.ready"), filePartRepository.getNextInputPath());
+    }
+
+    @Test
+    void shouldThrowTooManyOverWindow(@TempDir Path tempDir) throws IOException {
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part0.ready"));
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part1.ready"));
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part2.ready"));
+
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 1000, 2);
+
+        Assertions.assertThrows(TooManyPartsException.class, filePartRepository::getNextInputPath);
+    }
+
+    @Test
+    void shouldThrowTooManyForDifferentStreams(@TempDir Path tempDir) throws IOException {
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part3.ready"));
+        Files.createFile(tempDir.resolve("level_1_26_02_2020__20_50.part0.ready"));
+
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 1000, 2);
+
+        Assertions.assertThrows(TooManyPartsException.class, filePartRepository::getNextInputPath);
+    }
+
+    @Test
+    void shouldGetStreamsInChainOrder(@TempDir Path tempDir) throws Exception {
+        Files.createFile(tempDir.resolve("Pool-ds@s2__Pool-ds@s3+L.part0.ready"));
+        Files.createFile(tempDir.resolve("Pool-ds@s1__Pool-ds@s2+L.part1.ready"));
+        Files.createFile(tempDir.resolve("Pool-ds@s1__Pool-ds@s2+L.part0.ready"));
+        Files.createFile(tempDir.resolve("Pool-ds@s1+L.part0.ready"));
+
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 1000, 4);
+
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Path nextPath = filePartRepository.getNextInputPath();
+            received.add(nextPath.getFileName().toString());
+            filePartRepository.markReceived(nextPath);
+        }
+
+        Assertions.assertEquals(
+                List.of(
+                        "Pool-ds@s1+L.part0.ready",
+                        "Pool-ds@s1__Pool-ds@s2+L.part0.ready",
+                        "Pool-ds@s1__Pool-ds@s2+L.part1.ready",
+                        "Pool-ds@s2__Pool-ds@s3+L.part0.ready"),
+                received);
+        Assertions.assertThrows(NoMorePartsException.class, filePartRepository::getNextInputPath);
+    }
+
+    @Test
+    void shouldContinueChainWithNextStream(@TempDir Path tempDir) throws Exception {
+        Files.createFile(tempDir.resolve("Pool-ds@s1__Pool-ds@s2.part0.ready"));
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 1000, 2);
+        filePartRepository.markReceived(filePartRepository.getNextInputPath());
+
+        Files.createFile(tempDir.resolve("Pool-ds@s3__Pool-ds@s4.part0.ready"));
+        Files.createFile(tempDir.resolve("Pool-ds@s2__Pool-ds@s3.part0.ready"));
+
+        Assertions.assertEquals(
+                tempDir.resolve("Pool-ds@s2__Pool-ds@s3.part0.ready"), filePartRepository.getNextInputPath());
+    }
+
+    @Test
+    void shouldWaitForReadySlot(@TempDir Path tempDir) throws Exception {
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part0.ready"));
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 100, 2);
+
+        filePartRepository.awaitReadySlot();
+        Files.createFile(tempDir.resolve("level_0_25_02_2020__20_50.part1.ready"));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = executorService.submit(() -> {
+                filePartRepository.awaitReadySlot();
+                return null;
+            });
+            Thread.sleep(300);
+            Assertions.assertFalse(future.isDone());
+
+            filePartRepository.markReceived(tempDir.resolve("level_0_25_02_2020__20_50.part0.ready"));
+            future.get(10, TimeUnit.SECONDS);
+
+            future = executorService.submit(() -> {
+                filePartRepository.awaitAllReceived();
+                return null;
+            });
+            Thread.sleep(300);
+            Assertions.assertFalse(future.isDone());
+
+            filePartRepository.delete(tempDir.resolve("level_0_25_02_2020__20_50.part1.ready"));
+            future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,157 @@
+package ru.rerumu.backups.repositories;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.rerumu.backups.factories.impl.S3ClientFactoryImpl;
+import ru.rerumu.backups.models.MultipartUploadSettings;
+import ru.rerumu.backups.models.S3ClientSettings;
+import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.models.StorageStats;
+import ru.rerumu.backups.models.UploadPolicy;
+import ru.rerumu.backups.repositories.impl.S3Repository;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.regions.Region;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class TestS3RepositoryFanOut {
+    private static final String OBJECT_NAME = "bucket/prefix/pool-dataset/file.part0";
+
+    private final List<FakeS3Server> fakeS3Servers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            fakeS3Servers.add(new FakeS3Server());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        fakeS3Servers.forEach(FakeS3Server::close);
+    }
+
+    private S3Repository getS3Repository(int storages, UploadPolicy uploadPolicy) {
+        List<S3Storage> s3Storages = fakeS3Servers.subList(0, storages).stream()
+                .map(fakeS3Server -> new S3Storage(
+                        Region.US_EAST_1, "bucket", "keyId", "secretKey",
+                        Paths.get("prefix"), fakeS3Server.getEndpoint(), "STANDARD"))
+                .collect(Collectors.toList());
+        S3ClientSettings s3ClientSettings = new S3ClientSettings(
+                S3ClientSettings.DEFAULT_MAX_CONNECTIONS,
+                S3ClientSettings.DEFAULT_CONNECTION_TIMEOUT,
+                S3ClientSettings.DEFAULT_SOCKET_TIMEOUT,
+                S3ClientSettings.DEFAULT_CONNECTION_MAX_IDLE_TIME,
+                true,
+                true);
+        return new S3Repository(
+                s3Storages,
+                new S3ClientFactoryImpl(s3ClientSettings),
+                new MultipartUploadSettings(),
+                uploadPolicy);
+    }
+
+    private static Path createFile(Path tempDir) throws Exception {
+        byte[] data = new byte[10000];
+        new Random(0).nextBytes(data);
+        Path path = tempDir.resolve("file.part0");
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test
+    void shouldUploadToAllStoragesInParallel(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir);
+        // Each storage waits until the other one got its upload, sequential uploads would fail
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        for (FakeS3Server fakeS3Server : fakeS3Servers) {
+            fakeS3Server.setFailure(request -> {
+                if (!request.startsWith("PUT ")) {
+                    return false;
+                }
+                bothStarted.countDown();
+                try {
+                    return !bothStarted.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return true;
+                }
+            });
+        }
+
+        try (S3Repository s3Repository = getS3Repository(2, UploadPolicy.ALL)) {
+            s3Repository.add("pool-dataset", path, null);
+
+            for (StorageStats storageStats : s3Repository.getStorageStats().values()) {
+                Assertions.assertEquals(1, storageStats.getUploads());
+                Assertions.assertEquals(0, storageStats.getFailures());
+            }
+        }
+
+        byte[] expected = Files.readAllBytes(path);
+        Assertions.assertArrayEquals(expected, fakeS3Servers.get(0).getObjects().get(OBJECT_NAME));
+        Assertions.assertArrayEquals(expected, fakeS3Servers.get(1).getObjects().get(OBJECT_NAME));
+    }
+
+    @Test
+    void shouldFailWhenOneStorageFailsWithPolicyAll(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir);
+        fakeS3Servers.get(1).setFailure(request -> request.startsWith("PUT "));
+
+        try (S3Repository s3Repository = getS3Repository(2, UploadPolicy.ALL)) {
+            Assertions.assertThrows(SdkException.class, () -> s3Repository.add("pool-dataset", path, null));
+
+            List<StorageStats> storageStats = new ArrayList<>(s3Repository.getStorageStats().values());
+            Assertions.assertEquals(1, storageStats.get(0).getUploads());
+            Assertions.assertEquals(0, storageStats.get(1).getUploads());
+            Assertions.assertEquals(1, storageStats.get(1).getFailures());
+        }
+    }
+
+    @Test
+    void shouldSucceedWithQuorum(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir);
+        fakeS3Servers.get(2).setFailure(request -> request.startsWith("PUT "));
+
+        try (S3Repository s3Repository = getS3Repository(3, UploadPolicy.QUORUM)) {
+            s3Repository.add("pool-dataset", path, null);
+
+            List<StorageStats> storageStats = new ArrayList<>(s3Repository.getStorageStats().values());
+            Assertions.assertEquals(1, storageStats.get(2).getFailures());
+        }
+
+        Assertions.assertNotNull(fakeS3Servers.get(0).getObjects().get(OBJECT_NAME));
+        Assertions.assertNotNull(fakeS3Servers.get(1).getObjects().get(OBJECT_NAME));
+        Assertions.assertNull(fakeS3Servers.get(2).getObjects().get(OBJECT_NAME));
+    }
+
+    @Test
+    void shouldFailWithoutQuorum(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir);
+        fakeS3Servers.get(1).setFailure(request -> request.startsWith("PUT "));
+        fakeS3Servers.get(2).setFailure(request -> request.startsWith("PUT "));
+
+        try (S3Repository s3Repository = getS3Repository(3, UploadPolicy.QUORUM)) {
+            Assertions.assertThrows(SdkException.class, () -> s3Repository.add("pool-dataset", path, null));
+        }
+    }
+
+    @Test
+    void shouldComputeRequiredSuccesses() {
+        Assertions.assertEquals(3, UploadPolicy.ALL.getRequiredSuccesses(3));
+        Assertions.assertEquals(2, UploadPolicy.QUORUM.getRequiredSuccesses(3));
+        Assertions.assertEquals(2, UploadPolicy.QUORUM.getRequiredSuccesses(2));
+        Assertions.assertEquals(1, UploadPolicy.QUORUM.getRequiredSuccesses(1));
+        Assertions.assertEquals(UploadPolicy.QUORUM, UploadPolicy.parse("quorum"));
+    }
+}
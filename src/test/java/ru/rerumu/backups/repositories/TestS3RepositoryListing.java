@@ -0,0 +1,129 @@
+package ru.rerumu.backups.repositories;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.rerumu.backups.factories.impl.S3ClientFactoryImpl;
+import ru.rerumu.backups.models.S3ClientSettings;
+import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.repositories.impl.S3Repository;
+import software.amazon.awssdk.regions.Region;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class TestS3RepositoryListing {
+    private FakeS3Server fakeS3Server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fakeS3Server = new FakeS3Server();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fakeS3Server.close();
+    }
+
+    private S3Repository getS3Repository() {
+        S3Storage s3Storage = new S3Storage(
+                Region.US_EAST_1, "bucket", "keyId", "secretKey",
+                Paths.get("prefix"), fakeS3Server.getEndpoint(), "STANDARD");
+        S3ClientSettings s3ClientSettings = new S3ClientSettings(
+                S3ClientSettings.DEFAULT_MAX_CONNECTIONS,
+                S3ClientSettings.DEFAULT_CONNECTION_TIMEOUT,
+                S3ClientSettings.DEFAULT_SOCKET_TIMEOUT,
+                S3ClientSettings.DEFAULT_CONNECTION_MAX_IDLE_TIME,
+                true,
+                true);
+        return new S3Repository(List.of(s3Storage), new S3ClientFactoryImpl(s3ClientSettings));
+    }
+
+    private static Path createFile(Path tempDir, String filename) throws Exception {
+        Path path = tempDir.resolve(filename);
+        Files.write(path, filename.getBytes());
+        return path;
+    }
+
+    private List<String> getListRequests() {
+        return fakeS3Server.getRequests().stream()
+                .filter(request -> request.startsWith("GET ") && request.contains("prefix="))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldVerifyUploadWithHeadObject(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, "file.part0");
+
+        try (S3Repository s3Repository = getS3Repository()) {
+            s3Repository.add("pool-dataset", path, null);
+        }
+
+        Assertions.assertTrue(fakeS3Server.getRequests().contains("HEAD /bucket/prefix/pool-dataset/file.part0"));
+        Assertions.assertTrue(getListRequests().isEmpty());
+    }
+
+    @Test
+    void shouldCheckFileOnEveryCall(@TempDir Path tempDir) throws Exception {
+        try (S3Repository s3Repository = getS3Repository()) {
+            Assertions.assertFalse(s3Repository.isFileExists("pool-dataset", "file.part0"));
+
+            s3Repository.add("pool-dataset", createFile(tempDir, "file.part0"), null);
+
+            Assertions.assertTrue(s3Repository.isFileExists("pool-dataset", "file.part0"));
+            Assertions.assertFalse(s3Repository.isFileExists("pool-dataset", "file.part1"));
+            Assertions.assertTrue(getListRequests().isEmpty());
+        }
+    }
+
+    @Test
+    void shouldCheckExactKey(@TempDir Path tempDir) throws Exception {
+        try (S3Repository s3Repository = getS3Repository()) {
+            s3Repository.add("pool-dataset", createFile(tempDir, "file.part1"), null);
+            s3Repository.add("pool-dataset", createFile(tempDir, "file.part10"), null);
+
+            Assertions.assertTrue(s3Repository.isFileExists("pool-dataset", "file.part1"));
+            Assertions.assertTrue(s3Repository.isFileExists("pool-dataset", "file.part10"));
+            Assertions.assertFalse(s3Repository.isFileExists("pool-dataset", "file.part"));
+        }
+    }
+
+    @Test
+    void shouldListDatasetOnceInPages(@TempDir Path tempDir) throws Exception {
+        try (S3Repository s3Repository = getS3Repository()) {
+            for (int i = 0; i < 5; i++) {
+                s3Repository.add("pool-dataset", createFile(tempDir, "file.part" + i), null);
+            }
+            s3Repository.add("pool-dataset-other", createFile(tempDir, "other.part0"), null);
+        }
+        fakeS3Server.setPageSize(2);
+
+        try (S3Repository s3Repository = getS3Repository()) {
+            Set<String> files = s3Repository.listFiles("pool-dataset");
+            Assertions.assertEquals(
+                    Set.of("file.part0", "file.part1", "file.part2", "file.part3", "file.part4"), files);
+            Assertions.assertEquals(3, getListRequests().size());
+
+            Assertions.assertEquals(files, s3Repository.listFiles("pool-dataset"));
+            Assertions.assertEquals(3, getListRequests().size());
+        }
+    }
+
+    @Test
+    void shouldAddUploadsToListing(@TempDir Path tempDir) throws Exception {
+        try (S3Repository s3Repository = getS3Repository()) {
+            Assertions.assertTrue(s3Repository.listFiles("pool-dataset").isEmpty());
+
+            s3Repository.add("pool-dataset", createFile(tempDir, "file.part0"), null);
+
+            Assertions.assertEquals(Set.of("file.part0"), s3Repository.listFiles("pool-dataset"));
+            Assertions.assertEquals(1, getListRequests().size());
+        }
+    }
+}
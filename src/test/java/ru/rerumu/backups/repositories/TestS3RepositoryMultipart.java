@@ -0,0 +1,180 @@
+package ru.rerumu.backups.repositories;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.rerumu.backups.factories.impl.S3ClientFactoryImpl;
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.MultipartUploadSettings;
+import ru.rerumu.backups.models.PartDigests;
+import ru.rerumu.backups.models.S3ClientSettings;
+import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.repositories.impl.S3Repository;
+import ru.rerumu.backups.services.impl.ChecksumOutputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class TestS3RepositoryMultipart {
+    private static final long PART_SIZE = MultipartUploadSettings.MIN_PART_SIZE;
+    private static final String OBJECT_NAME = "bucket/prefix/pool-dataset/file.part0";
+
+    private FakeS3Server fakeS3Server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fakeS3Server = new FakeS3Server();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fakeS3Server.close();
+    }
+
+    private S3Repository getS3Repository(int retries) {
+        S3Storage s3Storage = new S3Storage(
+                Region.US_EAST_1, "bucket", "keyId", "secretKey",
+                Paths.get("prefix"), fakeS3Server.getEndpoint(), "STANDARD");
+        S3ClientSettings s3ClientSettings = new S3ClientSettings(
+                S3ClientSettings.DEFAULT_MAX_CONNECTIONS,
+                S3ClientSettings.DEFAULT_CONNECTION_TIMEOUT,
+                S3ClientSettings.DEFAULT_SOCKET_TIMEOUT,
+                S3ClientSettings.DEFAULT_CONNECTION_MAX_IDLE_TIME,
+                true,
+                true);
+        return new S3Repository(
+                List.of(s3Storage),
+                new S3ClientFactoryImpl(s3ClientSettings),
+                new MultipartUploadSettings(PART_SIZE, 3, retries));
+    }
+
+    private static Path createFile(Path tempDir, long size) throws Exception {
+        byte[] data = new byte[(int) size];
+        new Random(0).nextBytes(data);
+        Path path = tempDir.resolve("file.part0");
+        Files.write(path, data);
+        return path;
+    }
+
+    private List<String> getPartRequests(int partNumber) {
+        return fakeS3Server.getRequests().stream()
+                .filter(request -> request.matches("PUT .*[?&]partNumber=" + partNumber + "(&.*)?"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldUploadLargeFileInParts(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, PART_SIZE * 2 + 1000);
+
+        try (S3Repository s3Repository = getS3Repository(0)) {
+            s3Repository.add("pool-dataset", path, null);
+        }
+
+        Assertions.assertArrayEquals(Files.readAllBytes(path), fakeS3Server.getObjects().get(OBJECT_NAME));
+        for (int i = 1; i <= 3; i++) {
+            Assertions.assertEquals(1, getPartRequests(i).size());
+        }
+        Assertions.assertTrue(getPartRequests(4).isEmpty());
+    }
+
+    private static PartDigests getDigests(Path path, long partMD5Size) throws Exception {
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(
+                OutputStream.nullOutputStream(), EnumSet.of(ChecksumType.MD5), partMD5Size);
+        checksumOutputStream.write(Files.readAllBytes(path));
+        return checksumOutputStream.getDigests();
+    }
+
+    @Test
+    void shouldUseSubPartDigestsFromWriter(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, PART_SIZE * 2 + 1000);
+        PartDigests partDigests = getDigests(path, PART_SIZE);
+
+        try (S3Repository s3Repository = getS3Repository(0)) {
+            s3Repository.add("pool-dataset", path, partDigests);
+        }
+
+        Assertions.assertArrayEquals(Files.readAllBytes(path), fakeS3Server.getObjects().get(OBJECT_NAME));
+    }
+
+    @Test
+    void shouldNotReadFileForSubPartDigests(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, PART_SIZE * 2 + 1000);
+        // Digests of other data, the upload can only fail if they are used instead of reading the file
+        Path otherPath = tempDir.resolve("other.part0");
+        byte[] other = new byte[(int) (PART_SIZE * 2 + 1000)];
+        Files.write(otherPath, other);
+        PartDigests partDigests = getDigests(otherPath, PART_SIZE);
+
+        try (S3Repository s3Repository = getS3Repository(0)) {
+            Assertions.assertThrows(Exception.class, () -> s3Repository.add("pool-dataset", path, partDigests));
+        }
+    }
+
+    @Test
+    void shouldReadFileForDigestsOfOtherPartSize(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, PART_SIZE * 2 + 1000);
+        PartDigests partDigests = getDigests(path, PART_SIZE * 2);
+
+        try (S3Repository s3Repository = getS3Repository(0)) {
+            s3Repository.add("pool-dataset", path, partDigests);
+        }
+
+        Assertions.assertArrayEquals(Files.readAllBytes(path), fakeS3Server.getObjects().get(OBJECT_NAME));
+    }
+
+    @Test
+    void shouldUploadSmallFileInOneRequest(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, 1000);
+
+        try (S3Repository s3Repository = getS3Repository(0)) {
+            s3Repository.add("pool-dataset", path, null);
+        }
+
+        Assertions.assertArrayEquals(Files.readAllBytes(path), fakeS3Server.getObjects().get(OBJECT_NAME));
+        Assertions.assertTrue(fakeS3Server.getRequests().stream().noneMatch(request -> request.contains("uploadId")));
+    }
+
+    @Test
+    void shouldRetryOnlyFailedPart(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, PART_SIZE * 2 + 1000);
+        AtomicInteger failures = new AtomicInteger(1);
+        fakeS3Server.setFailure(request -> request.startsWith("PUT ")
+                && request.contains("partNumber=2")
+                && failures.getAndDecrement() > 0);
+
+        try (S3Repository s3Repository = getS3Repository(2)) {
+            s3Repository.add("pool-dataset", path, null);
+        }
+
+        Assertions.assertArrayEquals(Files.readAllBytes(path), fakeS3Server.getObjects().get(OBJECT_NAME));
+        Assertions.assertEquals(1, getPartRequests(1).size());
+        Assertions.assertEquals(2, getPartRequests(2).size());
+        Assertions.assertEquals(1, getPartRequests(3).size());
+    }
+
+    @Test
+    void shouldAbortWhenPartKeepsFailing(@TempDir Path tempDir) throws Exception {
+        Path path = createFile(tempDir, PART_SIZE * 2 + 1000);
+        fakeS3Server.setFailure(request -> request.startsWith("PUT ") && request.contains("partNumber=2"));
+
+        try (S3Repository s3Repository = getS3Repository(1)) {
+            Assertions.assertThrows(SdkException.class, () -> s3Repository.add("pool-dataset", path, null));
+        }
+
+        Assertions.assertNull(fakeS3Server.getObjects().get(OBJECT_NAME));
+        Assertions.assertEquals(2, getPartRequests(2).size());
+        Assertions.assertTrue(fakeS3Server.getRequests().stream()
+                .anyMatch(request -> request.startsWith("DELETE ") && request.contains("uploadId")));
+    }
+}
@@ -0,0 +1,169 @@
+package ru.rerumu.backups.repositories;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.rerumu.backups.factories.impl.S3ClientFactoryImpl;
+import ru.rerumu.backups.models.MultipartUploadSettings;
+import ru.rerumu.backups.models.S3ClientSettings;
+import ru.rerumu.backups.models.S3Storage;
+import ru.rerumu.backups.repositories.impl.S3Repository;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestS3RepositoryStreaming {
+    private static final int PART_SIZE = (int) MultipartUploadSettings.MIN_PART_SIZE;
+    private static final String OBJECT_NAME = "bucket/prefix/pool-dataset/file.part0";
+
+    private FakeS3Server fakeS3Server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fakeS3Server = new FakeS3Server();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fakeS3Server.close();
+    }
+
+    private S3Repository getS3Repository(int threads) {
+        S3Storage s3Storage = new S3Storage(
+                Region.US_EAST_1, "bucket", "keyId", "secretKey",
+                Paths.get("prefix"), fakeS3Server.getEndpoint(), "STANDARD");
+        S3ClientSettings s3ClientSettings = new S3ClientSettings(
+                S3ClientSettings.DEFAULT_MAX_CONNECTIONS,
+                S3ClientSettings.DEFAULT_CONNECTION_TIMEOUT,
+                S3ClientSettings.DEFAULT_SOCKET_TIMEOUT,
+                S3ClientSettings.DEFAULT_CONNECTION_MAX_IDLE_TIME,
+                true,
+                true);
+        return new S3Repository(
+                List.of(s3Storage),
+                new S3ClientFactoryImpl(s3ClientSettings),
+                new MultipartUploadSettings(PART_SIZE, threads, 0));
+    }
+
+    private static byte[] getData(int size) {
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    private static void writeInChunks(PartOutputStream partOutputStream, byte[] data) throws IOException {
+        for (int off = 0; off < data.length; off += 65536) {
+            partOutputStream.write(data, off, Math.min(65536, data.length - off));
+        }
+    }
+
+    private List<String> getPartRequests() {
+        return fakeS3Server.getRequests().stream()
+                .filter(request -> request.matches("PUT .*[?&]partNumber=.*"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldStreamLargePartInSubParts() throws Exception {
+        byte[] data = getData(PART_SIZE * 2 + 1000);
+
+        try (S3Repository s3Repository = getS3Repository(2)) {
+            try (PartOutputStream partOutputStream = s3Repository.newPartOutputStream(
+                    "pool-dataset", "file.part0", null)) {
+                writeInChunks(partOutputStream, data);
+            }
+        }
+
+        Assertions.assertArrayEquals(data, fakeS3Server.getObjects().get(OBJECT_NAME));
+        Assertions.assertEquals(3, getPartRequests().size());
+    }
+
+    @Test
+    void shouldPutSmallPartInOneRequest() throws Exception {
+        byte[] data = getData(1000);
+
+        try (S3Repository s3Repository = getS3Repository(2)) {
+            try (PartOutputStream partOutputStream = s3Repository.newPartOutputStream(
+                    "pool-dataset", "file.part0", null)) {
+                partOutputStream.write(data);
+            }
+        }
+
+        Assertions.assertArrayEquals(data, fakeS3Server.getObjects().get(OBJECT_NAME));
+        Assertions.assertTrue(fakeS3Server.getRequests().stream().noneMatch(request -> request.contains("upload")));
+    }
+
+    @Test
+    void shouldDropAbortedPart() throws Exception {
+        byte[] data = getData(PART_SIZE + 1000);
+
+        try (S3Repository s3Repository = getS3Repository(2)) {
+            PartOutputStream partOutputStream = s3Repository.newPartOutputStream("pool-dataset", "file.part0", null);
+            writeInChunks(partOutputStream, data);
+            partOutputStream.abort();
+            partOutputStream.close();
+        }
+
+        Assertions.assertNull(fakeS3Server.getObjects().get(OBJECT_NAME));
+        Assertions.assertTrue(fakeS3Server.getRequests().stream()
+                .anyMatch(request -> request.startsWith("DELETE ") && request.contains("uploadId")));
+    }
+
+    @Test
+    void shouldFailOnClose() throws Exception {
+        byte[] data = getData(PART_SIZE + 1000);
+        fakeS3Server.setFailure(request -> request.startsWith("PUT ") && request.contains("partNumber=2"));
+
+        try (S3Repository s3Repository = getS3Repository(2)) {
+            PartOutputStream partOutputStream = s3Repository.newPartOutputStream("pool-dataset", "file.part0", null);
+            writeInChunks(partOutputStream, data);
+            Assertions.assertThrows(IOException.class, partOutputStream::close);
+        }
+
+        Assertions.assertNull(fakeS3Server.getObjects().get(OBJECT_NAME));
+    }
+
+    @Test
+    void shouldSpillWhenUploadsFallBehind(@TempDir Path tempDir) throws Exception {
+        byte[] data = getData(PART_SIZE * 3 + 1000);
+        // Holds the first sub-part until the writer is done, so all buffers stay taken
+        CountDownLatch written = new CountDownLatch(1);
+        fakeS3Server.setFailure(request -> {
+            if (request.startsWith("PUT ") && request.contains("partNumber=1")) {
+                try {
+                    written.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return true;
+                }
+            }
+            return false;
+        });
+
+        try (S3Repository s3Repository = getS3Repository(1)) {
+            try (PartOutputStream partOutputStream = s3Repository.newPartOutputStream(
+                    "pool-dataset", "file.part0", tempDir.resolve("file.part0"))) {
+                writeInChunks(partOutputStream, data);
+                try (Stream<Path> files = Files.list(tempDir)) {
+                    Assertions.assertTrue(files.anyMatch(path -> path.toString().contains(".spill")));
+                }
+                written.countDown();
+            }
+        }
+
+        Assertions.assertArrayEquals(data, fakeS3Server.getObjects().get(OBJECT_NAME));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            Assertions.assertEquals(0, files.count());
+        }
+    }
+}
@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public class TestZFSFileSystemRepositoryImpl {
@@ -76,4 +77,45 @@ public class TestZFSFileSystemRepositoryImpl {
 
         Assertions.assertEquals(src,zfsFileSystemList);
     }
+
+    @Test
+    void shouldGetFileSystemsInBulk() throws IOException, InterruptedException, ExecutionException {
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSSnapshotRepository zfsSnapshotRepository = Mockito.mock(ZFSSnapshotRepository.class);
+        ProcessWrapper zfsListFilesystems = Mockito.mock(ProcessWrapper.class);
+
+        Mockito.when(zfsProcessFactory.getZFSListFilesystems("ExternalPool/Applications"))
+                .thenReturn(zfsListFilesystems);
+        Mockito.when(zfsListFilesystems.getBufferedInputStream())
+                .thenAnswer(invocationOnMock -> {
+                    String tmp =  "ExternalPool/Applications"+"\n"
+                            +"ExternalPool/Applications/empty"+"\n"
+                            +"ExternalPool/Applications/virtual_box"+"\n";
+                    byte[] buf = tmp.getBytes(StandardCharsets.UTF_8);
+                    return new BufferedInputStream(new ByteArrayInputStream(buf));
+                });
+        Mockito.when(zfsSnapshotRepository.getAllSnapshotsByDataset("ExternalPool/Applications"))
+                .thenReturn(Map.of(
+                        "ExternalPool/Applications",
+                        List.of(new Snapshot("ExternalPool/Applications@auto-20200321-173000")),
+                        "ExternalPool/Applications/virtual_box",
+                        List.of(new Snapshot("ExternalPool/Applications/virtual_box@auto-20220326-150000"))));
+
+        ZFSFileSystemRepository zfsFileSystemRepository = new ZFSFileSystemRepositoryImpl(
+                zfsProcessFactory,
+                zfsSnapshotRepository,
+                true);
+
+        List<ZFSFileSystem> zfsFileSystemList = zfsFileSystemRepository.getFilesystemsTreeList("ExternalPool/Applications");
+
+        List<ZFSFileSystem> src = new ArrayList<>();
+        src.add(new ZFSFileSystem("ExternalPool/Applications",
+                List.of(new Snapshot("ExternalPool/Applications@auto-20200321-173000"))));
+        src.add(new ZFSFileSystem("ExternalPool/Applications/empty", new ArrayList<>()));
+        src.add(new ZFSFileSystem("ExternalPool/Applications/virtual_box",
+                List.of(new Snapshot("ExternalPool/Applications/virtual_box@auto-20220326-150000"))));
+
+        Assertions.assertEquals(src,zfsFileSystemList);
+        Mockito.verify(zfsSnapshotRepository, Mockito.never()).getAllSnapshotsOrdered(Mockito.any());
+    }
 }
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import ru.rerumu.backups.models.Snapshot;
+import ru.rerumu.backups.models.SnapshotProperties;
 import ru.rerumu.backups.repositories.impl.ZFSSnapshotRepositoryImpl;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
 import ru.rerumu.backups.zfs_api.ProcessWrapper;
@@ -14,6 +15,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public class TestZFSSnapshotRepository {
@@ -44,4 +46,113 @@ public class TestZFSSnapshotRepository {
         Assertions.assertEquals(src,dst);
 
     }
+
+    @Test
+    void shouldEstimateFullAndIncremental() throws IOException, InterruptedException, ExecutionException {
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ProcessWrapper fullEstimate = Mockito.mock(ProcessWrapper.class);
+        ProcessWrapper incrementalEstimate = Mockito.mock(ProcessWrapper.class);
+
+        Snapshot first = new Snapshot("ExternalPool/Applications@auto-20200321-173000");
+        Snapshot second = new Snapshot("ExternalPool/Applications@auto-20210106-060000");
+        Snapshot third = new Snapshot("ExternalPool/Applications@auto-20210106-150000");
+
+        Mockito.when(zfsProcessFactory.getZFSSendEstimate(first)).thenReturn(fullEstimate);
+        Mockito.when(zfsProcessFactory.getZFSSendEstimate(first, third)).thenReturn(incrementalEstimate);
+        Mockito.when(fullEstimate.getBufferedInputStream())
+                .thenAnswer(invocationOnMock -> {
+                    String tmp = "full\tExternalPool/Applications@auto-20200321-173000\t1000\n"
+                            + "size\t1000\n";
+                    return new BufferedInputStream(new ByteArrayInputStream(tmp.getBytes(StandardCharsets.UTF_8)));
+                });
+        Mockito.when(incrementalEstimate.getBufferedInputStream())
+                .thenAnswer(invocationOnMock -> {
+                    String tmp = "incremental\tauto-20200321-173000\tExternalPool/Applications@auto-20210106-060000\t200\n"
+                            + "incremental\tauto-20210106-060000\tExternalPool/Applications@auto-20210106-150000\t30\n"
+                            + "size\t230\n";
+                    return new BufferedInputStream(new ByteArrayInputStream(tmp.getBytes(StandardCharsets.UTF_8)));
+                });
+
+        ZFSSnapshotRepository zfsSnapshotRepository = new ZFSSnapshotRepositoryImpl(zfsProcessFactory);
+
+        Assertions.assertEquals(1230, zfsSnapshotRepository.estimateSendSize(List.of(first, second, third)));
+        Assertions.assertEquals(1000, zfsSnapshotRepository.estimateSendSize(List.of(first)));
+        Mockito.verify(fullEstimate, Mockito.times(2)).close();
+        Mockito.verify(incrementalEstimate).close();
+    }
+
+    @Test
+    void shouldKillEstimateWithUnexpectedSize() throws IOException, InterruptedException, ExecutionException {
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ProcessWrapper fullEstimate = Mockito.mock(ProcessWrapper.class);
+
+        Snapshot first = new Snapshot("ExternalPool/Applications@auto-20200321-173000");
+
+        Mockito.when(zfsProcessFactory.getZFSSendEstimate(first)).thenReturn(fullEstimate);
+        Mockito.when(fullEstimate.getBufferedInputStream())
+                .thenAnswer(invocationOnMock -> {
+                    String tmp = "size	1.5G\n";
+                    return new BufferedInputStream(new ByteArrayInputStream(tmp.getBytes(StandardCharsets.UTF_8)));
+                });
+
+        ZFSSnapshotRepository zfsSnapshotRepository = new ZFSSnapshotRepositoryImpl(zfsProcessFactory);
+
+        Assertions.assertThrows(IOException.class, () -> zfsSnapshotRepository.estimateSendSize(List.of(first)));
+        Mockito.verify(fullEstimate).kill();
+        Mockito.verify(fullEstimate).close();
+    }
+
+    @Test
+    void shouldGroupBulkListingByDataset() throws IOException, InterruptedException, ExecutionException {
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ProcessWrapper zfsListSnapshots = Mockito.mock(ProcessWrapper.class);
+
+        Mockito.when(zfsProcessFactory.getZFSListSnapshotsRecursive("ExternalPool"))
+                .thenReturn(zfsListSnapshots);
+        Mockito.when(zfsListSnapshots.getBufferedInputStream())
+                .thenAnswer(invocationOnMock -> {
+                    String tmp = "ExternalPool@auto-20220326-150000\t18374686479671623680\t100\t1648306800\t0\t4096\n"
+                            + "ExternalPool/Applications@auto-20220326-150000\t2\t100\t1648306800\t1024\t2048\n"
+                            + "ExternalPool@auto-20220327-150000\t3\t200\t1648393200\t0\t0\n";
+                    byte[] buf = tmp.getBytes(StandardCharsets.UTF_8);
+                    return new BufferedInputStream(new ByteArrayInputStream(buf));
+                });
+
+        ZFSSnapshotRepository zfsSnapshotRepository = new ZFSSnapshotRepositoryImpl(zfsProcessFactory);
+        Map<String, List<Snapshot>> snapshotsByDataset = zfsSnapshotRepository.getAllSnapshotsByDataset("ExternalPool");
+
+        Assertions.assertEquals(
+                List.of(new Snapshot("ExternalPool@auto-20220326-150000"), new Snapshot("ExternalPool@auto-20220327-150000")),
+                snapshotsByDataset.get("ExternalPool"));
+        Assertions.assertEquals(
+                List.of(new Snapshot("ExternalPool/Applications@auto-20220326-150000")),
+                snapshotsByDataset.get("ExternalPool/Applications"));
+
+        SnapshotProperties properties = snapshotsByDataset.get("ExternalPool/Applications").get(0).getProperties();
+        Assertions.assertEquals(100, properties.getCreateTxg());
+        Assertions.assertEquals(1648306800, properties.getCreation());
+        Assertions.assertEquals(1024, properties.getUsed());
+        Assertions.assertEquals(2048, properties.getWritten());
+        Assertions.assertEquals("18374686479671623680",
+                Long.toUnsignedString(snapshotsByDataset.get("ExternalPool").get(0).getProperties().getGuid()));
+        Mockito.verify(zfsProcessFactory, Mockito.times(1)).getZFSListSnapshotsRecursive(Mockito.any());
+        Mockito.verify(zfsListSnapshots).close();
+    }
+
+    @Test
+    void shouldFailOnUnexpectedLine() throws IOException, InterruptedException, ExecutionException {
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ProcessWrapper zfsListSnapshots = Mockito.mock(ProcessWrapper.class);
+
+        Mockito.when(zfsProcessFactory.getZFSListSnapshotsRecursive("ExternalPool"))
+                .thenReturn(zfsListSnapshots);
+        Mockito.when(zfsListSnapshots.getBufferedInputStream())
+                .thenAnswer(invocationOnMock -> new BufferedInputStream(new ByteArrayInputStream(
+                        "ExternalPool@auto-20220326-150000\t1\t100\n".getBytes(StandardCharsets.UTF_8))));
+
+        ZFSSnapshotRepository zfsSnapshotRepository = new ZFSSnapshotRepositoryImpl(zfsProcessFactory);
+
+        Assertions.assertThrows(IOException.class, () -> zfsSnapshotRepository.getAllSnapshotsByDataset("ExternalPool"));
+        Mockito.verify(zfsListSnapshots).kill();
+    }
 }
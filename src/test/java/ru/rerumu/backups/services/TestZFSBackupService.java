@@ -1,5 +1,6 @@
 package ru.rerumu.backups.services;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
@@ -7,12 +8,16 @@ import ru.rerumu.backups.exceptions.*;
 import ru.rerumu.backups.models.Snapshot;
 import ru.rerumu.backups.models.ZFSFileSystem;
 import ru.rerumu.backups.repositories.ZFSFileSystemRepository;
+import ru.rerumu.backups.repositories.ZFSSnapshotRepository;
 
 import java.io.*;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class TestZFSBackupService {
 
@@ -185,4 +190,176 @@ public class TestZFSBackupService {
         Mockito.verify(mockedSnapshotSender,Mockito.never()).sendStartingFromFull(Mockito.any(),Mockito.any());
 //        Mockito.verify(mockedSnapshotSender,Mockito.never()).checkSent(any(),any());
     }
+
+    @Test
+    void shouldBackupDatasetsConcurrently() throws Exception {
+        ZFSFileSystemRepository mockedZfsFileSystemRepository = Mockito.mock(ZFSFileSystemRepository.class);
+
+        List<ZFSFileSystem> zfsFileSystemList = new ArrayList<>();
+        zfsFileSystemList.add(new ZFSFileSystem(
+                "ExternalPool/Media",
+                List.of(new Snapshot("ExternalPool/Media@auto-20220326-150000"))
+        ));
+        zfsFileSystemList.add(new ZFSFileSystem(
+                "ExternalPool/Applications",
+                List.of(new Snapshot("ExternalPool/Applications@auto-20220326-150000"))
+        ));
+        Mockito.when(mockedZfsFileSystemRepository.getFilesystemsTreeList("ExternalPool"))
+                .thenReturn(zfsFileSystemList);
+
+        // Each dataset waits until the other one is being sent, sequential sends would time out
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        SnapshotSender mockedSnapshotSender = Mockito.mock(SnapshotSender.class);
+        Mockito.doAnswer(invocationOnMock -> {
+            bothStarted.countDown();
+            if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                throw new IOException("Datasets are not sent concurrently");
+            }
+            return null;
+        }).when(mockedSnapshotSender).sendStartingFromFull(Mockito.any(), Mockito.any());
+
+        ZFSBackupService zfsBackupService = new ZFSBackupService(
+                true,
+                mockedZfsFileSystemRepository,
+                mockedSnapshotSender,
+                2
+        );
+
+        zfsBackupService.zfsBackupFull(
+                "auto-20220326-150000",
+                "ExternalPool"
+        );
+
+        Mockito.verify(mockedSnapshotSender).sendStartingFromFull("ExternalPool/Media",
+                List.of(new Snapshot("ExternalPool/Media@auto-20220326-150000")));
+        Mockito.verify(mockedSnapshotSender).sendStartingFromFull("ExternalPool/Applications",
+                List.of(new Snapshot("ExternalPool/Applications@auto-20220326-150000")));
+    }
+
+    @Test
+    void shouldRethrowDatasetFailure() throws Exception {
+        ZFSFileSystemRepository mockedZfsFileSystemRepository = Mockito.mock(ZFSFileSystemRepository.class);
+
+        List<ZFSFileSystem> zfsFileSystemList = new ArrayList<>();
+        zfsFileSystemList.add(new ZFSFileSystem(
+                "ExternalPool",
+                List.of(new Snapshot("ExternalPool@auto-20220326-150000"))
+        ));
+        zfsFileSystemList.add(new ZFSFileSystem(
+                "ExternalPool/Applications",
+                List.of(new Snapshot("ExternalPool/Applications@auto-20220326-150000"))
+        ));
+        Mockito.when(mockedZfsFileSystemRepository.getFilesystemsTreeList("ExternalPool"))
+                .thenReturn(zfsFileSystemList);
+
+        SnapshotSender mockedSnapshotSender = Mockito.mock(SnapshotSender.class);
+        Mockito.doThrow(new IncorrectHashException())
+                .when(mockedSnapshotSender).sendStartingFromFull(Mockito.eq("ExternalPool/Applications"), Mockito.any());
+
+        ZFSBackupService zfsBackupService = new ZFSBackupService(
+                true,
+                mockedZfsFileSystemRepository,
+                mockedSnapshotSender,
+                2
+        );
+
+        Assertions.assertThrows(IncorrectHashException.class, () -> zfsBackupService.zfsBackupFull(
+                "auto-20220326-150000",
+                "ExternalPool"
+        ));
+    }
+
+    @Test
+    void shouldStartLargestFirst() throws Exception {
+        ZFSFileSystemRepository mockedZfsFileSystemRepository = Mockito.mock(ZFSFileSystemRepository.class);
+        ZFSSnapshotRepository mockedZfsSnapshotRepository = Mockito.mock(ZFSSnapshotRepository.class);
+
+        List<ZFSFileSystem> zfsFileSystemList = new ArrayList<>();
+        for (String name : List.of("ExternalPool/Small", "ExternalPool/Large", "ExternalPool/Medium")) {
+            zfsFileSystemList.add(new ZFSFileSystem(name, List.of(new Snapshot(name + "@auto-20220326-150000"))));
+        }
+        Mockito.when(mockedZfsFileSystemRepository.getFilesystemsTreeList("ExternalPool"))
+                .thenReturn(zfsFileSystemList);
+        Mockito.when(mockedZfsSnapshotRepository.estimateSendSize(
+                List.of(new Snapshot("ExternalPool/Small@auto-20220326-150000")))).thenReturn(10L);
+        Mockito.when(mockedZfsSnapshotRepository.estimateSendSize(
+                List.of(new Snapshot("ExternalPool/Large@auto-20220326-150000")))).thenReturn(1000L);
+        Mockito.when(mockedZfsSnapshotRepository.estimateSendSize(
+                List.of(new Snapshot("ExternalPool/Medium@auto-20220326-150000")))).thenReturn(100L);
+
+        // With two threads the smallest dataset can only start after one of the larger ones is done
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        SnapshotSender mockedSnapshotSender = Mockito.mock(SnapshotSender.class);
+        Mockito.doAnswer(invocationOnMock -> {
+            started.add(invocationOnMock.getArgument(0));
+            Thread.sleep(100);
+            return null;
+        }).when(mockedSnapshotSender).sendStartingFromFull(Mockito.any(), Mockito.any());
+
+        ZFSBackupService zfsBackupService = new ZFSBackupService(
+                true,
+                mockedZfsFileSystemRepository,
+                mockedSnapshotSender,
+                2,
+                mockedZfsSnapshotRepository
+        );
+
+        zfsBackupService.zfsBackupFull(
+                "auto-20220326-150000",
+                "ExternalPool"
+        );
+
+        Assertions.assertEquals(3, started.size());
+        Assertions.assertEquals("ExternalPool/Small", started.get(2));
+    }
+
+    @Test
+    void shouldSendParentsBeforeChildren() throws Exception {
+        ZFSFileSystemRepository mockedZfsFileSystemRepository = Mockito.mock(ZFSFileSystemRepository.class);
+        ZFSSnapshotRepository mockedZfsSnapshotRepository = Mockito.mock(ZFSSnapshotRepository.class);
+
+        List<ZFSFileSystem> zfsFileSystemList = new ArrayList<>();
+        for (String name : List.of("ExternalPool", "ExternalPool/Large", "ExternalPool/Large/Child", "ExternalPool/Small")) {
+            zfsFileSystemList.add(new ZFSFileSystem(name, List.of(new Snapshot(name + "@auto-20220326-150000"))));
+        }
+        Mockito.when(mockedZfsFileSystemRepository.getFilesystemsTreeList("ExternalPool"))
+                .thenReturn(zfsFileSystemList);
+        Mockito.when(mockedZfsSnapshotRepository.estimateSendSize(
+                List.of(new Snapshot("ExternalPool@auto-20220326-150000")))).thenReturn(1L);
+        Mockito.when(mockedZfsSnapshotRepository.estimateSendSize(
+                List.of(new Snapshot("ExternalPool/Large@auto-20220326-150000")))).thenReturn(100L);
+        Mockito.when(mockedZfsSnapshotRepository.estimateSendSize(
+                List.of(new Snapshot("ExternalPool/Large/Child@auto-20220326-150000")))).thenReturn(1000L);
+        Mockito.when(mockedZfsSnapshotRepository.estimateSendSize(
+                List.of(new Snapshot("ExternalPool/Small@auto-20220326-150000")))).thenReturn(10L);
+
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        SnapshotSender mockedSnapshotSender = Mockito.mock(SnapshotSender.class);
+        Mockito.doAnswer(invocationOnMock -> {
+            events.add("start " + invocationOnMock.getArgument(0));
+            Thread.sleep(50);
+            events.add("end " + invocationOnMock.getArgument(0));
+            return null;
+        }).when(mockedSnapshotSender).sendStartingFromFull(Mockito.any(), Mockito.any());
+
+        ZFSBackupService zfsBackupService = new ZFSBackupService(
+                true,
+                mockedZfsFileSystemRepository,
+                mockedSnapshotSender,
+                3,
+                mockedZfsSnapshotRepository
+        );
+
+        zfsBackupService.zfsBackupFull(
+                "auto-20220326-150000",
+                "ExternalPool"
+        );
+
+        Assertions.assertEquals(8, events.size());
+        Assertions.assertEquals("start ExternalPool", events.get(0));
+        Assertions.assertTrue(events.indexOf("end ExternalPool") < events.indexOf("start ExternalPool/Large"));
+        Assertions.assertTrue(events.indexOf("end ExternalPool") < events.indexOf("start ExternalPool/Small"));
+        Assertions.assertTrue(
+                events.indexOf("end ExternalPool/Large") < events.indexOf("start ExternalPool/Large/Child"));
+    }
 }
@@ -1,13 +1,20 @@
 package ru.rerumu.backups.services;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 import ru.rerumu.backups.exceptions.*;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
 import ru.rerumu.backups.repositories.FilePartRepository;
+import ru.rerumu.backups.repositories.impl.FilePartRepositoryImpl;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 class TestZFSRestoreService {
@@ -90,4 +97,40 @@ class TestZFSRestoreService {
         inOrder.verify(snapshotReceiver).finish();
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldRestoreInterleavedStreamsInChainOrder(@TempDir Path tempDir) throws Exception {
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        FilePartRepository filePartRepository = new FilePartRepositoryImpl(tempDir, 100, 3);
+        Files.createFile(tempDir.resolve("Pool-ds@s2__Pool-ds@s3.part0.ready"));
+        Files.createFile(tempDir.resolve("Pool-ds@s1__Pool-ds@s2.part0.ready"));
+        Files.createFile(tempDir.resolve("Pool-ds@s1.part0.ready"));
+
+        List<String> received = new ArrayList<>();
+        SnapshotReceiver snapshotReceiver = new SnapshotReceiver() {
+            @Override
+            public void receiveSnapshotPart(Path path) throws IOException {
+                received.add(path.getFileName().toString());
+                filePartRepository.markReceived(path);
+                if (received.size() == 3) {
+                    Files.createFile(tempDir.resolve("finished"));
+                }
+            }
+
+            @Override
+            public void finish() {
+            }
+        };
+
+        ZFSRestoreService zfsRestoreService = new ZFSRestoreService("test",zfsProcessFactory,true,filePartRepository,snapshotReceiver);
+
+        zfsRestoreService.zfsReceive();
+
+        Assertions.assertEquals(
+                List.of(
+                        "Pool-ds@s1.part0.ready",
+                        "Pool-ds@s1__Pool-ds@s2.part0.ready",
+                        "Pool-ds@s2__Pool-ds@s3.part0.ready"),
+                received);
+    }
+
+}
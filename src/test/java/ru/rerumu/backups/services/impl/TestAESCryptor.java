@@ -6,6 +6,11 @@ import ru.rerumu.backups.models.CryptoMessage;
 import ru.rerumu.backups.services.Cryptor;
 import ru.rerumu.backups.services.impl.AESCryptor;
 
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.util.Arrays;
 import java.util.Random;
@@ -116,4 +121,50 @@ public class TestAESCryptor {
         Assertions.assertArrayEquals(src, byteArrayOutputStream1.toByteArray());
     }
 
+    @Test
+    void shouldShareSaltBetweenChunks() throws Exception {
+        Cryptor cryptor = new AESCryptor("sduifysdrf");
+        byte[] src = new byte[100];
+        new Random().nextBytes(src);
+
+        CryptoMessage cryptoMessage1 = cryptor.encryptChunk(src);
+        CryptoMessage cryptoMessage2 = cryptor.encryptChunk(src);
+
+        Assertions.assertEquals(CryptoMessage.VERSION_HKDF, cryptoMessage1.getVersion());
+        Assertions.assertArrayEquals(cryptoMessage1.getSalt(), cryptoMessage2.getSalt());
+        Assertions.assertFalse(Arrays.equals(cryptoMessage1.getIv(), cryptoMessage2.getIv()));
+        Assertions.assertFalse(Arrays.equals(cryptoMessage1.getMessage(), cryptoMessage2.getMessage()));
+
+        Cryptor cryptor2 = new AESCryptor("sduifysdrf");
+        Assertions.assertArrayEquals(src, cryptor2.decryptChunk(cryptoMessage1));
+        Assertions.assertArrayEquals(src, cryptor2.decryptChunk(cryptoMessage2));
+    }
+
+    @Test
+    void shouldDecryptLegacy() throws Exception {
+        String password = "sduifysdrf";
+        byte[] src = new byte[1500];
+        new Random().nextBytes(src);
+        byte[] salt = new byte[8];
+        new Random().nextBytes(salt);
+        byte[] iv = new byte[16];
+        new Random().nextBytes(iv);
+
+        // Message as written before versioning: key derived with PBKDF2 for every message
+        new AESCryptor(password);
+        SecretKeySpec secretKey = new SecretKeySpec(
+                SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")
+                        .generateSecret(new PBEKeySpec(password.toCharArray(), salt, 100000, 256))
+                        .getEncoded(),
+                "AES");
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", "BC");
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
+        CryptoMessage cryptoMessage = new CryptoMessage(salt, iv, cipher.doFinal(src));
+
+        Cryptor cryptor = new AESCryptor(password);
+        byte[] dst = cryptor.decryptChunk(cryptoMessage);
+
+        Assertions.assertArrayEquals(src, dst);
+    }
+
 }
@@ -0,0 +1,61 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Cryptor;
+
+import java.util.Random;
+
+public class TestAESGCMCryptor {
+
+    @Test
+    void encryptDecrypt1500() throws Exception {
+        Cryptor cryptor = new AESGCMCryptor("sduifysdrf");
+        byte[] src = new byte[1500];
+        new Random().nextBytes(src);
+
+        CryptoMessage cryptoMessage = cryptor.encryptChunk(src);
+
+        Cryptor cryptor2 = new AESGCMCryptor("sduifysdrf");
+        byte[] dst = cryptor2.decryptChunk(cryptoMessage);
+
+        Assertions.assertEquals(CryptoMessage.VERSION_GCM, cryptoMessage.getVersion());
+        Assertions.assertArrayEquals(src, dst);
+    }
+
+    @Test
+    void encryptDecryptEmpty() throws Exception {
+        Cryptor cryptor = new AESGCMCryptor("sduifysdrf");
+        byte[] src = new byte[0];
+
+        CryptoMessage cryptoMessage = cryptor.encryptChunk(src);
+
+        Assertions.assertArrayEquals(src, new AESGCMCryptor("sduifysdrf").decryptChunk(cryptoMessage));
+    }
+
+    @Test
+    void shouldDecryptWithAnyCryptor() throws Exception {
+        byte[] src = new byte[1000];
+        new Random().nextBytes(src);
+
+        CryptoMessage gcmMessage = new AESGCMCryptor("sduifysdrf").encryptChunk(src);
+        CryptoMessage cbcMessage = new AESCryptor("sduifysdrf").encryptChunk(src);
+
+        Assertions.assertArrayEquals(src, new AESCryptor("sduifysdrf").decryptChunk(gcmMessage));
+        Assertions.assertArrayEquals(src, new AESGCMCryptor("sduifysdrf").decryptChunk(cbcMessage));
+    }
+
+    @Test
+    void shouldDetectModifiedMessage() throws Exception {
+        Cryptor cryptor = new AESGCMCryptor("sduifysdrf");
+        byte[] src = new byte[1000];
+        new Random().nextBytes(src);
+
+        CryptoMessage cryptoMessage = cryptor.encryptChunk(src);
+        cryptoMessage.getMessage()[10] ^= 1;
+
+        Assertions.assertThrows(EncryptException.class, () -> cryptor.decryptChunk(cryptoMessage));
+    }
+}
@@ -0,0 +1,78 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.rerumu.backups.models.ChecksumType;
+import ru.rerumu.backups.models.PartDigests;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+public class TestChecksumOutputStream {
+
+    @Test
+    void shouldMatchDigestsOfWrittenBytes() throws Exception {
+        byte[] src = new byte[100_000];
+        new Random(0).nextBytes(src);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(
+                byteArrayOutputStream, EnumSet.allOf(ChecksumType.class));
+
+        checksumOutputStream.write(src[0]);
+        checksumOutputStream.write(src, 1, 4095);
+        checksumOutputStream.write(src, 4096, src.length - 4096);
+        checksumOutputStream.close();
+        PartDigests partDigests = checksumOutputStream.getDigests();
+
+        byte[] written = byteArrayOutputStream.toByteArray();
+        Assertions.assertArrayEquals(src, written);
+        Assertions.assertArrayEquals(MessageDigest.getInstance("MD5").digest(src), partDigests.getMD5());
+        Assertions.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(src), partDigests.getSHA256());
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(src);
+        Assertions.assertEquals((int) crc32c.getValue(), ByteBuffer.wrap(partDigests.getCRC32C()).getInt());
+    }
+
+    @Test
+    void shouldSkipNotRequestedDigests() throws Exception {
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(
+                new ByteArrayOutputStream(), EnumSet.of(ChecksumType.MD5));
+        checksumOutputStream.write(new byte[]{1, 2, 3});
+        PartDigests partDigests = checksumOutputStream.getDigests();
+
+        Assertions.assertNotNull(partDigests.getMD5());
+        Assertions.assertNull(partDigests.getSHA256());
+        Assertions.assertNull(partDigests.getCRC32C());
+    }
+
+    @Test
+    void shouldComputeSubPartMD5s() throws Exception {
+        byte[] src = new byte[10_000];
+        new Random(0).nextBytes(src);
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(
+                new ByteArrayOutputStream(), EnumSet.of(ChecksumType.MD5), 4096);
+
+        checksumOutputStream.write(src, 0, 1000);
+        checksumOutputStream.write(src, 1000, src.length - 1000);
+        byte[][] partMD5s = checksumOutputStream.getDigests().getPartMD5s(4096);
+
+        Assertions.assertEquals(3, partMD5s.length);
+        Assertions.assertArrayEquals(MessageDigest.getInstance("MD5").digest(Arrays.copyOfRange(src, 0, 4096)), partMD5s[0]);
+        Assertions.assertArrayEquals(MessageDigest.getInstance("MD5").digest(Arrays.copyOfRange(src, 4096, 8192)), partMD5s[1]);
+        Assertions.assertArrayEquals(MessageDigest.getInstance("MD5").digest(Arrays.copyOfRange(src, 8192, 10_000)), partMD5s[2]);
+        Assertions.assertNull(checksumOutputStream.getDigests().getPartMD5s(8192));
+    }
+
+    @Test
+    void shouldAlwaysParseMD5() {
+        Assertions.assertEquals(EnumSet.of(ChecksumType.MD5), ChecksumType.parse(null));
+        Assertions.assertEquals(EnumSet.of(ChecksumType.MD5, ChecksumType.SHA256),
+                ChecksumType.parse("sha256"));
+        Assertions.assertEquals(EnumSet.allOf(ChecksumType.class), ChecksumType.parse("md5, sha256,crc32c"));
+    }
+}
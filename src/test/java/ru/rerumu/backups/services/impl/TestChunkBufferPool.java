@@ -0,0 +1,104 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestChunkBufferPool {
+
+    /**
+     * Returns at most {@code maxRead} bytes per call, like a pipe from {@code zfs send}.
+     */
+    private static class PipeInputStream extends InputStream {
+        private final byte[] data;
+        private final int maxRead;
+        private int pos = 0;
+
+        PipeInputStream(byte[] data, int maxRead) {
+            this.data = data;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, maxRead), data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    void shouldAssembleChunksFromShortReads() throws Exception {
+        byte[] src = new byte[2500];
+        new Random(0).nextBytes(src);
+        ChunkBufferPool chunkBufferPool = new ChunkBufferPool(1000, 1);
+        InputStream inputStream = new PipeInputStream(src, 64);
+
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer chunk = chunkBufferPool.readChunk(inputStream);
+            int expected = Math.min(1000, src.length - i * 1000);
+            Assertions.assertEquals(expected, chunk.remaining());
+            byte[] tmp = new byte[chunk.remaining()];
+            chunk.duplicate().get(tmp);
+            Assertions.assertArrayEquals(Arrays.copyOfRange(src, i * 1000, i * 1000 + expected), tmp);
+            chunkBufferPool.release(chunk);
+        }
+        Assertions.assertNull(chunkBufferPool.readChunk(inputStream));
+    }
+
+    @Test
+    void shouldReuseReleasedBuffer() throws Exception {
+        ChunkBufferPool chunkBufferPool = new ChunkBufferPool(100, 1);
+        InputStream inputStream = new PipeInputStream(new byte[300], 64);
+
+        ByteBuffer first = chunkBufferPool.readChunk(inputStream);
+        chunkBufferPool.release(first);
+        ByteBuffer second = chunkBufferPool.readChunk(inputStream);
+
+        Assertions.assertSame(first, second);
+    }
+
+    @Test
+    void shouldNotAllocateWhileAssemblingChunks() throws Exception {
+        int chunkSize = 10 * 1024 * 1024;
+        int chunks = 8;
+        ChunkBufferPool chunkBufferPool = new ChunkBufferPool(chunkSize, 1);
+        InputStream inputStream = new PipeInputStream(new byte[chunkSize * (chunks + 1)], 64 * 1024);
+
+        // First chunk allocates the pooled buffer
+        chunkBufferPool.release(chunkBufferPool.readChunk(inputStream));
+
+        long before = allocatedBytes();
+        for (int i = 0; i < chunks; i++) {
+            ByteBuffer chunk = chunkBufferPool.readChunk(inputStream);
+            Assertions.assertEquals(chunkSize, chunk.remaining());
+            chunkBufferPool.release(chunk);
+        }
+        long allocated = allocatedBytes() - before;
+
+        Assertions.assertTrue(allocated < 64 * 1024, String.format("Allocated %d bytes", allocated));
+    }
+}
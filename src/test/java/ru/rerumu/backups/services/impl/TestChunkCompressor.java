@@ -0,0 +1,87 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.models.CompressedChunk;
+import ru.rerumu.backups.models.CompressionStats;
+import ru.rerumu.backups.models.CryptoMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestChunkCompressor {
+
+    private static class RecordingCompressor extends GZIPCompressor {
+        private final List<Integer> sizes = new ArrayList<>();
+
+        @Override
+        public byte[] compressChunk(ByteBuffer chunk) throws CompressorException {
+            sizes.add(chunk.remaining());
+            return super.compressChunk(chunk);
+        }
+    }
+
+    @Test
+    void shouldCompressCompressible() throws Exception {
+        byte[] src = new byte[100000];
+        CompressionStats compressionStats = new CompressionStats();
+        ChunkCompressor chunkCompressor = new ChunkCompressor(new GZIPCompressor(), 0.9, 1000, compressionStats);
+
+        CompressedChunk compressedChunk = chunkCompressor.compressChunk(ByteBuffer.wrap(src));
+
+        Assertions.assertEquals(CryptoMessage.CODEC_GZIP, compressedChunk.getCodec());
+        Assertions.assertTrue(compressedChunk.getData().length < src.length);
+        Assertions.assertArrayEquals(src, new GZIPCompressor().decompressChunk(compressedChunk.getData()));
+        Assertions.assertEquals(1, compressionStats.getCompressedChunks());
+        Assertions.assertEquals(0, compressionStats.getStoredChunks());
+    }
+
+    @Test
+    void shouldStoreIncompressibleAfterSample() throws Exception {
+        byte[] src = new byte[100000];
+        new Random().nextBytes(src);
+        RecordingCompressor compressor = new RecordingCompressor();
+        CompressionStats compressionStats = new CompressionStats();
+        ChunkCompressor chunkCompressor = new ChunkCompressor(compressor, 0.9, 1000, compressionStats);
+
+        ByteBuffer chunk = ByteBuffer.wrap(src);
+        CompressedChunk compressedChunk = chunkCompressor.compressChunk(chunk);
+
+        Assertions.assertEquals(CryptoMessage.CODEC_STORED, compressedChunk.getCodec());
+        Assertions.assertArrayEquals(src, compressedChunk.getData());
+        Assertions.assertEquals(List.of(1000), compressor.sizes);
+        Assertions.assertEquals(0, chunk.position());
+        Assertions.assertEquals(0, compressionStats.getCompressedChunks());
+        Assertions.assertEquals(1, compressionStats.getStoredChunks());
+    }
+
+    @Test
+    void shouldStoreWhenWholeChunkDoesNotShrink() throws Exception {
+        // Compressible sample followed by random data
+        byte[] src = new byte[100000];
+        byte[] tail = new byte[src.length - 1000];
+        new Random().nextBytes(tail);
+        System.arraycopy(tail, 0, src, 1000, tail.length);
+        RecordingCompressor compressor = new RecordingCompressor();
+        ChunkCompressor chunkCompressor = new ChunkCompressor(compressor, 0.9, 1000, new CompressionStats());
+
+        CompressedChunk compressedChunk = chunkCompressor.compressChunk(ByteBuffer.wrap(src));
+
+        Assertions.assertEquals(CryptoMessage.CODEC_STORED, compressedChunk.getCodec());
+        Assertions.assertArrayEquals(src, compressedChunk.getData());
+        Assertions.assertEquals(List.of(1000, src.length), compressor.sizes);
+    }
+
+    @Test
+    void shouldReadStoredChunk() throws Exception {
+        byte[] src = new byte[1000];
+        new Random().nextBytes(src);
+
+        byte[] tmp = new StoredCompressor().compressChunk(src);
+
+        Assertions.assertArrayEquals(src, new StoredCompressor().decompressChunk(tmp));
+    }
+}
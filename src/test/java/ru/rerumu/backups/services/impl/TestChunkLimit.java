@@ -0,0 +1,23 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestChunkLimit {
+
+    @Test
+    void shouldNotTakeMoreThanLimit() {
+        ChunkLimit chunkLimit = new ChunkLimit(2);
+        Assertions.assertTrue(chunkLimit.tryAcquire());
+        Assertions.assertTrue(chunkLimit.tryAcquire());
+        Assertions.assertFalse(chunkLimit.tryAcquire());
+
+        chunkLimit.release(2);
+        Assertions.assertEquals(2, chunkLimit.getAvailable());
+    }
+
+    @Test
+    void shouldRejectWrongLimit() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ChunkLimit(0));
+    }
+}
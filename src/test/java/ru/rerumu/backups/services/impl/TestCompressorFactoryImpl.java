@@ -0,0 +1,45 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.factories.CompressorFactory;
+import ru.rerumu.backups.factories.impl.CompressorFactoryImpl;
+import ru.rerumu.backups.models.CryptoMessage;
+
+import java.util.Map;
+
+class TestCompressorFactoryImpl {
+
+    @Test
+    void shouldChooseCodecByDataset() {
+        CompressorFactory compressorFactory = new CompressorFactoryImpl("zstd:19", Map.of(
+                "ExternalPool/Hot", "lz4",
+                "ExternalPool/Legacy", "gzip"
+        ));
+
+        Assertions.assertEquals(CryptoMessage.CODEC_LZ4,
+                compressorFactory.getCompressor("ExternalPool/Hot").getCodec());
+        Assertions.assertEquals(CryptoMessage.CODEC_GZIP,
+                compressorFactory.getCompressor("ExternalPool/Legacy").getCodec());
+        Assertions.assertEquals(CryptoMessage.CODEC_ZSTD,
+                compressorFactory.getCompressor("ExternalPool/Applications").getCodec());
+    }
+
+    @Test
+    void shouldRejectUnknownCodec() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new CompressorFactoryImpl("bzip2", Map.of()));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new CompressorFactoryImpl("gzip", Map.of("ExternalPool/Hot", "zstd:fast")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new CompressorFactoryImpl("lz4:1", Map.of()));
+    }
+
+    @Test
+    void shouldFailOnUnknownCodecId() {
+        CompressorFactory compressorFactory = new CompressorFactoryImpl();
+
+        Assertions.assertThrows(CompressorException.class, () -> compressorFactory.getDecompressor(100));
+    }
+}
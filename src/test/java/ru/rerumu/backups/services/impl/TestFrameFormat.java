@@ -0,0 +1,94 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.FrameReader;
+import ru.rerumu.backups.services.FrameWriter;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestFrameFormat {
+
+    private CryptoMessage randomMessage(int version, int length) {
+        Random random = new Random();
+        byte[] salt = new byte[8];
+        byte[] iv = new byte[16];
+        byte[] message = new byte[length];
+        random.nextBytes(salt);
+        random.nextBytes(iv);
+        random.nextBytes(message);
+        return new CryptoMessage(version, salt, iv, message);
+    }
+
+    private void assertMessageEquals(CryptoMessage expected, CryptoMessage actual) {
+        Assertions.assertEquals(expected.getVersion(), actual.getVersion());
+        Assertions.assertEquals(expected.getCodec(), actual.getCodec());
+        Assertions.assertArrayEquals(expected.getSalt(), actual.getSalt());
+        Assertions.assertArrayEquals(expected.getIv(), actual.getIv());
+        Assertions.assertArrayEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    @Test
+    void shouldWriteReadBinary() throws Exception {
+        CryptoMessage cryptoMessage1 = randomMessage(CryptoMessage.VERSION_HKDF, 1000);
+        CryptoMessage cryptoMessage2 = randomMessage(CryptoMessage.VERSION_GCM, 0);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (FrameWriter frameWriter = FrameFormat.newWriter(byteArrayOutputStream)) {
+            frameWriter.write(cryptoMessage1);
+            frameWriter.write(cryptoMessage2);
+        }
+
+        try (FrameReader frameReader = FrameFormat.newReader(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+            Assertions.assertTrue(frameReader instanceof BinaryFrameReader);
+            assertMessageEquals(cryptoMessage1, frameReader.read());
+            assertMessageEquals(cryptoMessage2, frameReader.read());
+            Assertions.assertThrows(EOFException.class, frameReader::read);
+        }
+    }
+
+    @Test
+    void shouldReadSerialized() throws Exception {
+        CryptoMessage cryptoMessage1 = randomMessage(CryptoMessage.VERSION_PBKDF2, 1000);
+        CryptoMessage cryptoMessage2 = randomMessage(CryptoMessage.VERSION_PBKDF2, 10);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+            objectOutputStream.writeUnshared(cryptoMessage1);
+            objectOutputStream.reset();
+            objectOutputStream.writeUnshared(cryptoMessage2);
+            objectOutputStream.reset();
+        }
+
+        try (FrameReader frameReader = FrameFormat.newReader(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+            Assertions.assertTrue(frameReader instanceof SerializedFrameReader);
+            assertMessageEquals(cryptoMessage1, frameReader.read());
+            assertMessageEquals(cryptoMessage2, frameReader.read());
+            Assertions.assertThrows(EOFException.class, frameReader::read);
+        }
+    }
+
+    @Test
+    void shouldReadEmpty() throws Exception {
+        try (FrameReader frameReader = FrameFormat.newReader(new ByteArrayInputStream(new byte[0]))) {
+            Assertions.assertThrows(EOFException.class, frameReader::read);
+        }
+    }
+
+    @Test
+    void shouldNotTreatTruncatedFrameAsEnd() throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (FrameWriter frameWriter = FrameFormat.newWriter(byteArrayOutputStream)) {
+            frameWriter.write(randomMessage(CryptoMessage.VERSION_HKDF, 1000));
+        }
+        byte[] truncated = Arrays.copyOf(byteArrayOutputStream.toByteArray(), 500);
+
+        try (FrameReader frameReader = FrameFormat.newReader(new ByteArrayInputStream(truncated))) {
+            IOException e = Assertions.assertThrows(IOException.class, frameReader::read);
+            Assertions.assertFalse(e instanceof EOFException);
+        }
+    }
+}
@@ -7,6 +7,10 @@ import org.junit.jupiter.api.Test;
 import ru.rerumu.backups.services.Compressor;
 import ru.rerumu.backups.services.impl.GZIPCompressor;
 
+import ru.rerumu.backups.exceptions.CompressorException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.DirectoryStream;
@@ -14,6 +18,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class TestGZIPCompressor {
 
@@ -53,4 +59,54 @@ public class TestGZIPCompressor {
 
     }
 
+    @Test
+    void shouldReadGZIPOutputStream() throws Exception {
+        byte[] src = new byte[100000];
+        new Random().nextBytes(src);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+            gzipOutputStream.write(src);
+        }
+
+        byte[] dst = new GZIPCompressor().decompressChunk(byteArrayOutputStream.toByteArray());
+
+        Assertions.assertArrayEquals(src, dst);
+    }
+
+    @Test
+    void shouldWriteGZIPInputStreamFormat() throws Exception {
+        byte[] src = new byte[100000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) (i % 7);
+        }
+
+        byte[] tmp = new GZIPCompressor().compressChunk(src);
+        byte[] dst;
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(tmp))) {
+            dst = gzipInputStream.readAllBytes();
+        }
+
+        Assertions.assertArrayEquals(src, dst);
+    }
+
+    @Test
+    void shouldReuseAfterFailure() throws Exception {
+        byte[] src = new byte[5000];
+        new Random().nextBytes(src);
+        Compressor compressor = new GZIPCompressor();
+        byte[] tmp = compressor.compressChunk(src);
+        byte[] corrupted = tmp.clone();
+        corrupted[corrupted.length - 9] ^= 1;
+
+        Assertions.assertThrows(CompressorException.class, () -> compressor.decompressChunk(corrupted));
+        Assertions.assertArrayEquals(src, compressor.decompressChunk(tmp));
+        Assertions.assertArrayEquals(src, compressor.decompressChunk(compressor.compressChunk(src)));
+    }
+
+    @Test
+    void shouldCompressEmpty() throws Exception {
+        Compressor compressor = new GZIPCompressor();
+
+        Assertions.assertEquals(0, compressor.decompressChunk(compressor.compressChunk(new byte[0])).length);
+    }
 }
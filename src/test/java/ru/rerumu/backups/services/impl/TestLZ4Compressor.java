@@ -0,0 +1,68 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.rerumu.backups.exceptions.CompressorException;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Compressor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestLZ4Compressor {
+
+    @Test
+    void compressDecompress1500() throws Exception {
+        byte[] src = new byte[1500];
+        Compressor compressor = new LZ4Compressor();
+        Compressor compressor2 = new LZ4Compressor();
+        byte[] tmp = compressor.compressChunk(src);
+        byte[] dst = compressor2.decompressChunk(tmp);
+
+        Assertions.assertArrayEquals(src, dst);
+    }
+
+    @Test
+    void compressDecompressRandom() throws Exception {
+        byte[] src = new byte[100000];
+        new Random().nextBytes(src);
+        Compressor compressor = new LZ4Compressor();
+        byte[] tmp = compressor.compressChunk(src);
+        byte[] dst = compressor.decompressChunk(tmp);
+
+        Assertions.assertArrayEquals(src, dst);
+    }
+
+    @Test
+    void compressDecompressEmpty() throws Exception {
+        Compressor compressor = new LZ4Compressor();
+        byte[] dst = compressor.decompressChunk(compressor.compressChunk(new byte[0]));
+
+        Assertions.assertEquals(0, dst.length);
+    }
+
+    @Test
+    void shouldCompressBufferRemaining() throws Exception {
+        byte[] src = new byte[3000];
+        new Random().nextBytes(src);
+        ByteBuffer chunk = ByteBuffer.wrap(src, 1000, 1500).slice();
+        Compressor compressor = new LZ4Compressor();
+        byte[] dst = compressor.decompressChunk(compressor.compressChunk(chunk));
+
+        Assertions.assertArrayEquals(Arrays.copyOfRange(src, 1000, 2500), dst);
+        Assertions.assertEquals(0, chunk.position());
+    }
+
+    @Test
+    void shouldFailOnTruncatedChunk() {
+        Compressor compressor = new LZ4Compressor();
+
+        Assertions.assertThrows(CompressorException.class, () -> compressor.decompressChunk(new byte[2]));
+    }
+
+    @Test
+    void shouldReportCodec() {
+        Assertions.assertEquals(CryptoMessage.CODEC_LZ4, new LZ4Compressor().getCodec());
+    }
+}
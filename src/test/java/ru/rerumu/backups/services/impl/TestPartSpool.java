@@ -0,0 +1,39 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestPartSpool {
+
+    @Test
+    void shouldBlockWhenFull() throws Exception {
+        PartSpool partSpool = new PartSpool(2);
+        partSpool.acquire();
+        partSpool.acquire();
+        Assertions.assertEquals(0, partSpool.getAvailable());
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                partSpool.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+
+        Assertions.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        partSpool.release();
+        Assertions.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    void shouldRejectWrongSize() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PartSpool(0));
+    }
+}
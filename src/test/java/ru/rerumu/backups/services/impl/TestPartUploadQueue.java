@@ -0,0 +1,131 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestPartUploadQueue {
+
+    @Test
+    void shouldProcessInOrder() throws Exception {
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        try (PartUploadQueue partUploadQueue = new PartUploadQueue(3)) {
+            for (int i = 0; i < 20; i++) {
+                final int n = i;
+                partUploadQueue.submit(() -> {
+                    Thread.sleep(1);
+                    processed.add(n);
+                    return null;
+                });
+            }
+            partUploadQueue.awaitAll();
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i);
+        }
+        Assertions.assertEquals(expected, processed);
+    }
+
+    @Test
+    void shouldNotQueueMoreThanDepth() throws Exception {
+        int depth = 2;
+        AtomicInteger queued = new AtomicInteger();
+        AtomicInteger maxQueued = new AtomicInteger();
+        try (PartUploadQueue partUploadQueue = new PartUploadQueue(depth)) {
+            for (int i = 0; i < 10; i++) {
+                maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+                partUploadQueue.submit(() -> {
+                    Thread.sleep(5);
+                    queued.decrementAndGet();
+                    return null;
+                });
+            }
+            partUploadQueue.awaitAll();
+        }
+        // The counter is incremented before submit blocks, so it may exceed depth by the part being submitted
+        Assertions.assertTrue(maxQueued.get() <= depth + 1, String.format("Queued %d parts", maxQueued.get()));
+    }
+
+    @Test
+    void shouldBlockWriterWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (PartUploadQueue partUploadQueue = new PartUploadQueue(1)) {
+            partUploadQueue.submit(() -> {
+                release.await();
+                return null;
+            });
+            Thread writer = new Thread(() -> {
+                try {
+                    partUploadQueue.submit(() -> null);
+                } catch (Exception ignored) {
+                }
+            });
+            writer.start();
+            writer.join(200);
+            Assertions.assertTrue(writer.isAlive());
+
+            release.countDown();
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            Assertions.assertFalse(writer.isAlive());
+            partUploadQueue.awaitAll();
+        }
+    }
+
+    @Test
+    void shouldCountPartBeingWritten() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (PartUploadQueue partUploadQueue = new PartUploadQueue(2)) {
+            partUploadQueue.awaitSlot();
+            partUploadQueue.submit(() -> {
+                release.await();
+                return null;
+            });
+            // One part is processed and one written
+            partUploadQueue.awaitSlot();
+            partUploadQueue.submit(() -> {
+                release.await();
+                return null;
+            });
+            Thread writer = new Thread(() -> {
+                try {
+                    partUploadQueue.awaitSlot();
+                } catch (Exception ignored) {
+                }
+            });
+            writer.start();
+            writer.join(200);
+            Assertions.assertTrue(writer.isAlive());
+
+            release.countDown();
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            Assertions.assertFalse(writer.isAlive());
+            partUploadQueue.awaitAll();
+        }
+    }
+
+    @Test
+    void shouldReportFailure() throws Exception {
+        try (PartUploadQueue partUploadQueue = new PartUploadQueue(2)) {
+            partUploadQueue.submit(() -> {
+                throw new IOException("Upload failed");
+            });
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> {
+                for (int i = 0; i < 10; i++) {
+                    partUploadQueue.submit(() -> null);
+                }
+                partUploadQueue.awaitAll();
+            });
+            Assertions.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
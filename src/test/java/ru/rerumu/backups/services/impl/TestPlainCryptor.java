@@ -0,0 +1,43 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.rerumu.backups.exceptions.EncryptException;
+import ru.rerumu.backups.models.CryptoMessage;
+import ru.rerumu.backups.services.Cryptor;
+
+import java.util.Random;
+
+public class TestPlainCryptor {
+
+    @Test
+    void shouldKeepChunkUnencrypted() throws Exception {
+        byte[] src = new byte[1500];
+        new Random().nextBytes(src);
+
+        CryptoMessage cryptoMessage = new PlainCryptor(new AESGCMCryptor("sduifysdrf")).encryptChunk(src);
+
+        Assertions.assertEquals(CryptoMessage.VERSION_PLAIN, cryptoMessage.getVersion());
+        Assertions.assertArrayEquals(src, cryptoMessage.getMessage());
+        Assertions.assertArrayEquals(src, new PlainCryptor(new AESCryptor("sduifysdrf")).decryptChunk(cryptoMessage));
+    }
+
+    @Test
+    void shouldDecryptEncryptedChunks() throws Exception {
+        byte[] src = new byte[1000];
+        new Random().nextBytes(src);
+
+        CryptoMessage cryptoMessage = new AESGCMCryptor("sduifysdrf").encryptChunk(src);
+        Cryptor cryptor = new PlainCryptor(new AESGCMCryptor("sduifysdrf"));
+
+        Assertions.assertArrayEquals(src, cryptor.decryptChunk(cryptoMessage));
+    }
+
+    @Test
+    void shouldRejectPlainChunksElsewhere() {
+        CryptoMessage cryptoMessage = new PlainCryptor(new AESGCMCryptor("sduifysdrf")).encryptChunk(new byte[100]);
+
+        Assertions.assertThrows(EncryptException.class,
+                () -> new AESGCMCryptor("sduifysdrf").decryptChunk(cryptoMessage));
+    }
+}
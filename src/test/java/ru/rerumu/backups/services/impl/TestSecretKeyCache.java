@@ -0,0 +1,59 @@
+package ru.rerumu.backups.services.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.util.Random;
+
+public class TestSecretKeyCache {
+
+    private byte[] randomSalt() {
+        byte[] salt = new byte[8];
+        new Random().nextBytes(salt);
+        return salt;
+    }
+
+    @Test
+    void shouldReturnCachedKey() throws Exception {
+        SecretKeyCache secretKeyCache = new SecretKeyCache("sduifysdrf", 2, 0);
+        byte[] salt = randomSalt();
+
+        SecretKey secretKey1 = secretKeyCache.get(salt);
+        SecretKey secretKey2 = secretKeyCache.get(salt.clone());
+
+        Assertions.assertTrue(secretKey1 == secretKey2);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsed() throws Exception {
+        SecretKeyCache secretKeyCache = new SecretKeyCache("sduifysdrf", 2, 0);
+        byte[] salt1 = randomSalt();
+        byte[] salt2 = randomSalt();
+        byte[] salt3 = randomSalt();
+
+        SecretKey secretKey1 = secretKeyCache.get(salt1);
+        SecretKey secretKey2 = secretKeyCache.get(salt2);
+        secretKeyCache.get(salt1);
+        secretKeyCache.get(salt3);
+
+        Assertions.assertTrue(secretKey1 == secretKeyCache.get(salt1));
+        SecretKey secretKey2New = secretKeyCache.get(salt2);
+        Assertions.assertFalse(secretKey2 == secretKey2New);
+        Assertions.assertArrayEquals(secretKey2.getEncoded(), secretKey2New.getEncoded());
+    }
+
+    @Test
+    void shouldPrefetch() throws Exception {
+        SecretKeyCache secretKeyCache = new SecretKeyCache("sduifysdrf", 4, 2);
+        SecretKeyCache referenceCache = new SecretKeyCache("sduifysdrf", 4, 0);
+        byte[] salt1 = randomSalt();
+        byte[] salt2 = randomSalt();
+
+        secretKeyCache.prefetch(salt1);
+        secretKeyCache.prefetch(salt2);
+
+        Assertions.assertArrayEquals(referenceCache.get(salt1).getEncoded(), secretKeyCache.get(salt1).getEncoded());
+        Assertions.assertArrayEquals(referenceCache.get(salt2).getEncoded(), secretKeyCache.get(salt2).getEncoded());
+    }
+}
@@ -7,7 +7,9 @@ import org.mockito.Mockito;
 import ru.rerumu.backups.exceptions.*;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
+import ru.rerumu.backups.models.PartUploadMode;
 import ru.rerumu.backups.models.Snapshot;
+import ru.rerumu.backups.models.SnapshotProperties;
 import ru.rerumu.backups.repositories.FilePartRepository;
 import ru.rerumu.backups.repositories.RemoteBackupRepository;
 import ru.rerumu.backups.services.SnapshotSender;
@@ -15,6 +17,7 @@ import ru.rerumu.backups.services.ZFSFileWriter;
 import ru.rerumu.backups.zfs_api.ZFSSend;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
@@ -42,12 +45,12 @@ public class TestSnapshotSenderByDataset {
         ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
 
         Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
-        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderByDataset(
                 filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true
@@ -59,10 +62,11 @@ public class TestSnapshotSenderByDataset {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")),
+                Mockito.any()
         );
     }
 
@@ -88,12 +92,12 @@ public class TestSnapshotSenderByDataset {
 
         Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
         Mockito.when(zfsProcessFactory.getZFSSendIncremental(Mockito.any(),Mockito.any())).thenReturn(zfsSendIncremental);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
-        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderByDataset(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true);
         snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
@@ -105,14 +109,16 @@ public class TestSnapshotSenderByDataset {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(2)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(2)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")),
+                Mockito.any()
         );
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220328-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220328-150000.part0")),
+                Mockito.any()
         );
     }
 
@@ -126,14 +132,14 @@ public class TestSnapshotSenderByDataset {
         ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
 
         Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
         Mockito.doThrow(new FileHitSizeLimitException())
                 .doThrow(new ZFSStreamEndedException())
-                .when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderByDataset(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true);
         snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
@@ -143,17 +149,52 @@ public class TestSnapshotSenderByDataset {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(2)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(2)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")),
+                Mockito.any()
         );
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part1")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part1")),
+                Mockito.any()
         );
     }
 
+    @Test
+    void shouldGiveBackSpoolSlots() throws IOException, FileHitSizeLimitException, CompressorException, ZFSStreamEndedException, EncryptException, S3MissesFileException, NoSuchAlgorithmException, ExecutionException, InterruptedException, IncorrectHashException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        Mockito.doThrow(new FileHitSizeLimitException())
+                .doThrow(new FileHitSizeLimitException())
+                .doThrow(new ZFSStreamEndedException())
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
+
+        // A single slot lets the writer go on only after the previous part is uploaded
+        PartSpool partSpool = new PartSpool(1);
+        SnapshotSender snapshotSender = new SnapshotSenderByDataset(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,
+                true, 2, PartUploadMode.FILES, partSpool);
+        snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
+                new Snapshot("ExternalPool/Applications@auto-20220326-150000")
+        ));
+
+        Mockito.verify(remoteBackupRepository, Mockito.times(3)).add(Mockito.any(), Mockito.any(), Mockito.any());
+        Assertions.assertEquals(1, partSpool.getAvailable());
+    }
+
     @Test
     void shouldSendIncremental()
             throws IOException,
@@ -174,13 +215,13 @@ public class TestSnapshotSenderByDataset {
         ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
 
         Mockito.when(zfsProcessFactory.getZFSSendIncremental(Mockito.any(), Mockito.any())).thenReturn(zfsSendIncremental);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
         Mockito.doThrow(new ZFSStreamEndedException())
-                .when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderByDataset(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true);
         snapshotSender.sendStartingFromIncremental("ExternalPool/Applications", List.of(
@@ -192,13 +233,62 @@ public class TestSnapshotSenderByDataset {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220328-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220328-150000.part0")),
+                Mockito.any()
         );
     }
 
+    @Test
+    void shouldSkipIncrementalWhenNothingChanged()
+            throws IOException,
+            FileHitSizeLimitException,
+            CompressorException,
+            ZFSStreamEndedException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
+
+        Snapshot base = new Snapshot("ExternalPool/Applications@auto-20220326-150000", new SnapshotProperties(1, 10, 0, 0, 4096));
+        Snapshot first = new Snapshot("ExternalPool/Applications@auto-20220327-150000", new SnapshotProperties(2, 11, 0, 0, 0));
+        Snapshot second = new Snapshot("ExternalPool/Applications@auto-20220328-150000", new SnapshotProperties(3, 12, 0, 0, 0));
+
+        SnapshotSender snapshotSender = new SnapshotSenderByDataset(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,
+                true, 0, PartUploadMode.FILES, null, true);
+        snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(base, first, second));
+
+        Mockito.verify(zfsProcessFactory).getZFSSendFull(base);
+        Mockito.verify(zfsProcessFactory, Mockito.never()).getZFSSendIncremental(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any(), Mockito.any());
+        Assertions.assertEquals(1, snapshotSender.getAvoidedSends());
+
+        snapshotSender.sendStartingFromIncremental("ExternalPool/Applications", List.of(base, first, second));
+
+        Mockito.verify(zfsProcessFactory, Mockito.never()).getZFSSendIncremental(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any(), Mockito.any());
+        Assertions.assertEquals(2, snapshotSender.getAvoidedSends());
+    }
+
     @Test
     void shouldThrowException() throws IOException{
         FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
@@ -8,17 +8,24 @@ import ru.rerumu.backups.exceptions.*;
 import ru.rerumu.backups.repositories.RemoteBackupRepository;
 import ru.rerumu.backups.services.ZFSFileWriter;
 import ru.rerumu.backups.factories.ZFSFileWriterFactory;
+import ru.rerumu.backups.models.PartUploadMode;
 import ru.rerumu.backups.models.Snapshot;
+import ru.rerumu.backups.models.SnapshotProperties;
 import ru.rerumu.backups.repositories.FilePartRepository;
+import ru.rerumu.backups.repositories.PartOutputStream;
 import ru.rerumu.backups.services.SnapshotSender;
 import ru.rerumu.backups.factories.ZFSProcessFactory;
 import ru.rerumu.backups.zfs_api.ZFSSend;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class TestSnapshotSenderBySnapshot {
 
@@ -42,12 +49,12 @@ public class TestSnapshotSenderBySnapshot {
         ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
 
         Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
-        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true);
         snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
@@ -57,10 +64,11 @@ public class TestSnapshotSenderBySnapshot {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")),
+                Mockito.any()
         );
     }
 
@@ -86,12 +94,12 @@ public class TestSnapshotSenderBySnapshot {
 
         Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
         Mockito.when(zfsProcessFactory.getZFSSendIncremental(Mockito.any(),Mockito.any())).thenReturn(zfsSendIncremental);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
-        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true);
         snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
@@ -103,21 +111,103 @@ public class TestSnapshotSenderBySnapshot {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(3)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(3)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")),
+                Mockito.any()
         );
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220327-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220327-150000.part0")),
+                Mockito.any()
         );
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220327-150000__ExternalPool-Applications@auto-20220328-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220327-150000__ExternalPool-Applications@auto-20220328-150000.part0")),
+                Mockito.any()
         );
     }
 
+    @Test
+    void shouldFoldUnchangedSnapshots()
+            throws IOException,
+            FileHitSizeLimitException,
+            CompressorException,
+            ZFSStreamEndedException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSSend zfsSendIncremental = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsProcessFactory.getZFSSendIncremental(Mockito.any(),Mockito.any())).thenReturn(zfsSendIncremental);
+        Mockito.when(zfsProcessFactory.getZFSSendMultiIncremental(Mockito.any(),Mockito.any())).thenReturn(zfsSendIncremental);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
+
+        Snapshot base = new Snapshot("ExternalPool/Applications@auto-20220326-150000", new SnapshotProperties(1, 10, 0, 0, 4096));
+        Snapshot changed = new Snapshot("ExternalPool/Applications@auto-20220327-150000", new SnapshotProperties(2, 11, 0, 0, 1024));
+        Snapshot unchanged = new Snapshot("ExternalPool/Applications@auto-20220328-150000", new SnapshotProperties(3, 12, 0, 0, 0));
+        Snapshot last = new Snapshot("ExternalPool/Applications@auto-20220329-150000", new SnapshotProperties(4, 13, 0, 0, 512));
+
+        SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,
+                true, 0, PartUploadMode.FILES, null, true);
+        snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(base, changed, unchanged, last));
+
+        // The unchanged snapshot goes with the changed one before it
+        InOrder inOrder = Mockito.inOrder(zfsProcessFactory);
+        inOrder.verify(zfsProcessFactory).getZFSSendFull(base);
+        inOrder.verify(zfsProcessFactory).getZFSSendMultiIncremental(base, unchanged);
+        inOrder.verify(zfsProcessFactory).getZFSSendIncremental(unchanged, last);
+        Mockito.verify(remoteBackupRepository, Mockito.times(3)).add(Mockito.any(), Mockito.any(), Mockito.any());
+        Assertions.assertEquals(1, snapshotSender.getAvoidedSends());
+    }
+
+    @Test
+    void shouldSkipSnapshotsWhenNothingChanged()
+            throws IOException,
+            CompressorException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+
+        Snapshot base = new Snapshot("ExternalPool/Applications@auto-20220326-150000", new SnapshotProperties(1, 10, 0, 0, 4096));
+        Snapshot first = new Snapshot("ExternalPool/Applications@auto-20220327-150000", new SnapshotProperties(2, 11, 0, 0, 0));
+        Snapshot second = new Snapshot("ExternalPool/Applications@auto-20220328-150000", new SnapshotProperties(3, 12, 0, 0, 0));
+
+        SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,
+                true, 0, PartUploadMode.FILES, null, true);
+        snapshotSender.sendStartingFromIncremental("ExternalPool/Applications", List.of(base, first, second));
+
+        Mockito.verify(zfsProcessFactory, Mockito.never()).getZFSSendMultiIncremental(Mockito.any(), Mockito.any());
+        Mockito.verify(zfsProcessFactory, Mockito.never()).getZFSSendIncremental(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.never()).add(Mockito.any(), Mockito.any(), Mockito.any());
+        Assertions.assertEquals(2, snapshotSender.getAvoidedSends());
+    }
+
     @Test
     void shouldSendMultipart() throws IOException, FileHitSizeLimitException, CompressorException, ZFSStreamEndedException, EncryptException, S3MissesFileException, NoSuchAlgorithmException, ExecutionException, InterruptedException, IncorrectHashException {
         FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
@@ -128,14 +218,14 @@ public class TestSnapshotSenderBySnapshot {
         ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
 
         Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
         Mockito.doThrow(new FileHitSizeLimitException())
                 .doThrow(new ZFSStreamEndedException())
-                .when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true);
         snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
@@ -145,14 +235,16 @@ public class TestSnapshotSenderBySnapshot {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(2)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(2)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part0")),
+                Mockito.any()
         );
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part1")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part1")),
+                Mockito.any()
         );
     }
 
@@ -176,13 +268,13 @@ public class TestSnapshotSenderBySnapshot {
         ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
 
         Mockito.when(zfsProcessFactory.getZFSSendIncremental(Mockito.any(), Mockito.any())).thenReturn(zfsSendIncremental);
-        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
         Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
             Object[] args = invocationOnMock.getArguments();
             return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
         });
         Mockito.doThrow(new ZFSStreamEndedException())
-                .when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 
         SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,true);
         snapshotSender.sendStartingFromIncremental("ExternalPool/Applications", List.of(
@@ -193,10 +285,11 @@ public class TestSnapshotSenderBySnapshot {
 
         InOrder inOrder = Mockito.inOrder(remoteBackupRepository);
 
-        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.times(1)).add(Mockito.any(), Mockito.any(), Mockito.any());
         inOrder.verify(remoteBackupRepository).add(
-                "ExternalPool-Applications",
-                Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220327-150000.part0")
+                Mockito.eq("ExternalPool-Applications"),
+                Mockito.eq(Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000__ExternalPool-Applications@auto-20220327-150000.part0")),
+                Mockito.any()
         );
     }
 
@@ -228,16 +321,255 @@ public class TestSnapshotSenderBySnapshot {
 //        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
 //
 //        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
-//        Mockito.when(zfsFileWriterFactory.getZFSFileWriter()).thenReturn(zfsFileWriter);
+//        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
 //        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
 //            Object[] args = invocationOnMock.getArguments();
 //            return Paths.get((String)args[0]+".part"+(int)args[1]);
 //        });
-//        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any());
+//        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
 //
 //        SnapshotSender snapshotSender = new SnapshotSenderImpl(filePartRepository, s3Loader, zfsProcessFactory, zfsFileWriterFactory,true);
 //        Snapshot baseSnapshot = new Snapshot("ExternalPool/Applications@auto-20220326-150000");
 //        snapshotSender.sendBaseSnapshot(baseSnapshot, s3Loader, true);
 //        snapshotSender.sendStartingFromFull("",);
 //    }
+
+    @Test
+    void shouldUploadInBackground()
+            throws IOException,
+            FileHitSizeLimitException,
+            CompressorException,
+            ZFSStreamEndedException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        Mockito.doThrow(new FileHitSizeLimitException())
+                .doThrow(new FileHitSizeLimitException())
+                .doThrow(new ZFSStreamEndedException())
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
+
+        SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, true, 2);
+        snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
+                new Snapshot("ExternalPool/Applications@auto-20220326-150000")
+        ));
+
+        InOrder inOrder = Mockito.inOrder(remoteBackupRepository, filePartRepository);
+
+        Mockito.verify(remoteBackupRepository, Mockito.times(3)).add(Mockito.any(), Mockito.any(), Mockito.any());
+        for (int i = 0; i < 3; i++) {
+            Path path = Paths.get("/tmp/ExternalPool-Applications@auto-20220326-150000.part" + i);
+            inOrder.verify(remoteBackupRepository).add(
+                    Mockito.eq("ExternalPool-Applications"),
+                    Mockito.eq(path),
+                    Mockito.any()
+            );
+            inOrder.verify(filePartRepository).delete(path);
+        }
+    }
+
+    @Test
+    void shouldFailOnBackgroundUploadError()
+            throws IOException,
+            FileHitSizeLimitException,
+            CompressorException,
+            ZFSStreamEndedException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        Mockito.doThrow(new FileHitSizeLimitException())
+                .doThrow(new ZFSStreamEndedException())
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
+        Mockito.doThrow(new IncorrectHashException())
+                .when(remoteBackupRepository).add(Mockito.any(), Mockito.any(), Mockito.any());
+
+        SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, true, 2);
+
+        Assertions.assertThrows(IncorrectHashException.class, () -> snapshotSender.sendStartingFromFull(
+                "ExternalPool/Applications",
+                List.of(new Snapshot("ExternalPool/Applications@auto-20220326-150000"))));
+
+        Mockito.verify(zfsSend).kill();
+        Mockito.verify(zfsSend).close();
+        Mockito.verify(filePartRepository, Mockito.never()).delete(Mockito.any());
+    }
+
+    @Test
+    void shouldStreamPartsWithoutFiles()
+            throws IOException,
+            FileHitSizeLimitException,
+            CompressorException,
+            ZFSStreamEndedException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+        PartOutputStream partOutputStream = Mockito.mock(PartOutputStream.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        Mockito.when(remoteBackupRepository.newPartOutputStream(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(partOutputStream);
+        Mockito.doThrow(new FileHitSizeLimitException())
+                .doThrow(new ZFSStreamEndedException())
+                .when(zfsFileWriter).write(Mockito.any(), Mockito.any(OutputStream.class));
+
+        SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory, true, 2,
+                PartUploadMode.STREAMING);
+        snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(
+                new Snapshot("ExternalPool/Applications@auto-20220326-150000")
+        ));
+
+        for (int i = 0; i < 2; i++) {
+            Mockito.verify(remoteBackupRepository).newPartOutputStream(
+                    "ExternalPool-Applications", "ExternalPool-Applications@auto-20220326-150000.part" + i, null);
+        }
+        Mockito.verify(partOutputStream, Mockito.times(2)).close();
+        Mockito.verify(zfsFileWriter, Mockito.never()).write(Mockito.any(), Mockito.any(Path.class));
+        Mockito.verify(remoteBackupRepository, Mockito.never()).add(Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(filePartRepository, Mockito.never()).delete(Mockito.any());
+    }
+
+    @Test
+    void shouldSendIncrementsConcurrently()
+            throws IOException,
+            FileHitSizeLimitException,
+            CompressorException,
+            ZFSStreamEndedException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+        PartOutputStream partOutputStream = Mockito.mock(PartOutputStream.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendFull(Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsProcessFactory.getZFSSendIncremental(Mockito.any(),Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(remoteBackupRepository.newPartOutputStream(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(partOutputStream);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        // Each incremental stream waits for the other one, sending them one by one would fail
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Mockito.doAnswer(invocationOnMock -> {
+            Path path = invocationOnMock.getArgument(1);
+            if (path.toString().contains("__")) {
+                bothStarted.countDown();
+                Assertions.assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+            }
+            throw new ZFSStreamEndedException();
+        }).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
+
+        Snapshot base = new Snapshot("ExternalPool/Applications@auto-20220326-150000");
+        Snapshot first = new Snapshot("ExternalPool/Applications@auto-20220327-150000");
+        Snapshot second = new Snapshot("ExternalPool/Applications@auto-20220328-150000");
+
+        SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,
+                true, 0, PartUploadMode.FILES, null, false, 2);
+        snapshotSender.sendStartingFromFull("ExternalPool/Applications", List.of(base, first, second));
+
+        Mockito.verify(zfsProcessFactory).getZFSSendIncremental(base, first);
+        Mockito.verify(zfsProcessFactory).getZFSSendIncremental(first, second);
+        Mockito.verify(remoteBackupRepository, Mockito.times(3)).add(Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(remoteBackupRepository, Mockito.never()).newPartOutputStream(
+                Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void shouldSendStreamsOneByOneWithoutS3()
+            throws IOException,
+            FileHitSizeLimitException,
+            CompressorException,
+            ZFSStreamEndedException,
+            EncryptException,
+            NoSuchAlgorithmException,
+            InterruptedException,
+            IncorrectHashException,
+            S3MissesFileException,
+            ExecutionException {
+        FilePartRepository filePartRepository = Mockito.mock(FilePartRepository.class);
+        RemoteBackupRepository remoteBackupRepository = Mockito.mock(RemoteBackupRepository.class);
+        ZFSProcessFactory zfsProcessFactory = Mockito.mock(ZFSProcessFactory.class);
+        ZFSFileWriterFactory zfsFileWriterFactory = Mockito.mock(ZFSFileWriterFactory.class);
+        ZFSSend zfsSend = Mockito.mock(ZFSSend.class);
+        ZFSFileWriter zfsFileWriter = Mockito.mock(ZFSFileWriter.class);
+
+        Mockito.when(zfsProcessFactory.getZFSSendIncremental(Mockito.any(),Mockito.any())).thenReturn(zfsSend);
+        Mockito.when(zfsFileWriterFactory.getZFSFileWriter(Mockito.any())).thenReturn(zfsFileWriter);
+        Mockito.when(filePartRepository.createNewFilePath(Mockito.any(), Mockito.anyInt())).thenAnswer(invocationOnMock -> {
+            Object[] args = invocationOnMock.getArguments();
+            return Paths.get("/tmp/"+(String)args[0]+".part"+(int)args[1]);
+        });
+        Mockito.doThrow(new ZFSStreamEndedException()).when(zfsFileWriter).write(Mockito.any(), Mockito.any(Path.class));
+
+        Snapshot base = new Snapshot("ExternalPool/Applications@auto-20220326-150000");
+        Snapshot first = new Snapshot("ExternalPool/Applications@auto-20220327-150000");
+        Snapshot second = new Snapshot("ExternalPool/Applications@auto-20220328-150000");
+
+        // Without S3 streams go through the backup directory one at a time
+        SnapshotSender snapshotSender = new SnapshotSenderBySnapshot(
+                filePartRepository, remoteBackupRepository, zfsProcessFactory, zfsFileWriterFactory,
+                false, 0, PartUploadMode.FILES, null, false, 2);
+        snapshotSender.sendStartingFromIncremental("ExternalPool/Applications", List.of(base, first, second));
+
+        InOrder inOrder = Mockito.inOrder(zfsProcessFactory);
+        inOrder.verify(zfsProcessFactory).getZFSSendIncremental(base, first);
+        inOrder.verify(zfsProcessFactory).getZFSSendIncremental(first, second);
+    }
 }